@@ -0,0 +1,68 @@
+package spf.bench;
+
+import java.lang.management.ManagementFactory;
+import javax.vecmath.Matrix3f;
+import spf.SpfScene;
+import spf.physics.SpfBallTable;
+import spf.physics.SpfSteppedEngine;
+
+/**
+ * Comprueba que el paso de simulacion no crea objetos. Tras
+ * calentar la JVM, mide con ThreadMXBean los bytes reservados por
+ * la hebra durante varios tiros completos del motor por pasos y
+ * durante el calculo de la matriz de rotacion de las bolas, y
+ * termina con un codigo distinto de cero si alguno reserva memoria.
+ * <p>
+ * No necesita JMH: se compila y ejecuta con las clases del juego y
+ * vecmath.jar, j3dcore.jar en el classpath (ver README.md).
+ * @author Sergio Paque Martin
+ */
+public final class SpfAllocationCheck {
+	private static final int WarmupShots = 2000;
+	private static final int MeasuredShots = 50;
+	private static final int Balls = 16;
+	private static final float Force = 400;
+
+	private SpfAllocationCheck () {}
+
+	public static void main (String[] args) {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported()) {
+			System.err.println("No se puede medir la memoria reservada por la hebra");
+			System.exit(2);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long thread = Thread.currentThread().getId();
+
+		SpfSteppedEngine engine = new SpfSteppedEngine();
+		SpfBallTable rack = SpfBenchTables.rack(Balls);
+		for (int i = 0; i < WarmupShots; i++)
+			engine.simulateShot(rack.copy(), 0, Force, 0, 0, null);
+
+		// Las mesas se copian antes de medir, fuera de la region medida
+		SpfBallTable[] tables = new SpfBallTable[MeasuredShots];
+		for (int i = 0; i < MeasuredShots; i++)
+			tables[i] = rack.copy();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < MeasuredShots; i++)
+			engine.simulateShot(tables[i], 0, Force, 0, 0, null);
+		long shotBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+		Matrix3f matrix = new Matrix3f();
+		float angle = 0;
+		for (int i = 0; i < 100000; i++, angle += 0.001f)
+			SpfScene.getRotationMatrixRad(angle, angle * 2, angle * 3, matrix);
+		before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 100000; i++, angle += 0.001f)
+			SpfScene.getRotationMatrixRad(angle, angle * 2, angle * 3, matrix);
+		long matrixBytes = threads.getThreadAllocatedBytes(thread) - before;
+
+		System.out.println("Bytes reservados en " + MeasuredShots + " tiros: " + shotBytes);
+		System.out.println("Bytes reservados en las matrices de rotacion: " + matrixBytes);
+		if (shotBytes != 0 || matrixBytes != 0) {
+			System.err.println("El paso de simulacion reserva memoria");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package spf.bench;
+
+import java.util.Random;
+import spf.physics.SpfBallTable;
+
+/**
+ * Mesas de bolas utilizadas por las pruebas de rendimiento.
+ * @author Sergio Paque Martin
+ */
+final class SpfBenchTables {
+	static final float Radius = 0.05f;
+	static final float Mass = 1;
+	static final float Height = -0.82f;
+	
+	private SpfBenchTables () {}
+	
+	/**
+	 * Crea una mesa con la bola blanca y un triangulo de bolas en
+	 * contacto. Para mas de 16 bolas la mesa se amplia de forma
+	 * que el triangulo quepa con el mismo margen.
+	 * @param balls Numero total de bolas, incluida la blanca.
+	 * @return Devuelve la mesa de bolas.
+	 */
+	static SpfBallTable rack (int balls) {
+		SpfBallTable table = new SpfBallTable(balls);
+		int rows = 1;
+		while (rows * (rows + 1) / 2 < balls - 1) rows++;
+		float spacing = 2 * Radius * 1.001f;
+		float rowStep = spacing * (float)Math.sqrt(3) / 2;
+		float halfX = Math.max(2.2f, 1.2f + rows * rowStep + 0.5f);
+		float halfZ = Math.max(1.15f, rows * spacing / 2 + 0.5f);
+		table.getMinCoord()[0] = -halfX;
+		table.getMaxCoord()[0] = halfX;
+		table.getMinCoord()[2] = -halfZ;
+		table.getMaxCoord()[2] = halfZ;
+		
+		table.addBall(-1, Height, 0, Radius, Mass);
+		int added = 1;
+		for (int row = 0; row < rows && added < balls; row++) {
+			for (int k = 0; k <= row && added < balls; k++) {
+				float x = 1.2f + row * rowStep;
+				float z = (k - row / 2.0f) * spacing;
+				table.addBall(x, Height, z, Radius, Mass);
+				added++;
+			}
+		}
+		return table;
+	}
+	
+	/**
+	 * Crea una mesa con bolas repartidas al azar y en movimiento,
+	 * para medir el coste de un paso con muchas bolas activas.
+	 * @param balls Numero de bolas.
+	 * @param seed Semilla del generador aleatorio.
+	 * @return Devuelve la mesa de bolas.
+	 */
+	static SpfBallTable scattered (int balls, long seed) {
+		Random random = new Random(seed);
+		SpfBallTable table = rack(balls);
+		float[][] position = table.getPositions();
+		float[][] velocity = table.getVelocities();
+		float halfX = table.getMaxCoord()[0] - Radius;
+		float halfZ = table.getMaxCoord()[2] - Radius;
+		for (int i = 0; i < balls; i++) {
+			position[0][i] = (random.nextFloat() * 2 - 1) * halfX;
+			position[2][i] = (random.nextFloat() * 2 - 1) * halfZ;
+			velocity[0][i] = random.nextFloat() * 2 - 1;
+			velocity[2][i] = random.nextFloat() * 2 - 1;
+		}
+		return table;
+	}
+	
+	/**
+	 * Devuelve una mesa al estado de otra con las mismas bolas,
+	 * copiando sus arrays de estado sin crear objetos.
+	 * @param from Mesa con el estado que se quiere recuperar.
+	 * @param to Mesa que se restaura.
+	 */
+	static void restore (SpfBallTable from, SpfBallTable to) {
+		int count = from.getCount();
+		copy(from.getPositions(), to.getPositions(), count);
+		copy(from.getVelocities(), to.getVelocities(), count);
+		copy(from.getForces(), to.getForces(), count);
+		copy(from.getAngularVelocities(), to.getAngularVelocities(), count);
+		copy(from.getAngles(), to.getAngles(), count);
+		copy(from.getSweeps(), to.getSweeps(), count);
+	}
+	
+	private static void copy (float[][] from, float[][] to, int count) {
+		for (int i = 0; i < 3; i++)
+			System.arraycopy(from[i], 0, to[i], 0, count);
+	}
+}
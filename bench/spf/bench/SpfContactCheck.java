@@ -0,0 +1,82 @@
+package spf.bench;
+
+import spf.physics.SpfBallTable;
+import spf.physics.SpfSteppedEngine;
+
+/**
+ * Comprueba que el motor por pasos resuelve igual los contactos
+ * simultaneos que los contactos aislados. Coloca varias parejas de
+ * bolas en carriles separados que chocan de frente en el mismo paso,
+ * mas de las que caben en los arrays de contactos iniciales del motor,
+ * y compara el resultado con el de cada pareja simulada por separado.
+ * Termina con un codigo distinto de cero si alguna bola no acaba en
+ * la misma posicion.
+ * <p>
+ * No necesita JMH: se compila y ejecuta con las clases del juego en
+ * el classpath (ver README.md).
+ * @author Sergio Paque Martin
+ */
+public final class SpfContactCheck {
+	private static final int Pairs = 20;
+	private static final float Lane = 0.2f;
+	private static final float Distance = 0.5f;
+	private static final float Speed = 2;
+	private static final float Tolerance = 1e-5f;
+
+	private SpfContactCheck () {}
+
+	public static void main (String[] args) {
+		SpfSteppedEngine engine = new SpfSteppedEngine();
+		SpfBallTable all = pairs(Pairs);
+		engine.simulateShot(all, 0, 0, 0, 0, null);
+		float[][] position = all.getPositions();
+
+		int failures = 0;
+		for (int pair = 0; pair < Pairs; pair++) {
+			SpfBallTable single = pairs(1);
+			float[][] singlePosition = single.getPositions();
+			// Se desplaza la pareja aislada a su carril
+			singlePosition[2][0] = position[2][2 * pair];
+			singlePosition[2][1] = position[2][2 * pair + 1];
+			engine.simulateShot(single, 0, 0, 0, 0, null);
+			for (int k = 0; k < 2; k++) {
+				float x = position[0][2 * pair + k];
+				float expected = singlePosition[0][k];
+				if (Math.abs(x - expected) > Tolerance) {
+					System.err.println("Pareja " + pair + ", bola " + k + ": x = " + x +
+							", esperado " + expected);
+					failures++;
+				}
+			}
+		}
+		System.out.println("Parejas en contacto simultaneo: " + Pairs + ", errores: " + failures);
+		if (failures != 0) {
+			System.err.println("Los contactos simultaneos no se resuelven como los aislados");
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Crea una mesa con parejas de bolas que se acercan de frente,
+	 * cada una en su carril, y chocan a la vez en el centro.
+	 * @param pairs Numero de parejas.
+	 * @return Devuelve la mesa de bolas.
+	 */
+	private static SpfBallTable pairs (int pairs) {
+		SpfBallTable table = new SpfBallTable(2 * pairs);
+		float halfZ = Math.max(1.15f, pairs * Lane / 2 + 0.5f);
+		table.getMinCoord()[2] = -halfZ;
+		table.getMaxCoord()[2] = halfZ;
+		float[][] velocity = table.getVelocities();
+		for (int pair = 0; pair < pairs; pair++) {
+			float z = (pair - (pairs - 1) / 2.0f) * Lane;
+			int a = table.addBall(-Distance, SpfBenchTables.Height, z,
+					SpfBenchTables.Radius, SpfBenchTables.Mass);
+			int b = table.addBall(Distance, SpfBenchTables.Height, z,
+					SpfBenchTables.Radius, SpfBenchTables.Mass);
+			velocity[0][a] = Speed;
+			velocity[0][b] = -Speed;
+		}
+		return table;
+	}
+}
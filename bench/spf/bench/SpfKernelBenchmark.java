@@ -0,0 +1,74 @@
+package spf.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import spf.physics.SpfBallTable;
+import spf.physics.SpfKernels;
+import spf.physics.SpfPairList;
+import spf.physics.SpfUniformGrid;
+
+/**
+ * Rendimiento de los nucleos de SpfKernels en su version escalar y en
+ * la mejor disponible. Para medir la version vectorial hay que añadir
+ * las clases de vector/ al classpath y ejecutar con
+ * --add-modules jdk.incubator.vector (vease vector/README.md).
+ * @author Sergio Paque Martin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class SpfKernelBenchmark {
+	@Param({"100", "1000", "10000"})
+	public int m_Balls;
+	
+	@Param({"scalar", "best"})
+	public String m_Kernels;
+	
+	private SpfKernels m_Implementation;
+	private SpfBallTable m_Table;
+	private int[] m_Ids;
+	private SpfPairList m_Pairs;
+	private float[] m_Toi;
+	
+	@Setup(Level.Trial)
+	public void setUp () {
+		m_Implementation = m_Kernels.equals("scalar") ? 
+				SpfKernels.getScalar() : SpfKernels.getInstance();
+		m_Table = SpfBenchTables.scattered(m_Balls, 42);
+		m_Ids = new int[m_Balls];
+		for (int i = 0; i < m_Balls; i++) {
+			m_Ids[i] = i;
+			m_Table.updateSweep(i);
+		}
+		m_Pairs = new SpfPairList();
+		new SpfUniformGrid().findPairs(m_Table, m_Pairs);
+		m_Toi = new float[m_Pairs.size()];
+	}
+	
+	@Benchmark
+	public float[][] updateSweeps () {
+		m_Implementation.updateSweeps(m_Table, m_Ids, m_Balls);
+		return m_Table.getSweeps();
+	}
+	
+	@Benchmark
+	public float[] timesOfImpact () {
+		m_Implementation.timesOfImpact(m_Table, m_Pairs.getFirsts(), m_Pairs.getSeconds(),
+				m_Pairs.size(), m_Toi);
+		return m_Toi;
+	}
+}
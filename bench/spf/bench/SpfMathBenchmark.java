@@ -0,0 +1,47 @@
+package spf.bench;
+
+import java.util.concurrent.TimeUnit;
+import javax.vecmath.Matrix3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import spf.SpfScene;
+
+/**
+ * Rendimiento del calculo de matrices de rotacion que se
+ * realiza para cada bola en cada fotograma.
+ * @author Sergio Paque Martin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpfMathBenchmark {
+	public float m_RotX = 0.3f;
+	public float m_RotY = -1.2f;
+	public float m_RotZ = 2.5f;
+	private Matrix3f m_Matrix = new Matrix3f();
+	
+	@Benchmark
+	public Matrix3f rotationMatrixDegrees () {
+		return SpfScene.getRotationMatrix(m_RotX * 57.3f, m_RotY * 57.3f, m_RotZ * 57.3f);
+	}
+	
+	@Benchmark
+	public Matrix3f rotationMatrixRadians () {
+		return SpfScene.getRotationMatrixRad(m_RotX, m_RotY, m_RotZ);
+	}
+	
+	@Benchmark
+	public Matrix3f rotationMatrixRadiansInto () {
+		return SpfScene.getRotationMatrixRad(m_RotX, m_RotY, m_RotZ, m_Matrix);
+	}
+}
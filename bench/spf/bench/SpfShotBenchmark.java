@@ -0,0 +1,73 @@
+package spf.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import spf.physics.SpfBallTable;
+import spf.physics.SpfEventEngine;
+import spf.physics.SpfPhysicsEngine;
+import spf.physics.SpfShotTimeline;
+import spf.physics.SpfSteppedEngine;
+
+/**
+ * Rendimiento de un tiro de salida completo, tal y como lo
+ * realiza SpfUniverse.simulateShot: simulacion del tiro con
+ * grabacion de su linea de tiempo.
+ * @author Sergio Paque Martin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpfShotBenchmark {
+	@Param({"16", "100", "1000"})
+	public int m_Balls;
+	
+	@Param({"stepped", "event"})
+	public String m_Engine;
+	
+	private SpfBallTable m_Rack;
+	private SpfBallTable m_Table;
+	private SpfPhysicsEngine m_PhysicsEngine;
+	private SpfShotTimeline m_Timeline;
+	
+	@Setup(Level.Trial)
+	public void setUpTrial () {
+		m_Rack = SpfBenchTables.rack(m_Balls);
+		m_PhysicsEngine = "event".equals(m_Engine) ? new SpfEventEngine() : new SpfSteppedEngine();
+		m_Timeline = new SpfShotTimeline();
+	}
+	
+	@Setup(Level.Invocation)
+	public void setUpInvocation () {
+		m_Table = m_Rack.copy();
+	}
+	
+	@Benchmark
+	public SpfShotTimeline breakShot () {
+		// Fuerza maxima del taco: (m_ShotForce+1)*150
+		float force = 9 * 150;
+		m_Timeline.begin(m_Table);
+		m_PhysicsEngine.simulateShot(m_Table, 0, force, 0, force * 0.01f, m_Timeline);
+		return m_Timeline;
+	}
+	
+	@Benchmark
+	public SpfBallTable breakShotWithoutTimeline () {
+		float force = 9 * 150;
+		m_PhysicsEngine.simulateShot(m_Table, 0, force, 0, force * 0.01f, null);
+		return m_Table;
+	}
+}
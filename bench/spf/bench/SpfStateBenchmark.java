@@ -0,0 +1,77 @@
+package spf.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import spf.physics.SpfBallTable;
+
+/**
+ * Rendimiento de las partes de un paso de simulacion que modifican
+ * la mesa: integracion del estado (antes SpfSphere.updateState) y
+ * respuesta a colisiones (antes SpfSphere.updateOnCollision). Cada
+ * prueba procesa todas las bolas de la mesa.
+ * <p>
+ * Antes de cada invocacion, y fuera de la medida, la mesa vuelve al
+ * mismo estado inicial con las bolas en movimiento. Si no, tras unos
+ * cientos de llamadas las bolas quedarian paradas contra las bandas y
+ * se mediria sobre todo el caso de las bolas en reposo.
+ * @author Sergio Paque Martin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpfStateBenchmark {
+	@Param({"16", "100", "1000"})
+	public int m_Balls;
+
+	private SpfBallTable m_Initial;
+	private SpfBallTable m_Table;
+
+	@Setup(Level.Trial)
+	public void setUp () {
+		m_Initial = SpfBenchTables.scattered(m_Balls, 42);
+		for (int i = 0; i < m_Balls; i++)
+			m_Initial.updateSweep(i);
+		m_Table = m_Initial.copy();
+	}
+
+	@Setup(Level.Invocation)
+	public void restore () {
+		SpfBenchTables.restore(m_Initial, m_Table);
+	}
+
+	@Benchmark
+	public int updateState () {
+		int cushions = 0;
+		for (int i = 0; i < m_Balls; i++)
+			cushions |= m_Table.updateState(i);
+		return cushions;
+	}
+
+	@Benchmark
+	public void resolveContact (Blackhole bh) {
+		// Se alterna el sentido de la normal para que haya
+		// impulso que aplicar entre todos los pares.
+		float[][] position = m_Table.getPositions();
+		for (int i = 1; i < m_Balls; i++) {
+			float sign = (i & 1) == 0 ? 1 : -1;
+			bh.consume(m_Table.resolveContact(i - 1, i,
+					sign * (position[0][i] - position[0][i - 1]), 0,
+					sign * (position[2][i] - position[2][i - 1])));
+		}
+	}
+}
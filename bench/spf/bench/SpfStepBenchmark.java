@@ -0,0 +1,92 @@
+package spf.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import spf.physics.SpfBallTable;
+import spf.physics.SpfPairList;
+import spf.physics.SpfSweepAndPrune;
+import spf.physics.SpfUniformGrid;
+
+/**
+ * Rendimiento de las partes de un paso de simulacion que no
+ * modifican la mesa: comprobacion de movimiento (SpfObject.isMoving)
+ * y busqueda de pares (antes el recorrido de todos los pares en
+ * simulateStep). Cada prueba procesa todas las bolas de la mesa. La
+ * integracion y la respuesta a colisiones, que si la modifican, se
+ * miden en SpfStateBenchmark.
+ * @author Sergio Paque Martin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpfStepBenchmark {
+	@Param({"16", "100", "1000"})
+	public int m_Balls;
+	
+	private SpfBallTable m_Table;
+	private SpfPairList m_Pairs;
+	private SpfUniformGrid m_Grid;
+	private SpfSweepAndPrune m_SweepAndPrune;
+	
+	@Setup(Level.Iteration)
+	public void setUp () {
+		m_Table = SpfBenchTables.scattered(m_Balls, 42);
+		m_Pairs = new SpfPairList();
+		m_Grid = new SpfUniformGrid();
+		m_SweepAndPrune = new SpfSweepAndPrune();
+		for (int i = 0; i < m_Balls; i++)
+			m_Table.updateSweep(i);
+	}
+	
+	@Benchmark
+	public int isMoving () {
+		int moving = 0;
+		for (int i = 0; i < m_Balls; i++)
+			if (m_Table.isMoving(i)) moving++;
+		return moving;
+	}
+	
+	@Benchmark
+	public int uniformGridPairs () {
+		m_Grid.findPairs(m_Table, m_Pairs);
+		return m_Pairs.size();
+	}
+	
+	@Benchmark
+	public int sweepAndPrunePairs () {
+		m_SweepAndPrune.findPairs(m_Table, m_Pairs);
+		return m_Pairs.size();
+	}
+	
+	@Benchmark
+	public int bruteForcePairs () {
+		// Recorrido de todos los pares, como el antiguo simulateStep
+		float[][] position = m_Table.getPositions();
+		float[] radius = m_Table.getRadii();
+		int contacts = 0;
+		for (int i = 0; i < m_Balls; i++) {
+			for (int j = i + 1; j < m_Balls; j++) {
+				float dx = position[0][j] - position[0][i];
+				float dy = position[1][j] - position[1][i];
+				float dz = position[2][j] - position[2][i];
+				float minDistance = radius[i] + radius[j];
+				if (dx*dx + dy*dy + dz*dz < minDistance*minDistance) contacts++;
+			}
+		}
+		return contacts;
+	}
+}
@@ -0,0 +1,106 @@
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import spf.physics.SpfBallTable;
+import spf.physics.SpfBreakAnalyzer;
+import spf.physics.SpfBreakStats;
+import spf.physics.SpfTableLoader;
+
+import static spf.physics.SpfPhysicsConstants.GameBalls;
+
+/**
+ * Analizador de Monte Carlo del tiro de salida, sin interfaz grafica.
+ * Uso:
+ * <pre>
+ * java BreakAnalyzer [opciones] [balls.xml]
+ *   -shots N        numero de tiros (1000000)
+ *   -batch N        tiros entre cada informe parcial (100000)
+ *   -threads N      hilos de simulacion (todos los nucleos)
+ *   -seed N         semilla de las perturbaciones (0)
+ *   -force F        fuerza media del tiro (750)
+ *   -angle G        desviacion de la direccion en grados (0.5)
+ *   -forceJitter R  desviacion relativa de la fuerza (0.02)
+ *   -rackJitter D   desviacion de la colocacion de las bolas (0.002)
+ *   -engine event   usar el motor por eventos
+ * </pre>
+ * @author Sergio Paque Martin
+ */
+public class BreakAnalyzer {
+    /**
+     * @param args Argumentos de la linea de comandos
+     */
+    public static void main(String args[]) {
+		long shots = 1000000;
+		int batch = 100000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		String path = null;
+
+		SpfBallTable rack;
+		String[] names = SpfTableLoader.getGameBallNames(GameBalls);
+		SpfBreakAnalyzer analyzer;
+		try {
+			// El fichero se lee antes que las opciones del analizador
+			for (int i = 0; i < args.length; i++) {
+				if (!args[i].startsWith("-")) path = args[i];
+				else i++;
+			}
+			rack = loadRack(path, names);
+			analyzer = new SpfBreakAnalyzer(rack, 0);
+			for (int i = 0; i < args.length; i++) {
+				String option = args[i];
+				if (!option.startsWith("-")) continue;
+				if (i + 1 == args.length)
+					throw new IllegalArgumentException("Falta el valor de " + option);
+				String value = args[++i];
+				if (option.equals("-shots")) shots = Long.parseLong(value);
+				else if (option.equals("-batch")) batch = Integer.parseInt(value);
+				else if (option.equals("-threads")) threads = Integer.parseInt(value);
+				else if (option.equals("-seed")) analyzer.setSeed(Long.parseLong(value));
+				else if (option.equals("-force")) analyzer.setForce(Float.parseFloat(value));
+				else if (option.equals("-angle")) analyzer.setAngleJitter(Float.parseFloat(value));
+				else if (option.equals("-forceJitter")) analyzer.setForceJitter(Float.parseFloat(value));
+				else if (option.equals("-rackJitter")) analyzer.setRackJitter(Float.parseFloat(value));
+				else if (option.equals("-engine")) analyzer.setEventEngine(value.equals("event"));
+				else throw new IllegalArgumentException("Opcion desconocida: " + option);
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		SpfBreakStats total = new SpfBreakStats(rack.getCount());
+		long start = System.nanoTime();
+		for (long done = 0; done < shots; ) {
+			int count = (int)Math.min(batch, shots - done);
+			total.merge(analyzer.run(done, count, pool));
+			done += count;
+			double seconds = (System.nanoTime() - start) * 1e-9;
+			System.out.printf("[%.1fs, %.0f tiros/s] ", seconds, done / seconds);
+			total.printSummary(System.out);
+		}
+		pool.shutdown();
+		System.out.println();
+		total.printReport(System.out, names);
+    }
+
+	/**
+	 * Carga la mesa de salida.
+	 * @param path Fichero de escena, o null para usar el de los recursos.
+	 * @param names Nombres de las bolas de la partida.
+	 * @return Devuelve la mesa de bolas.
+	 */
+	private static SpfBallTable loadRack (String path, String[] names) {
+		File file;
+		if (path != null) {
+			file = new File(path);
+		} else {
+			try {
+				file = new File(BreakAnalyzer.class.getResource("/spf/resources/balls.xml").toURI());
+			} catch (Exception e) {
+				throw new IllegalArgumentException("No se encuentra balls.xml");
+			}
+		}
+		return new SpfTableLoader(file).createTable(names);
+	}
+}
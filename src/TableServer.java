@@ -0,0 +1,60 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import spf.physics.SpfShotOutcome;
+import spf.physics.SpfTableLoader;
+import spf.server.SpfTableServer;
+
+import static spf.physics.SpfPhysicsConstants.GameBalls;
+
+/**
+ * Servidor de mesas sin interfaz grafica. Abre un numero de mesas,
+ * lanza en todas ellas tiros aleatorios y muestra el rendimiento.
+ * Uso:
+ * <pre>
+ * java TableServer [mesas] [tiros por mesa] [simulaciones simultaneas] [balls.xml]
+ * </pre>
+ * @author Sergio Paque Martin
+ */
+public class TableServer {
+    /**
+     * @param args Argumentos de la linea de comandos
+     */
+    public static void main(String args[]) throws Exception {
+		int tables = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int shots = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		int simulations = args.length > 2 ? Integer.parseInt(args[2]) :
+				Runtime.getRuntime().availableProcessors();
+		File file = args.length > 3 ? new File(args[3]) :
+				new File(TableServer.class.getResource("/spf/resources/balls.xml").toURI());
+
+		SpfTableServer server = new SpfTableServer(new SpfTableLoader(file), GameBalls, simulations);
+		System.out.println("Mesas: " + tables + ", tiros por mesa: " + shots +
+				", simulaciones simultaneas: " + simulations +
+				(server.isVirtual() ? " (hilos virtuales)" : " (pool de hilos)"));
+		for (int t = 0; t < tables; t++)
+			server.openTable("mesa-" + t);
+
+		Random random = new Random(0);
+		List<CompletableFuture<SpfShotOutcome>> results =
+				new ArrayList<CompletableFuture<SpfShotOutcome>>(tables * shots);
+		long start = System.nanoTime();
+		for (int s = 0; s < shots; s++) {
+			for (int t = 0; t < tables; t++) {
+				double angle = random.nextDouble() * 2 * Math.PI;
+				float force = 150 + random.nextFloat() * 600;
+				results.add(server.shoot("mesa-" + t, 0,
+						(float)Math.cos(angle) * force, 0, (float)Math.sin(angle) * force));
+			}
+		}
+		double simulated = 0;
+		for (CompletableFuture<SpfShotOutcome> result : results)
+			simulated += result.get().getDuration();
+		double seconds = (System.nanoTime() - start) * 1e-9;
+		System.out.printf("%d tiros en %.2f s (%.0f tiros/s, %.0fx tiempo real)%n",
+				results.size(), seconds, results.size() / seconds, simulated / seconds);
+		server.shutdown(1000);
+    }
+}
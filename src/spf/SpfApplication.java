@@ -39,10 +39,11 @@ public class SpfApplication extends JFrame {
 		initComponents();
 		// center frame
 		setLocationRelativeTo(null);
-		new SpfSplashScreen(this).setVisible(true);
+		SpfSplashScreen splash = new SpfSplashScreen(this);
+		splash.setVisible(true);
 
 		m_Universe = new SpfUniverse();
-		getContentPane().add(m_Universe.loadScene());
+		getContentPane().add(m_Universe.loadScene(splash));
 			
 		setIconImage(new ImageIcon(ResourcesPath + "8ball.png").getImage());
     }
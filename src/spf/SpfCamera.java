@@ -21,6 +21,7 @@ import javax.media.j3d.ViewPlatform;
 import javax.vecmath.Point3d;
 import javax.vecmath.Vector3d;
 import javax.vecmath.Vector3f;
+import spf.jfr.SpfTextureLoadEvent;
 
 import static spf.SpfConstants.*;
 
@@ -251,6 +252,8 @@ public class SpfCamera {
 		String path;
 		
 		for (int i = 0; i < m_HudTextures.length; i++) {
+			SpfTextureLoadEvent event = new SpfTextureLoadEvent();
+			event.begin();
 			path = base + "power" + (i + 1) + ".png";
 			TextureLoader loader = 
 					new TextureLoader(
@@ -268,6 +271,11 @@ public class SpfCamera {
 							imageWidth, imageHeight);
 			texture.setImage(0, image);
 			m_HudTextures[i] = texture;
+			event.end();
+			if (event.shouldCommit()) {
+				event.setTexture(path, imageWidth, imageHeight, 1);
+				event.commit();
+			}
 		}
 	}
 }
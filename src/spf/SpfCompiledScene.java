@@ -0,0 +1,548 @@
+package spf;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import spf.xml.SpfXmlNode;
+import spf.xml.SpfXmlReader;
+
+/**
+ * Escena compilada a un formato binario compacto. Contiene los nodos
+ * de la escena en el orden del fichero xml, con las transformaciones
+ * y las luces ya convertidas a numeros y los objetos (con su nombre,
+ * sus parametros y su apariencia) como elementos con los textos en
+ * una tabla de cadenas.
+ * <p>
+ * El fichero compilado empieza por el resumen SHA-256 del fichero xml
+ * del que procede. Si el resumen coincide, la escena se lee del
+ * fichero compilado proyectado en memoria; si no, se compila de nuevo
+ * el xml y se guarda el resultado. El directorio de la cache es
+ * ~/.spf/scenes o el indicado con -Dspf.sceneCache, y con
+ * -Dspf.sceneCache=false se desactiva.
+ * <p>
+ * Formato del fichero:
+ * <pre>
+ * cabecera  := Magic Version tamaño resumen[32] objetos objetos_de_decorado
+ *              numero_de_cadenas cadena*
+ * cadena    := longitud(short) bytes_utf8
+ * escena    := BranchGroup
+ * grupo     := BranchGroupTag hijo* EndTag
+ * hijo      := grupo
+ *            | TransformGroupTag rotX rotY rotZ transX transY transZ scale
+ *              (0 | 1 elemento)
+ *            | AmbientLightTag r g b
+ *            | DirectionalLightTag r g b dirX dirY dirZ
+ * elemento  := nombre(int) numero_de_atributos(short) (nombre(int) valor(int))*
+ *              numero_de_hijos(short) elemento*
+ * </pre>
+ * @author Sergio Paque Martin
+ */
+public class SpfCompiledScene {
+	static final byte EndTag = 0;
+	static final byte BranchGroupTag = 1;
+	static final byte TransformGroupTag = 2;
+	static final byte AmbientLightTag = 3;
+	static final byte DirectionalLightTag = 4;
+
+	/// "SPFC"
+	private static final int Magic = 0x53504643;
+	/// Version del formato, que debe cambiar con el compilador
+	private static final int Version = 2;
+	private static final int HashSize = 32;
+	private static final int HeaderSize = 12 + HashSize;
+	private static final String Extension = ".spfc";
+
+	private ByteBuffer m_Buffer;
+	private String[] m_Strings;
+	private boolean m_Cached;
+	private int m_Objects;
+	private int m_DecorObjects;
+
+	/**
+	 * Constructor de SpfCompiledScene.
+	 * @param buffer Contenido del fichero compilado, con la cabecera.
+	 * @param cached Si procede de la cache.
+	 */
+	private SpfCompiledScene (ByteBuffer buffer, boolean cached) {
+		m_Buffer = buffer;
+		m_Cached = cached;
+		m_Buffer.position(HeaderSize);
+		m_Objects = m_Buffer.getInt();
+		m_DecorObjects = m_Buffer.getInt();
+		m_Strings = new String[m_Buffer.getInt()];
+		for (int i = 0; i < m_Strings.length; i++) {
+			byte[] bytes = new byte[m_Buffer.getShort() & 0xFFFF];
+			m_Buffer.get(bytes);
+			m_Strings[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Carga">
+
+	/**
+	 * Carga una escena de la cache si esta al dia o, si no, del
+	 * fichero xml, guardando la escena compilada en la cache. La
+	 * compilacion escribe directamente en el fichero, por lo que la
+	 * escena nunca esta entera en memoria.
+	 * @param file Fichero xml de la escena.
+	 * @param cacheDir Directorio de la cache, o null para no usarla.
+	 * @return Devuelve la escena compilada.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public static SpfCompiledScene load (File file, File cacheDir)
+			throws IllegalArgumentException {
+		return load(file, cacheDir, false);
+	}
+
+	/**
+	 * Carga una escena de la cache si esta al dia o, si no o si se
+	 * indica, del fichero xml, guardando la escena compilada en la
+	 * cache.
+	 * @param file Fichero xml de la escena.
+	 * @param cacheDir Directorio de la cache, o null para no usarla.
+	 * @param recompile Compilar el xml aunque la cache este al dia,
+	 * por ejemplo porque el fichero compilado esta danado.
+	 * @return Devuelve la escena compilada.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public static SpfCompiledScene load (File file, File cacheDir, boolean recompile)
+			throws IllegalArgumentException {
+		byte[] hash = hash(file);
+		if (cacheDir != null) {
+			File compiled = getCacheFile(file, cacheDir);
+			try {
+				SpfCompiledScene scene = recompile ? null : open(compiled, hash);
+				if (scene != null) return scene;
+			} catch (IOException e) {
+				// Se compila de nuevo
+			} catch (RuntimeException e) {
+				// Tabla de cadenas danada; se compila de nuevo
+			}
+			try {
+				File dir = compiled.getAbsoluteFile().getParentFile();
+				if (!dir.isDirectory() && !dir.mkdirs())
+					throw new IOException("No se puede crear el directorio " + dir);
+				File temp = File.createTempFile(compiled.getName(), ".tmp", dir);
+				try {
+					compile(file, hash, temp);
+					Files.move(temp.toPath(), compiled.toPath(), StandardCopyOption.REPLACE_EXISTING);
+				} finally {
+					temp.delete();
+				}
+				return map(compiled, false);
+			} catch (IOException e) {
+				System.err.println("No se puede guardar la escena compilada: " + e.getMessage());
+			}
+		}
+		// Sin cache, la escena se compila en un fichero temporal
+		try {
+			File temp = File.createTempFile(file.getName(), Extension);
+			try {
+				compile(file, hash, temp);
+				return map(temp, false);
+			} finally {
+				// La proyeccion sigue siendo valida una vez borrado
+				if (!temp.delete()) temp.deleteOnExit();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("No se puede compilar la escena: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Abre una escena compilada proyectandola en memoria.
+	 * @param compiled Fichero compilado.
+	 * @param hash Resumen del fichero xml.
+	 * @return Devuelve la escena, o null si el fichero no existe o
+	 * no corresponde al xml.
+	 * @throws java.io.IOException
+	 */
+	public static SpfCompiledScene open (File compiled, byte[] hash) throws IOException {
+		if (!compiled.isFile()) return null;
+		RandomAccessFile raf = new RandomAccessFile(compiled, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// Se comprueba la cabecera antes de proyectar el fichero,
+			// para no dejar proyectado un fichero que se va a sustituir
+			ByteBuffer header = ByteBuffer.allocate(HeaderSize);
+			while (header.hasRemaining() && channel.read(header) >= 0);
+			if (header.hasRemaining()) return null;
+			header.flip();
+			if (header.getInt() != Magic || header.getInt() != Version ||
+					header.getInt() != channel.size())
+				return null;
+			byte[] stored = new byte[HashSize];
+			header.get(stored);
+			if (!Arrays.equals(stored, hash)) return null;
+			return new SpfCompiledScene(
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Proyecta en memoria un fichero compilado recien escrito.
+	 * @param compiled Fichero compilado.
+	 * @param cached Si procede de la cache.
+	 * @return Devuelve la escena.
+	 * @throws java.io.IOException
+	 */
+	private static SpfCompiledScene map (File compiled, boolean cached) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(compiled, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return new SpfCompiledScene(
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), cached);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Calcula el resumen de un fichero xml.
+	 * @param file Fichero xml.
+	 * @return Devuelve el resumen SHA-256 del contenido del fichero.
+	 * @throws java.lang.IllegalArgumentException Si no se puede leer el fichero.
+	 */
+	public static byte[] hash (File file) throws IllegalArgumentException {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			InputStream in = new FileInputStream(file);
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) > 0)
+					digest.update(buffer, 0, read);
+			} finally {
+				in.close();
+			}
+			return digest.digest();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("El formato del fichero no es correcto");
+		} catch (NoSuchAlgorithmException e) {
+			// Todas las JVM tienen SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Devuelve el fichero de la cache para una escena. Ademas del
+	 * nombre del xml lleva parte del resumen de su ruta, para que dos
+	 * escenas con el mismo nombre en distintos directorios no
+	 * compartan el fichero compilado.
+	 * @param file Fichero xml de la escena.
+	 * @param cacheDir Directorio de la cache.
+	 * @return Devuelve el fichero compilado de la escena.
+	 */
+	static File getCacheFile (File file, File cacheDir) {
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (IOException e) {
+			path = file.getAbsolutePath();
+		}
+		byte[] digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(path.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			// Todas las JVM tienen SHA-256
+			throw new IllegalStateException(e);
+		}
+		StringBuilder name = new StringBuilder(file.getName()).append('-');
+		for (int i = 0; i < 8; i++)
+			name.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+				.append(Character.forDigit(digest[i] & 0xF, 16));
+		return new File(cacheDir, name.append(Extension).toString());
+	}
+
+	/**
+	 * @return Devuelve el directorio de la cache de escenas compiladas,
+	 * o null si esta desactivada.
+	 */
+	public static File getCacheDirectory () {
+		String dir = System.getProperty("spf.sceneCache");
+		if ("false".equals(dir)) return null;
+		if (dir != null) return new File(dir);
+		return new File(System.getProperty("user.home"), ".spf" + File.separator + "scenes");
+	}
+
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Compilacion">
+
+	/**
+	 * Compila un fichero de escena xml. El cuerpo se escribe en un
+	 * fichero temporal a medida que se lee el xml y despues se copia
+	 * tras la cabecera y la tabla de cadenas.
+	 * @param file Fichero xml de la escena.
+	 * @param hash Resumen del fichero xml.
+	 * @param compiled Fichero donde se escribe la escena compilada.
+	 * @throws java.lang.IllegalArgumentException
+	 * @throws java.io.IOException
+	 */
+	public static void compile (File file, byte[] hash, File compiled)
+			throws IllegalArgumentException, IOException {
+		File body = File.createTempFile(compiled.getName(), ".body",
+				compiled.getAbsoluteFile().getParentFile());
+		try {
+			Compiler compiler = new Compiler(body);
+			SpfXmlReader reader = new SpfXmlReader(file);
+			try {
+				if (reader.getNodeName().compareTo("SPF") != 0 || !reader.nextChild() ||
+						reader.getNodeName().compareTo("Scene") != 0 || !reader.nextChild() ||
+						reader.getNodeName().compareTo("BranchGroup") != 0)
+					throw new IllegalArgumentException("El formato del fichero no es correcto");
+				compiler.branchGroup(reader);
+				reader.finish();
+			} finally {
+				reader.close();
+				compiler.close();
+			}
+			compiler.write(hash, compiled);
+		} finally {
+			body.delete();
+		}
+	}
+
+	/**
+	 * Traduce los elementos del fichero xml al formato compilado.
+	 */
+	private static class Compiler {
+		private Map<String, Integer> m_Strings = new LinkedHashMap<String, Integer>();
+		private int m_Objects;
+		private int m_DecorObjects;
+		private File m_Body;
+		private DataOutputStream m_Out;
+
+		Compiler (File body) throws IOException {
+			m_Body = body;
+			m_Out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(body)));
+		}
+
+		private void branchGroup (SpfXmlReader reader) throws IOException {
+			m_Out.writeByte(BranchGroupTag);
+			while (reader.nextChild()) {
+				String type = reader.getNodeName();
+				if (type.compareTo("TransformGroup") == 0) {
+					transformGroup(reader);
+				} else if (type.compareTo("BranchGroup") == 0) {
+					branchGroup(reader);
+				} else if (type.compareTo("AmbientLight") == 0) {
+					m_Out.writeByte(AmbientLightTag);
+					floats(reader, "r", 1, "g", 1, "b", 1);
+					reader.skipNode();
+				} else if (type.compareTo("DirectionalLight") == 0) {
+					m_Out.writeByte(DirectionalLightTag);
+					floats(reader, "r", 1, "g", 1, "b", 1);
+					floats(reader, "dirX", 0, "dirY", 0, "dirZ", -1);
+					reader.skipNode();
+				} else {
+					throw new IllegalArgumentException(
+						"El formato del fichero no es correcto");
+				}
+			}
+			m_Out.writeByte(EndTag);
+		}
+
+		private void transformGroup (SpfXmlReader reader) throws IOException {
+			m_Out.writeByte(TransformGroupTag);
+			floats(reader, "rotX", 0, "rotY", 0, "rotZ", 0);
+			floats(reader, "transX", 0, "transY", 0, "transZ", 0);
+			m_Out.writeFloat(parse(reader, "scale", 1));
+			// Solo se tiene en cuenta el primer hijo, si es un objeto
+			SpfXmlNode child = null;
+			if (reader.nextChild()) {
+				if (reader.getNodeName().compareTo("Object") == 0)
+					child = reader.readNode();
+				else
+					reader.skipNode();
+				while (reader.nextChild())
+					reader.skipNode();
+			}
+			if (child != null) {
+				m_Objects++;
+				if (isDecor(child)) m_DecorObjects++;
+				m_Out.writeByte(1);
+				element(child);
+			} else {
+				m_Out.writeByte(0);
+			}
+		}
+
+		private void element (SpfXmlNode node) throws IOException {
+			m_Out.writeInt(string(node.getNodeName()));
+			m_Out.writeShort(node.getAttributeCount());
+			for (int i = 0; i < node.getAttributeCount(); i++) {
+				m_Out.writeInt(string(node.getAttributeName(i)));
+				m_Out.writeInt(string(node.getAttributeValue(i)));
+			}
+			List<SpfXmlNode> children = node.getChildNodes();
+			m_Out.writeShort(children.size());
+			for (SpfXmlNode child : children)
+				element(child);
+		}
+
+		private void floats (SpfXmlReader reader, String a, float va,
+				String b, float vb, String c, float vc) throws IOException {
+			m_Out.writeFloat(parse(reader, a, va));
+			m_Out.writeFloat(parse(reader, b, vb));
+			m_Out.writeFloat(parse(reader, c, vc));
+		}
+
+		private static float parse (SpfXmlReader reader, String name, float value) {
+			String attribute = reader.getAttribute(name);
+			if (attribute.length() > 0)
+				value = Float.parseFloat(attribute);
+			return value;
+		}
+
+		private int string (String value) {
+			Integer index = m_Strings.get(value);
+			if (index == null) {
+				index = m_Strings.size();
+				m_Strings.put(value, index);
+			}
+			return index;
+		}
+
+		private void close () throws IOException {
+			m_Out.close();
+		}
+
+		/**
+		 * Escribe la cabecera y la tabla de cadenas, seguidas del
+		 * cuerpo ya compilado.
+		 */
+		private void write (byte[] hash, File compiled) throws IOException {
+			FileOutputStream file = new FileOutputStream(compiled);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+				out.writeInt(Magic);
+				out.writeInt(Version);
+				// El tamaño se completa al final
+				out.writeInt(0);
+				out.write(hash);
+				out.writeInt(m_Objects);
+				out.writeInt(m_DecorObjects);
+				out.writeInt(m_Strings.size());
+				for (String value : m_Strings.keySet()) {
+					byte[] utf = value.getBytes(StandardCharsets.UTF_8);
+					if (utf.length > 0xFFFF)
+						throw new IllegalArgumentException("El formato del fichero no es correcto");
+					out.writeShort(utf.length);
+					out.write(utf);
+				}
+				out.flush();
+				FileChannel channel = file.getChannel();
+				FileInputStream in = new FileInputStream(m_Body);
+				try {
+					FileChannel bodyChannel = in.getChannel();
+					long position = 0;
+					long size = bodyChannel.size();
+					while (position < size)
+						position += bodyChannel.transferTo(position, size - position, channel);
+				} finally {
+					in.close();
+				}
+				if (channel.size() > Integer.MAX_VALUE)
+					throw new IOException("La escena compilada es demasiado grande");
+				ByteBuffer length = ByteBuffer.allocate(4);
+				length.putInt(0, (int)channel.size());
+				channel.write(length, 8);
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Lectura">
+
+	/**
+	 * @return Devuelve la etiqueta del siguiente nodo.
+	 */
+	byte nextTag () {
+		return m_Buffer.get();
+	}
+
+	/**
+	 * @return Devuelve el siguiente numero.
+	 */
+	float readFloat () {
+		return m_Buffer.getFloat();
+	}
+
+	/**
+	 * @return Devuelve si sigue un objeto.
+	 */
+	boolean hasObject () {
+		return m_Buffer.get() != 0;
+	}
+
+	/**
+	 * @return Devuelve el siguiente elemento con sus hijos.
+	 */
+	SpfXmlNode readNode () {
+		String name = m_Strings[m_Buffer.getInt()];
+		String[] attributes = new String[(m_Buffer.getShort() & 0xFFFF) * 2];
+		for (int i = 0; i < attributes.length; i++)
+			attributes[i] = m_Strings[m_Buffer.getInt()];
+		SpfXmlNode node = new SpfXmlNode(name, attributes);
+		for (int i = m_Buffer.getShort() & 0xFFFF; i > 0; i--)
+			node.addChild(readNode());
+		return node;
+	}
+
+	/**
+	 * @return Devuelve el numero de objetos de la escena.
+	 */
+	public int getObjectCount () {
+		return m_Objects;
+	}
+	
+	/**
+	 * @return Devuelve el numero de objetos de decorado de la escena.
+	 */
+	public int getDecorObjectCount () {
+		return m_DecorObjects;
+	}
+	
+	/**
+	 * Indica si un objeto es de decorado, es decir, si es un modelo
+	 * OBJ con el atributo decor="true". Los objetos de decorado pueden
+	 * cargarse despues de empezar la partida.
+	 * @param node Nodo xml del objeto.
+	 * @return Devuelve si el objeto es de decorado.
+	 */
+	public static boolean isDecor (SpfXmlNode node) {
+		return node.getAttribute("decor").compareToIgnoreCase("true") == 0 &&
+				node.getAttribute("type").compareToIgnoreCase("OBJ") == 0;
+	}
+
+	/**
+	 * @return Devuelve si la escena procede de la cache.
+	 */
+	public boolean isCached () {
+		return m_Cached;
+	}
+
+	// </editor-fold>
+}
@@ -1,6 +1,7 @@
 package spf;
 
 import javax.vecmath.Point3d;
+import spf.physics.SpfPhysicsConstants;
 
 /**
  * Clase que contiene constantes utilizadas en el juego.
@@ -14,11 +15,11 @@ public final class SpfConstants {
 	public static final float KeystrokeForce = 5.0f;
 	public static final float Drag = 8.0f;
 	public static final Point3d Origin = new Point3d();
-	public static final float G = 9.8f;
-	public static final float Friction = 0.01f;
 	
 	public static final long TimeStep = 17;
-	public static final int GameBalls = 15;
+	public static final long RenderPeriod = 16666667L;
+	public static final int ShotCacheSize = 256;
+	public static final int GameBalls = SpfPhysicsConstants.GameBalls;
 	
 	private SpfConstants () {}
 }
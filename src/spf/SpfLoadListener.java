@@ -0,0 +1,16 @@
+package spf;
+
+/**
+ * Interfaz para recibir el progreso de la carga de una escena.
+ * @author Sergio Paque Martin
+ */
+public interface SpfLoadListener {
+	
+	/**
+	 * Se invoca cada vez que termina de cargarse un objeto de la
+	 * escena. Puede invocarse desde los hilos de carga de modelos.
+	 * @param loaded Numero de objetos cargados.
+	 * @param total Numero de objetos que se van a cargar.
+	 */
+	public void objectLoaded (int loaded, int total);
+}
@@ -0,0 +1,88 @@
+package spf;
+
+/**
+ * Estadisticas de temporizacion de un bucle de juego. Registra
+ * el retraso con el que el bucle despierta respecto a su plazo
+ * (jitter) y el numero de ciclos perdidos.
+ * @author Sergio Paque Martin
+ */
+public class SpfLoopStats {
+	private long m_Count;
+	private double m_Mean;
+	private double m_M2;
+	private long m_Max;
+	private long m_Missed;
+	
+	/**
+	 * Registra el retraso de un ciclo.
+	 * @param lateness Retraso respecto al plazo en nanosegundos.
+	 */
+	public synchronized void record (long lateness) {
+		m_Count++;
+		// Algoritmo de Welford para media y varianza
+		double delta = lateness - m_Mean;
+		m_Mean += delta / m_Count;
+		m_M2 += delta * (lateness - m_Mean);
+		if (lateness > m_Max) m_Max = lateness;
+	}
+	
+	/**
+	 * Registra ciclos perdidos por ir con retraso.
+	 * @param ticks Numero de ciclos perdidos.
+	 */
+	public synchronized void recordMissed (long ticks) {
+		m_Missed += ticks;
+	}
+	
+	/**
+	 * Reinicia las estadisticas.
+	 */
+	public synchronized void reset () {
+		m_Count = 0;
+		m_Mean = 0;
+		m_M2 = 0;
+		m_Max = 0;
+		m_Missed = 0;
+	}
+	
+	/**
+	 * @return Devuelve el numero de ciclos registrados.
+	 */
+	public synchronized long getCount () {
+		return m_Count;
+	}
+	
+	/**
+	 * @return Devuelve el retraso medio en nanosegundos.
+	 */
+	public synchronized double getMeanLateness () {
+		return m_Mean;
+	}
+	
+	/**
+	 * @return Devuelve la desviacion tipica del retraso en nanosegundos.
+	 */
+	public synchronized double getJitter () {
+		return m_Count > 1 ? Math.sqrt(m_M2 / (m_Count - 1)) : 0;
+	}
+	
+	/**
+	 * @return Devuelve el retraso maximo en nanosegundos.
+	 */
+	public synchronized long getMaxLateness () {
+		return m_Max;
+	}
+	
+	/**
+	 * @return Devuelve el numero de ciclos perdidos.
+	 */
+	public synchronized long getMissed () {
+		return m_Missed;
+	}
+	
+	@Override
+	public synchronized String toString () {
+		return String.format("ciclos=%d retraso medio=%.3f ms jitter=%.3f ms max=%.3f ms perdidos=%d",
+				m_Count, m_Mean / 1e6, getJitter() / 1e6, m_Max / 1e6, m_Missed);
+	}
+}
@@ -4,14 +4,21 @@ import spf.xml.SpfXmlNode;
 import com.sun.j3d.utils.geometry.*;
 import com.sun.j3d.utils.universe.*;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.media.j3d.*;
 import javax.swing.tree.*;
 import javax.vecmath.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
+import spf.jfr.SpfSceneLoadEvent;
 import spf.objects.*;
 
 /**
@@ -20,9 +27,24 @@ import spf.objects.*;
  * @author Sergio Paque Martin
  */
 public class SpfScene {
+	/// Numero maximo de hilos para cargar modelos OBJ
+	private static final int MaxModelLoaders = 8;
+	
 	private HashMap<String, SpfObject> m_SceneMap;
+	/// Todos los objetos creados, para liberar sus texturas
+	private List<SpfObject> m_Objects = new ArrayList<SpfObject>();
 	private Canvas3D m_Canvas3D;
 	private boolean m_DynamicScene;
+	/// Modelos OBJ que se estan cargando, en el orden del fichero
+	private List<ModelLoad> m_ModelLoads;
+	private ExecutorService m_ModelLoader;
+	/// Dejar los objetos de decorado para loadDecor
+	private boolean m_Progressive;
+	/// Objetos de decorado pendientes de cargar
+	private List<ModelLoad> m_Decor = new ArrayList<ModelLoad>();
+	private SpfLoadListener m_Listener;
+	private AtomicInteger m_Loaded;
+	private int m_Total;
 	
 	// <editor-fold defaultstate="collapsed" desc="Constructor">
 	
@@ -49,13 +71,118 @@ public class SpfScene {
 	}
 	
 	/**
-	 * Carga una escena a partir de un fichero xml.
+	 * Libera las texturas de todos los objetos de la escena en la
+	 * cache de texturas compartida. Debe llamarse cuando la escena
+	 * deja de usarse; el grafo de la escena no se modifica.
+	 */
+	public void release () {
+		List<SpfObject> objects;
+		synchronized (m_Objects) {
+			objects = new ArrayList<SpfObject>(m_Objects);
+			m_Objects.clear();
+		}
+		for (SpfObject obj : objects)
+			obj.release();
+	}
+	
+	/**
+	 * Establece la carga progresiva. En ella, los modelos OBJ marcados
+	 * como decorado (decor="true") no se cargan con la escena, sino
+	 * despues con loadDecor, de forma que la partida puede empezar
+	 * antes.
+	 * @param progressive Cargar el decorado aparte.
+	 */
+	public void setProgressive (boolean progressive) {
+		m_Progressive = progressive;
+	}
+	
+	/**
+	 * Establece el receptor del progreso de la carga.
+	 * @param listener Receptor del progreso (puede ser null).
+	 */
+	public void setLoadListener (SpfLoadListener listener) {
+		m_Listener = listener;
+	}
+	
+	/**
+	 * Carga en segundo plano los objetos de decorado que se dejaron
+	 * al cargar la escena. Cada objeto se añade al grupo indicado,
+	 * dentro de su propio BranchGroup separable, en cuanto termina
+	 * de cargarse. El progreso se notifica al receptor de la carga
+	 * contando solo los objetos de decorado.
+	 * @param target Grupo donde se añade el decorado. Si ya esta en
+	 * la escena, debe permitir que se le añadan hijos.
+	 */
+	public void loadDecor (final BranchGroup target) {
+		if (m_Decor.isEmpty()) return;
+		final int total = m_Decor.size();
+		final AtomicInteger loaded = new AtomicInteger();
+		// Con prioridad minima, para no quitar tiempo a la partida
+		ExecutorService loader = createModelLoader(Thread.MIN_PRIORITY);
+		for (final ModelLoad decor : m_Decor) {
+			loader.execute(new Runnable() {
+				public void run () {
+					TransformGroup tg = decor.m_Group;
+					SpfWavefrontObj obj = new SpfWavefrontObj(tg, m_Canvas3D);
+					addObject(obj);
+					try {
+						Node model = obj.load(decor.m_Node);
+						if (model == null) {
+							obj.release();
+						} else {
+							tg.addChild(model);
+							BranchGroup branch = new BranchGroup();
+							branch.setCapability(BranchGroup.ALLOW_DETACH);
+							branch.addChild(tg);
+							branch.compile();
+							target.addChild(branch);
+						}
+					} catch (RuntimeException e) {
+						obj.release();
+						System.err.println("No se puede cargar el objeto " +
+								decor.m_Node.getAttribute("name") + ": " + e.getMessage());
+					}
+					if (m_Listener != null)
+						m_Listener.objectLoaded(loaded.incrementAndGet(), total);
+				}
+			});
+		}
+		loader.shutdown();
+		m_Decor = new ArrayList<ModelLoad>();
+	}
+	
+	/**
+	 * Carga una escena a partir de un fichero xml. Si la cache de
+	 * escenas compiladas tiene el fichero al dia, la escena se crea
+	 * directamente desde ella, sin leer el xml.
 	 * @param filename Nombre del fichero de la escena.
 	 * @return Devuelve un BranchGroup con los elementos cargados.
 	 */
 	public BranchGroup loadSceneFromFile (String filename) {
+		SpfSceneLoadEvent event = new SpfSceneLoadEvent();
+		event.begin();
 		File file = new File(SpfApplication.getResourcesPath() + filename);
-		return loadBranchGroup(checkSceneFile(file));
+		SpfCompiledScene scene = SpfCompiledScene.load(file, SpfCompiledScene.getCacheDirectory());
+		m_Total = scene.getObjectCount();
+		if (m_Progressive)
+			m_Total -= scene.getDecorObjectCount();
+		int first = m_Objects.size();
+		BranchGroup bg;
+		try {
+			bg = loadScene(scene);
+		} catch (RuntimeException e) {
+			if (!scene.isCached()) throw e;
+			// Fichero compilado danado; se descarta lo cargado y se
+			// vuelve a compilar el xml, reemplazando el de la cache
+			discard(first);
+			bg = loadScene(SpfCompiledScene.load(file, SpfCompiledScene.getCacheDirectory(), true));
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.setScene(filename, m_SceneMap.size(), scene.isCached());
+			event.commit();
+		}
+		return bg;
 	}
 
 	// </editor-fold>
@@ -63,99 +190,84 @@ public class SpfScene {
     // <editor-fold defaultstate="collapsed" desc="Private Methods">
     
 	/**
-	 * Comprueba que un fichero de escena es correcto.
-	 * @param file Fichero de escena.
-	 * @return Devuelve el nodo xml para tratar el fichero.
+	 * Crea el grafo de una escena compilada.
+	 * @param scene Escena compilada.
+	 * @return Devuelve el BranchGroup de la escena.
 	 */
-    private SpfXmlNode checkSceneFile(File file) {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setIgnoringComments(true);
-        factory.setIgnoringElementContentWhitespace(true);
-		DocumentBuilder builder;
-		Document doc;
-		
-		try {
-			builder = factory.newDocumentBuilder();
-			doc = builder.parse(file);
-		} catch (Exception e) {
+	private BranchGroup loadScene (SpfCompiledScene scene) {
+		if (scene.nextTag() != SpfCompiledScene.BranchGroupTag)
 			throw new IllegalArgumentException("El formato del fichero no es correcto");
+		m_ModelLoads = new ArrayList<ModelLoad>();
+		m_Decor = new ArrayList<ModelLoad>();
+		m_Loaded = new AtomicInteger();
+		try {
+			BranchGroup bg = loadBranchGroup(scene);
+			attachModels();
+			return bg;
+		} finally {
+			if (m_ModelLoader != null) {
+				m_ModelLoader.shutdownNow();
+				// Si la carga ha fallado, los modelos en curso pueden
+				// seguir reservando texturas; se espera a que terminen
+				// para poder liberarlas
+				try {
+					m_ModelLoader.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				m_ModelLoader = null;
+			}
+			m_ModelLoads = null;
 		}
-        
-        SpfXmlNode current = new SpfXmlNode(doc.getDocumentElement());
-        if (current.getNodeName().compareTo("SPF") == 0) {
-            current = current.getFirstChild();
-            if (current.getNodeName().compareTo("Scene") == 0) {
-                current = current.getFirstChild();
-                if (current.getNodeName().compareTo("BranchGroup") == 0) {
-                    return current;
-                } else {
-                    throw new IllegalArgumentException(
-                        "El formato del fichero no es correcto");
-                }
-            } else {
-                throw new IllegalArgumentException(
-                        "El formato del fichero no es correcto");
-            }
-        } else {
-            throw new IllegalArgumentException(
-                    "El formato del fichero no es correcto");
-        }
-    }
+	}
     
 	/**
-	 * Carga un BranchGroup a partir de un nodo xml.
-	 * @param node Nodo xml actual.
-	 * @return Devuele el BranchGroup leido del nodo xml.
+	 * Carga un BranchGroup de una escena compilada.
+	 * @param scene Escena compilada, situada tras la etiqueta del grupo.
+	 * @return Devuele el BranchGroup leido.
 	 */
-	private BranchGroup loadBranchGroup (SpfXmlNode node) {
+	private BranchGroup loadBranchGroup (SpfCompiledScene scene) {
 		BranchGroup bg = new BranchGroup() ;
-		String type;
+		byte tag;
 
-		if (node.getNodeName().compareTo("BranchGroup") == 0) {
-			List<SpfXmlNode> childNodes = node.getChildNodes();
-			for (SpfXmlNode current : childNodes) {
-				type = current.getNodeName();
-				if (type.compareTo("TransformGroup") == 0) {
-					TransformGroup tg = loadTransformGroup(current);
-					if (tg != null) {
-						// Si la escena es dinamica, permitir que se
-						// eliminen elementos de la misma.
-						if (m_DynamicScene) {
-							BranchGroup middle = new BranchGroup();
-							middle.setCapability(BranchGroup.ALLOW_DETACH);
-							tg.setCapability(TransformGroup.ALLOW_PARENT_READ);
-							middle.addChild(tg);
-							bg.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
-							bg.addChild(middle);
-						} else {
-							bg.addChild(tg);
-						}
+		while ((tag = scene.nextTag()) != SpfCompiledScene.EndTag) {
+			if (tag == SpfCompiledScene.TransformGroupTag) {
+				TransformGroup tg = loadTransformGroup(scene);
+				if (tg != null) {
+					// Si la escena es dinamica, permitir que se
+					// eliminen elementos de la misma.
+					if (m_DynamicScene) {
+						BranchGroup middle = new BranchGroup();
+						middle.setCapability(BranchGroup.ALLOW_DETACH);
+						tg.setCapability(TransformGroup.ALLOW_PARENT_READ);
+						middle.addChild(tg);
+						bg.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
+						bg.addChild(middle);
+					} else {
+						bg.addChild(tg);
 					}
-				} else if (type.compareTo("BranchGroup") == 0) {
-					BranchGroup child_bg = loadBranchGroup(current);
-					bg.addChild(child_bg);
-				} else if (type.compareTo("AmbientLight") == 0) {
-					bg.addChild(loadAmbLight(current));
-				} else if (type.compareTo("DirectionalLight") == 0) {
-					bg.addChild(loadDirLight(current));
-				} else {
-					throw new IllegalArgumentException(
-						"El formato del fichero no es correcto");
 				}
-			}
-		} else {
-			throw new IllegalArgumentException(
+			} else if (tag == SpfCompiledScene.BranchGroupTag) {
+				BranchGroup child_bg = loadBranchGroup(scene);
+				bg.addChild(child_bg);
+			} else if (tag == SpfCompiledScene.AmbientLightTag) {
+				bg.addChild(loadAmbLight(scene));
+			} else if (tag == SpfCompiledScene.DirectionalLightTag) {
+				bg.addChild(loadDirLight(scene));
+			} else {
+				throw new IllegalArgumentException(
 					"El formato del fichero no es correcto");
+			}
 		}
 		return bg;
-    }
+	}
 	
 	/**
-	 * Carga un TransformGroup a partir de un nodo xml.
-	 * @param node Nodo xml actual.
+	 * Carga un TransformGroup de una escena compilada.
+	 * @param scene Escena compilada, situada tras la etiqueta del grupo.
 	 * @return Devuelve el TransformGroup leido.
 	 */
-	private TransformGroup loadTransformGroup (SpfXmlNode node) {
+	private TransformGroup loadTransformGroup (SpfCompiledScene scene) {
 		TransformGroup tg = new TransformGroup();
 		// Si la escena es dinamica, permitir
 		// cambios en las transformaciones.
@@ -163,48 +275,32 @@ public class SpfScene {
 			tg.setCapability(TransformGroup.ALLOW_TRANSFORM_WRITE);
 			tg.setCapabilityIsFrequent(TransformGroup.ALLOW_TRANSFORM_WRITE);
 		}
-		float rotX = 0, rotY = 0, rotZ = 0;
-		Vector3f trans = new Vector3f(0, 0, 0);
-		float scale = 1;
-
-		String value = node.getAttribute("rotX");
-		if (value.length() > 0) {
-			rotX = Float.parseFloat(value);
-		}
-		value = node.getAttribute("rotY");
-		if (value.length() > 0) {
-			rotY = Float.parseFloat(value);
-		}
-		value = node.getAttribute("rotZ");
-		if (value.length() > 0) {
-			rotZ = Float.parseFloat(value);
-		}
-		value = node.getAttribute("transX");
-		if (value.length() > 0) {
-			trans.x = Float.parseFloat(value);
-		}
-		value = node.getAttribute("transY");
-		if (value.length() > 0) {
-			trans.y = Float.parseFloat(value);
-		}
-		value = node.getAttribute("transZ");
-		if (value.length() > 0) {
-			trans.z = Float.parseFloat(value);
-		}
-		value = node.getAttribute("scale");
-		if (value.length() > 0) {
-			scale = Float.parseFloat(value);
-		}
+		float rotX = scene.readFloat();
+		float rotY = scene.readFloat();
+		float rotZ = scene.readFloat();
+		Vector3f trans = new Vector3f(scene.readFloat(), scene.readFloat(), scene.readFloat());
+		float scale = scene.readFloat();
 		Matrix3f rotation = getRotationMatrix(rotX, rotY, rotZ);
 		Transform3D t3d = new Transform3D(rotation, trans, scale);
 		tg.setTransform(t3d);
 
 		// Solo permitir un hijo en un TransformGroup.
-		SpfXmlNode child = node.getFirstChild();
-		if (child.getNodeName().compareTo("Object") == 0) {
-			Node pr = loadPrimitive(child, tg);
+		if (scene.hasObject()) {
+			SpfXmlNode node = scene.readNode();
+			if (m_Progressive && SpfCompiledScene.isDecor(node)) {
+				// Se carga y se añade despues, con loadDecor
+				m_Decor.add(new ModelLoad(node, tg));
+				return null;
+			}
+			if (node.getAttribute("type").compareToIgnoreCase("OBJ") == 0) {
+				// El modelo se añade cuando termine de cargarse
+				loadModel(node, tg);
+				return tg;
+			}
+			Node pr = loadPrimitive(node, tg);
 			if (pr != null)
 				tg.addChild(pr);
+			objectLoaded();
 		}
 
 		// Devolver solo en caso de que tenga hijos.
@@ -226,29 +322,145 @@ public class SpfScene {
 		if (type.compareToIgnoreCase("Box") == 0) {
 			SpfBox box = new SpfBox(name, tg, m_Canvas3D);
 			m_SceneMap.put(name, box);
+			addObject(box);
 			return box.load(node);
 		} else if (type.compareToIgnoreCase("Cone") == 0) {
 			SpfCone cone = new SpfCone(name, tg, m_Canvas3D);
 			m_SceneMap.put(name, cone);
+			addObject(cone);
 			return cone.load(node);
 		} else if (type.compareToIgnoreCase("Cylinder") == 0) {
 			SpfCylinder cylinder = new SpfCylinder(name, tg, m_Canvas3D);
 			m_SceneMap.put(name, cylinder);
+			addObject(cylinder);
 			return cylinder.load(node);
 		} else if (type.compareToIgnoreCase("Sphere") == 0) {
 			SpfSphere sphere = new SpfSphere(name, tg, m_Canvas3D);
 			m_SceneMap.put(name, sphere);
+			addObject(sphere);
 			return sphere.load(node);
-		} else if (type.compareToIgnoreCase("OBJ") == 0) {
-			SpfWavefrontObj obj = new SpfWavefrontObj(tg, m_Canvas3D);
-			return obj.load(node);
 		} else if (type.compareTo("Quad") == 0) {
 			SpfQuad quad = new SpfQuad(m_Canvas3D);
+			addObject(quad);
 			return quad.load(node);
 		}
         return null;
     }
 	
+	/**
+	 * Empieza a cargar un modelo OBJ en el pool de carga de modelos.
+	 * Los modelos son independientes entre si, por lo que se leen en
+	 * paralelo mientras se sigue leyendo la escena.
+	 * @param node Nodo xml del objeto.
+	 * @param tg Transformacion del objeto.
+	 */
+	private void loadModel (final SpfXmlNode node, TransformGroup tg) {
+		if (m_ModelLoader == null)
+			m_ModelLoader = createModelLoader(Thread.NORM_PRIORITY);
+		final SpfWavefrontObj obj = new SpfWavefrontObj(tg, m_Canvas3D);
+		addObject(obj);
+		Future<Node> result = m_ModelLoader.submit(new Callable<Node>() {
+			public Node call () {
+				Node model = obj.load(node);
+				objectLoaded();
+				return model;
+			}
+		});
+		m_ModelLoads.add(new ModelLoad(tg, result));
+	}
+	
+	/**
+	 * Crea un pool de hilos demonio para cargar modelos.
+	 * @param priority Prioridad de los hilos.
+	 * @return Devuelve el pool de carga.
+	 */
+	private static ExecutorService createModelLoader (final int priority) {
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), MaxModelLoaders);
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int m_Count;
+			
+			public synchronized Thread newThread (Runnable runnable) {
+				Thread thread = new Thread(runnable, "spf-model-" + ++m_Count);
+				thread.setDaemon(true);
+				thread.setPriority(priority);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Guarda un objeto creado por la escena para liberarlo con release.
+	 * Los modelos se crean tambien desde las hebras de carga.
+	 * @param obj Objeto creado.
+	 */
+	private void addObject (SpfObject obj) {
+		synchronized (m_Objects) {
+			m_Objects.add(obj);
+		}
+	}
+	
+	/**
+	 * Descarta los objetos creados por una carga fallida, quitandolos
+	 * del mapa de la escena y liberando sus texturas.
+	 * @param first Numero de objetos de la escena antes de la carga.
+	 */
+	private void discard (int first) {
+		List<SpfObject> objects;
+		synchronized (m_Objects) {
+			List<SpfObject> created = m_Objects.subList(first, m_Objects.size());
+			objects = new ArrayList<SpfObject>(created);
+			created.clear();
+		}
+		m_SceneMap.values().removeAll(objects);
+		for (SpfObject obj : objects)
+			obj.release();
+	}
+	
+	/**
+	 * Notifica que ha terminado de cargarse un objeto de la escena.
+	 */
+	private void objectLoaded () {
+		int loaded = m_Loaded.incrementAndGet();
+		if (m_Listener != null)
+			m_Listener.objectLoaded(loaded, m_Total);
+	}
+	
+	/**
+	 * Espera a que terminen de cargarse los modelos OBJ y los añade
+	 * a su TransformGroup, en el orden del fichero. Si un modelo no
+	 * se ha podido cargar, se quita su TransformGroup de la escena,
+	 * igual que con el resto de objetos.
+	 */
+	private void attachModels () {
+		for (ModelLoad load : m_ModelLoads) {
+			Node model;
+			try {
+				model = load.m_Result.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Carga de la escena interrumpida");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException)e.getCause();
+				if (e.getCause() instanceof Error)
+					throw (Error)e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+			TransformGroup tg = load.m_Group;
+			if (model != null) {
+				tg.addChild(model);
+			} else {
+				Node child = tg;
+				Group parent = (Group)tg.getParent();
+				if (m_DynamicScene) {
+					child = parent;
+					parent = (Group)parent.getParent();
+				}
+				parent.removeChild(child);
+			}
+		}
+	}
+	
 	/**
 	 * Calcula una matriz de rotacion a partir de la
 	 * rotacion en sobre cada uno de los ejes cartesianos.
@@ -258,22 +470,11 @@ public class SpfScene {
 	 * @return Devuelve la matriz de rotacion.
 	 */
     public static Matrix3f getRotationMatrix (float rotX, float rotY, float rotZ) {
-        Matrix3f rotationX = new Matrix3f();
-        Matrix3f rotationY = new Matrix3f();
-        Matrix3f rotationZ = new Matrix3f();
-        
-        rotationX.setIdentity();
-        rotationY.setIdentity();
-        rotationZ.setIdentity();
-        if (rotX != 0)
-            rotationX.rotX((float)Math.toRadians(rotX));
-        if (rotY != 0)
-            rotationY.rotY((float)Math.toRadians(rotY));
-        if (rotZ != 0)
-            rotationZ.rotZ((float)Math.toRadians(rotZ));
-        rotationX.mul(rotationY);
-        rotationX.mul(rotationZ);
-        return rotationX;
+        return getRotationMatrixRad(
+                (float)Math.toRadians(rotX),
+                (float)Math.toRadians(rotY),
+                (float)Math.toRadians(rotZ),
+                new Matrix3f());
     }
 	
 	/**
@@ -285,88 +486,94 @@ public class SpfScene {
 	 * @return Devuelve la matriz de rotacion.
 	 */
     public static Matrix3f getRotationMatrixRad (float rotX, float rotY, float rotZ) {
-        Matrix3f rotationX = new Matrix3f();
-        Matrix3f rotationY = new Matrix3f();
-        Matrix3f rotationZ = new Matrix3f();
-        
-        rotationX.setIdentity();
-        rotationY.setIdentity();
-        rotationZ.setIdentity();
-        if (rotX != 0)
-            rotationX.rotX(rotX);
-        if (rotY != 0)
-            rotationY.rotY(rotY);
-        if (rotZ != 0)
-            rotationZ.rotZ(rotZ);
-        rotationX.mul(rotationY);
-        rotationX.mul(rotationZ);
-        return rotationX;
+        return getRotationMatrixRad(rotX, rotY, rotZ, new Matrix3f());
     }
 	
 	/**
-	 * Carga una luz ambiental a partir de un nodo xml.
-	 * @param node Nodo xml actual.
+	 * Calcula la matriz de rotacion Rx * Ry * Rz sobre una
+	 * matriz ya existente, sin crear objetos intermedios.
+	 * @param rotX Rotacion sobre el eje X en radianes.
+	 * @param rotY Rotacion sobre el eje Y en radianes.
+	 * @param rotZ Rotacion sobre el eje Z en radianes.
+	 * @param m Matriz donde se guarda el resultado.
+	 * @return Devuelve la matriz m.
+	 */
+    public static Matrix3f getRotationMatrixRad (float rotX, float rotY, float rotZ, Matrix3f m) {
+        float sx = 0, cx = 1, sy = 0, cy = 1, sz = 0, cz = 1;
+        if (rotX != 0) {
+            sx = (float)Math.sin(rotX);
+            cx = (float)Math.cos(rotX);
+        }
+        if (rotY != 0) {
+            sy = (float)Math.sin(rotY);
+            cy = (float)Math.cos(rotY);
+        }
+        if (rotZ != 0) {
+            sz = (float)Math.sin(rotZ);
+            cz = (float)Math.cos(rotZ);
+        }
+        m.m00 = cy * cz;
+        m.m01 = -cy * sz;
+        m.m02 = sy;
+        m.m10 = sx * sy * cz + cx * sz;
+        m.m11 = -sx * sy * sz + cx * cz;
+        m.m12 = -sx * cy;
+        m.m20 = -cx * sy * cz + sx * sz;
+        m.m21 = cx * sy * sz + sx * cz;
+        m.m22 = cx * cy;
+        return m;
+    }
+	
+	/**
+	 * Carga una luz ambiental de una escena compilada.
+	 * @param scene Escena compilada, situada tras la etiqueta de la luz.
 	 * @return Devuelve la luz ambiental leida.
 	 */
-	private AmbientLight loadAmbLight (SpfXmlNode node) {
-		float r = 1, g = 1, b = 1;
-		String attribute;
+	private AmbientLight loadAmbLight (SpfCompiledScene scene) {
 		AmbientLight amb;
 		
-		attribute = node.getAttribute("r");
-		if (attribute.length() > 0)
-			r = Float.parseFloat(attribute);
-		attribute = node.getAttribute("g");
-		if (attribute.length() > 0)
-			g = Float.parseFloat(attribute);
-		attribute = node.getAttribute("b");
-		if (attribute.length() > 0)
-			b = Float.parseFloat(attribute);
-		
-		amb = new AmbientLight(new Color3f(r, g, b));
+		amb = new AmbientLight(new Color3f(scene.readFloat(), scene.readFloat(), scene.readFloat()));
 		BoundingSphere bounds = new BoundingSphere(new Point3d(), 100.0d);
 		amb.setInfluencingBounds(bounds);
 		return amb;
 	}
 	
 	/**
-	 * Carga una luz direccional a partir de un nodo xml.
-	 * @param node Nodo xml actual.
+	 * Carga una luz direccional de una escena compilada.
+	 * @param scene Escena compilada, situada tras la etiqueta de la luz.
 	 * @return Devuelve la luz direccional leida.
 	 */
-	private DirectionalLight loadDirLight (SpfXmlNode node) {
-		float r = 1, g = 1, b = 1;
-		float dirX = 0, dirY = 0, dirZ = -1;
-		String attribute;
+	private DirectionalLight loadDirLight (SpfCompiledScene scene) {
 		DirectionalLight dir;
 		
-		attribute = node.getAttribute("r");
-		if (attribute.length() > 0)
-			r = Float.parseFloat(attribute);
-		attribute = node.getAttribute("g");
-		if (attribute.length() > 0)
-			g = Float.parseFloat(attribute);
-		attribute = node.getAttribute("b");
-		if (attribute.length() > 0)
-			b = Float.parseFloat(attribute);
-		
-		attribute = node.getAttribute("dirX");
-		if (attribute.length() > 0)
-			dirX = Float.parseFloat(attribute);
-		attribute = node.getAttribute("dirY");
-		if (attribute.length() > 0)
-			dirY = Float.parseFloat(attribute);
-		attribute = node.getAttribute("dirZ");
-		if (attribute.length() > 0)
-			dirZ = Float.parseFloat(attribute);
-		
-		Vector3f direction = new Vector3f(dirX, dirY, dirZ);
+		Color3f color = new Color3f(scene.readFloat(), scene.readFloat(), scene.readFloat());
+		Vector3f direction = new Vector3f(scene.readFloat(), scene.readFloat(), scene.readFloat());
 		direction.normalize();
-		dir = new DirectionalLight(new Color3f(r, g, b), direction);
+		dir = new DirectionalLight(color, direction);
 		BoundingSphere bounds = new BoundingSphere(new Point3d(), 100.0d);
 		dir.setInfluencingBounds(bounds);
 		return dir;
 	}
 
     // </editor-fold>
+
+	/**
+	 * Modelo OBJ pendiente de añadir a la escena.
+	 */
+	private static class ModelLoad {
+		private TransformGroup m_Group;
+		private Future<Node> m_Result;
+		/// Nodo xml del objeto, si aun no se ha empezado a cargar
+		private SpfXmlNode m_Node;
+		
+		ModelLoad (TransformGroup group, Future<Node> result) {
+			m_Group = group;
+			m_Result = result;
+		}
+		
+		ModelLoad (SpfXmlNode node, TransformGroup group) {
+			m_Node = node;
+			m_Group = group;
+		}
+	}
 }
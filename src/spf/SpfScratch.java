@@ -0,0 +1,55 @@
+package spf;
+
+import javax.media.j3d.Transform3D;
+import javax.vecmath.Matrix3f;
+import javax.vecmath.Vector3f;
+
+/**
+ * Almacenamiento temporal reutilizable por hebra. Permite que
+ * el bucle de simulacion actualice las transformaciones de las
+ * bolas sin crear objetos en cada paso.
+ * @author Sergio Paque Martin
+ */
+public final class SpfScratch {
+	private static final ThreadLocal<SpfScratch> Scratch =
+			new ThreadLocal<SpfScratch>() {
+		@Override
+		protected SpfScratch initialValue() {
+			return new SpfScratch();
+		}
+	};
+
+	private final Matrix3f m_Matrix = new Matrix3f();
+	private final Vector3f m_Vector = new Vector3f();
+	private final Transform3D m_Transform = new Transform3D();
+
+	private SpfScratch () {}
+
+	/**
+	 * @return Devuelve el almacenamiento temporal de la hebra actual.
+	 */
+	public static SpfScratch get () {
+		return Scratch.get();
+	}
+
+	/**
+	 * @return Devuelve una matriz temporal.
+	 */
+	public Matrix3f getMatrix () {
+		return m_Matrix;
+	}
+
+	/**
+	 * @return Devuelve un vector temporal.
+	 */
+	public Vector3f getVector () {
+		return m_Vector;
+	}
+
+	/**
+	 * @return Devuelve una transformacion temporal.
+	 */
+	public Transform3D getTransform () {
+		return m_Transform;
+	}
+}
@@ -10,13 +10,15 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import javax.swing.ImageIcon;
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
 /**
  * Implementa un splash screen que se muestra
- * mientras se carga la aplicacion.
+ * mientras se carga la aplicacion, con el
+ * progreso de la carga de la escena.
  * @author  Sergio Paque Martin
  */
-public class SpfSplashScreen extends JFrame {
+public class SpfSplashScreen extends JFrame implements SpfLoadListener {
 	
 	/**
 	 * Clase para detectar cuando se termina
@@ -37,6 +39,21 @@ public class SpfSplashScreen extends JFrame {
 		owner.addWindowListener(new WindowListener());
 	}
 	
+	/**
+	 * Actualiza la barra de progreso. Puede llamarse
+	 * desde cualquier hebra.
+	 * @param loaded Numero de objetos cargados.
+	 * @param total Numero total de objetos.
+	 */
+	public void objectLoaded (final int loaded, final int total) {
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run () {
+				progressBar.setMaximum(total);
+				progressBar.setValue(loaded);
+			}
+		});
+	}
+	
 	/* This method is called from within the constructor to
 	 * initialize the form.
 	 * WARNING: Do NOT modify this code. The content of this method is
@@ -46,6 +63,7 @@ public class SpfSplashScreen extends JFrame {
     private void initComponents() {
 
         imageLabel = new javax.swing.JLabel();
+        progressBar = new javax.swing.JProgressBar();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
         setTitle("Cargando...");
@@ -53,12 +71,14 @@ public class SpfSplashScreen extends JFrame {
 
         imageLabel.setIcon(new javax.swing.ImageIcon(getClass().getResource("/spf/resources/loading.gif"))); // NOI18N
         getContentPane().add(imageLabel, java.awt.BorderLayout.CENTER);
+        getContentPane().add(progressBar, java.awt.BorderLayout.SOUTH);
 
         pack();
     }// </editor-fold>//GEN-END:initComponents
 	
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JLabel imageLabel;
+    private javax.swing.JProgressBar progressBar;
     // End of variables declaration//GEN-END:variables
 	
 }
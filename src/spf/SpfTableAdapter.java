@@ -0,0 +1,87 @@
+package spf;
+
+import javax.media.j3d.Transform3D;
+import javax.vecmath.Vector3f;
+import spf.objects.SpfObject;
+import spf.objects.SpfSphere;
+import spf.physics.SpfBallTable;
+
+/**
+ * Adaptador entre el nucleo fisico y el grafo de escena. Traslada
+ * el estado de las bolas (de una mesa o de una linea de tiempo) a
+ * las esferas de la escena y a sus sombras. Es la unica parte de
+ * la simulacion que depende de Java3D.
+ * @author Sergio Paque Martin
+ */
+public class SpfTableAdapter {
+	/// Altura de las sombras sobre el tapete
+	private static final float ShadowHeight = -0.87f;
+	
+	private SpfSphere[] m_Balls;
+	private SpfObject[] m_Shadows;
+	
+	/**
+	 * Constructor de SpfTableAdapter.
+	 * @param balls Bolas de la escena, indexadas por su identificador en la mesa.
+	 * @param shadows Sombras de las bolas (pueden ser null).
+	 */
+	public SpfTableAdapter (SpfSphere[] balls, SpfObject[] shadows) {
+		m_Balls = balls;
+		m_Shadows = shadows;
+	}
+	
+	/**
+	 * @return Devuelve el numero de bolas.
+	 */
+	public int getBallCount () {
+		return m_Balls.length;
+	}
+	
+	/**
+	 * Actualiza en la escena todas las bolas a partir del
+	 * estado actual de una mesa.
+	 * @param table Mesa de bolas.
+	 */
+	public void update (SpfBallTable table) {
+		float[][] position = table.getPositions();
+		float[][] angle = table.getAngles();
+		for (int i = 0; i < m_Balls.length; i++) {
+			setBallState(i, position[0][i], position[1][i], position[2][i],
+					angle[0][i], angle[1][i], angle[2][i]);
+		}
+	}
+	
+	/**
+	 * Actualiza en la escena una bola y su sombra.
+	 * @param id Identificador de la bola en la mesa.
+	 * @param x Posicion en el eje X.
+	 * @param y Posicion en el eje Y.
+	 * @param z Posicion en el eje Z.
+	 * @param rotX Rotacion sobre el eje X en radianes.
+	 * @param rotY Rotacion sobre el eje Y en radianes.
+	 * @param rotZ Rotacion sobre el eje Z en radianes.
+	 */
+	public void setBallState (int id, float x, float y, float z,
+			float rotX, float rotY, float rotZ) {
+		m_Balls[id].updateTransform(x, y, z, rotX, rotY, rotZ);
+		updateBallShadow(id, x, z);
+	}
+	
+	/**
+	 * Actualiza la posicion de la sombra de la bola.
+	 * @param id Identificador de la bola en la mesa.
+	 * @param x Posicion de la bola en el eje X.
+	 * @param z Posicion de la bola en el eje Z.
+	 */
+	private void updateBallShadow (int id, float x, float z) {
+		SpfObject shadow = m_Shadows == null ? null : m_Shadows[id];
+		if (shadow != null) {
+			SpfScratch scratch = SpfScratch.get();
+			Vector3f translation = scratch.getVector();
+			translation.set(x, ShadowHeight, z);
+			Transform3D transform = scratch.getTransform();
+			transform.set(translation);
+			shadow.setTransform(transform);
+		}
+	}
+}
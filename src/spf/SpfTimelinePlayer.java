@@ -0,0 +1,251 @@
+package spf;
+
+import java.util.concurrent.locks.LockSupport;
+import spf.physics.SpfShotTimeline;
+import spf.physics.SpfStatePublisher;
+
+import static spf.SpfConstants.RenderPeriod;
+import static spf.physics.SpfShotTimeline.StateSize;
+
+/**
+ * Reproduce sobre la escena la linea de tiempo de un tiro ya
+ * simulado, a velocidad real o a cualquier otra velocidad.
+ * @author Sergio Paque Martin
+ */
+public class SpfTimelinePlayer {
+	private SpfTableAdapter m_Adapter;
+	private float m_Speed = 1;
+	private float[] m_Prev;
+	private float[] m_Curr;
+	private boolean[] m_Moving;
+	private boolean[] m_Dirty;
+	private SpfLoopStats m_Stats = new SpfLoopStats();
+	private SpfStatePublisher m_Publisher;
+	
+	/**
+	 * Constructor de SpfTimelinePlayer.
+	 * @param adapter Adaptador que traslada el estado de las bolas a la escena.
+	 */
+	public SpfTimelinePlayer (SpfTableAdapter adapter) {
+		int balls = adapter.getBallCount();
+		m_Adapter = adapter;
+		m_Prev = new float[balls * StateSize];
+		m_Curr = new float[balls * StateSize];
+		m_Moving = new boolean[balls];
+		m_Dirty = new boolean[balls];
+	}
+	
+	/**
+	 * Establece la velocidad de reproduccion.
+	 * @param speed Velocidad relativa al tiempo real (1 = tiempo real,
+	 * 0 = mostrar directamente el estado final).
+	 */
+	public void setSpeed (float speed) {
+		m_Speed = speed;
+	}
+	
+	/**
+	 * @return Devuelve la velocidad de reproduccion.
+	 */
+	public float getSpeed () {
+		return m_Speed;
+	}
+	
+	/**
+	 * Establece el publicador al que se envia el estado mostrado en
+	 * cada ciclo del bucle de dibujado.
+	 * @param publisher Publicador del estado (null para no publicar).
+	 */
+	public void setPublisher (SpfStatePublisher publisher) {
+		m_Publisher = publisher;
+	}
+	
+	/**
+	 * @return Devuelve el publicador del estado.
+	 */
+	public SpfStatePublisher getPublisher () {
+		return m_Publisher;
+	}
+	
+	/**
+	 * @return Devuelve las estadisticas del bucle de reproduccion.
+	 */
+	public SpfLoopStats getLoopStats () {
+		return m_Stats;
+	}
+	
+	/**
+	 * Reproduce una linea de tiempo. El bucle de dibujado avanza con
+	 * plazos fijos de RenderPeriod calculados desde el inicio, por lo
+	 * que los retrasos no se acumulan. En cada ciclo se consumen los
+	 * fotogramas cuyo tiempo ya ha pasado y se dibuja el estado
+	 * interpolado entre los dos ultimos fotogramas. Si el bucle se
+	 * retrasa mas de un periodo, los ciclos perdidos se descartan.
+	 * @param timeline Linea de tiempo del tiro.
+	 * @throws java.lang.InterruptedException
+	 */
+	public void play (SpfShotTimeline timeline) throws InterruptedException {
+		int frames = timeline.getFrameCount();
+		if (frames == 0) return;
+		
+		// El fotograma 0 contiene todas las bolas
+		applyFrame(timeline, 0, m_Curr);
+		System.arraycopy(m_Curr, 0, m_Prev, 0, m_Curr.length);
+		for (int i = 0; i < m_Dirty.length; i++) {
+			m_Moving[i] = false;
+			m_Dirty[i] = true;
+		}
+		if (m_Speed <= 0 || frames == 1) {
+			for (int f = 1; f < frames; f++)
+				applyFrame(timeline, f, m_Curr);
+			updateScene(m_Curr, m_Curr, 0);
+			publishState(m_Curr, m_Curr, 0, 0, timeline.getDuration());
+			return;
+		}
+		// m_Prev guarda el estado del fotograma f y m_Curr el de f + 1
+		int f = 0;
+		beginInterval(timeline, f);
+		
+		long start = System.nanoTime();
+		long tick = 0;
+		while (true) {
+			long deadline = start + tick * RenderPeriod;
+			waitUntil(deadline);
+			long now = System.nanoTime();
+			long lateness = now - deadline;
+			m_Stats.record(lateness);
+			tick++;
+			if (lateness >= RenderPeriod) {
+				long missed = lateness / RenderPeriod;
+				m_Stats.recordMissed(missed);
+				tick += missed;
+			}
+			
+			float time = (float)((now - start) * 1e-9 * m_Speed);
+			while (f + 1 < frames - 1 && timeline.getFrameTime(f + 1) <= time) {
+				f++;
+				beginInterval(timeline, f);
+			}
+			if (timeline.getFrameTime(f + 1) <= time) {
+				updateScene(m_Curr, m_Curr, 0);
+				publishState(m_Curr, m_Curr, 0, 0, timeline.getDuration());
+				return;
+			}
+			float t0 = timeline.getFrameTime(f);
+			float t1 = timeline.getFrameTime(f + 1);
+			float alpha = t1 > t0 ? (time - t0) / (t1 - t0) : 1;
+			alpha = Math.max(0, Math.min(1, alpha));
+			updateScene(m_Prev, m_Curr, alpha);
+			publishState(m_Prev, m_Curr, alpha, t1 - t0, time);
+		}
+	}
+	
+	/**
+	 * Avanza el intervalo de interpolacion para que comience en el
+	 * fotograma indicado. Antes de llamar a este metodo m_Curr debe
+	 * contener el estado del fotograma frame.
+	 * @param timeline Linea de tiempo del tiro.
+	 * @param frame Indice del primer fotograma del intervalo.
+	 */
+	private void beginInterval (SpfShotTimeline timeline, int frame) {
+		// Las bolas que se movian en el intervalo anterior quedan
+		// en su estado final en m_Prev.
+		for (int i = 0; i < m_Moving.length; i++) {
+			if (m_Moving[i]) {
+				int k = i * StateSize;
+				System.arraycopy(m_Curr, k, m_Prev, k, StateSize);
+				m_Moving[i] = false;
+				m_Dirty[i] = true;
+			}
+		}
+		int next = frame + 1;
+		float[] states = timeline.getEntryStates();
+		for (int e = timeline.getFrameStart(next); e < timeline.getFrameEnd(next); e++) {
+			int ball = timeline.getEntryBall(e);
+			System.arraycopy(states, e * StateSize, m_Curr, ball * StateSize, StateSize);
+			m_Moving[ball] = true;
+		}
+	}
+	
+	/**
+	 * Espera hasta el instante indicado sin acumular el error de
+	 * Thread.sleep. parkNanos puede volver antes de tiempo, por lo
+	 * que se repite hasta alcanzar el plazo.
+	 * @param deadline Instante en nanosegundos.
+	 * @throws java.lang.InterruptedException
+	 */
+	private static void waitUntil (long deadline) throws InterruptedException {
+		long wait;
+		while ((wait = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(wait);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+	
+	/**
+	 * Aplica las entradas de un fotograma a un estado.
+	 * @param timeline Linea de tiempo del tiro.
+	 * @param frame Indice del fotograma.
+	 * @param state Estado de las bolas.
+	 */
+	private void applyFrame (SpfShotTimeline timeline, int frame, float[] state) {
+		float[] states = timeline.getEntryStates();
+		for (int e = timeline.getFrameStart(frame); e < timeline.getFrameEnd(frame); e++) {
+			int ball = timeline.getEntryBall(e);
+			System.arraycopy(states, e * StateSize, state, ball * StateSize, StateSize);
+			m_Dirty[ball] = true;
+		}
+	}
+	
+	/**
+	 * Actualiza en la escena las bolas que se mueven o han cambiado,
+	 * interpolando entre dos estados.
+	 * @param from Estado inicial.
+	 * @param to Estado final.
+	 * @param alpha Factor de interpolacion entre 0 y 1.
+	 */
+	private void updateScene (float[] from, float[] to, float alpha) {
+		for (int i = 0; i < m_Dirty.length; i++) {
+			if (!m_Moving[i] && !m_Dirty[i]) continue;
+			m_Dirty[i] = false;
+			int k = i * StateSize;
+			float x = from[k] + (to[k] - from[k]) * alpha;
+			float y = from[k + 1] + (to[k + 1] - from[k + 1]) * alpha;
+			float z = from[k + 2] + (to[k + 2] - from[k + 2]) * alpha;
+			float rotX = from[k + 3] + (to[k + 3] - from[k + 3]) * alpha;
+			float rotY = from[k + 4] + (to[k + 4] - from[k + 4]) * alpha;
+			float rotZ = from[k + 5] + (to[k + 5] - from[k + 5]) * alpha;
+			m_Adapter.setBallState(i, x, y, z, rotX, rotY, rotZ);
+		}
+	}
+	
+	/**
+	 * Publica el estado mostrado, si hay un publicador. La velocidad
+	 * de cada bola se obtiene del intervalo de interpolacion actual.
+	 * @param from Estado inicial.
+	 * @param to Estado final.
+	 * @param alpha Factor de interpolacion entre 0 y 1.
+	 * @param interval Duracion del intervalo (0 si las bolas estan paradas).
+	 * @param time Tiempo simulado mostrado.
+	 */
+	private void publishState (float[] from, float[] to, float alpha,
+			float interval, float time) {
+		SpfStatePublisher publisher = m_Publisher;
+		if (publisher == null) return;
+		float inverse = interval > 0 ? 1 / interval : 0;
+		publisher.begin(m_Moving.length, time);
+		for (int i = 0; i < m_Moving.length; i++) {
+			int k = i * StateSize;
+			float dx = to[k] - from[k];
+			float dy = to[k + 1] - from[k + 1];
+			float dz = to[k + 2] - from[k + 2];
+			boolean moving = inverse > 0 && m_Moving[i] && 
+					(dx != 0 || dy != 0 || dz != 0);
+			publisher.putBall(i, from[k] + dx * alpha, from[k + 1] + dy * alpha,
+					from[k + 2] + dz * alpha, 
+					dx * inverse, dy * inverse, dz * inverse, moving);
+		}
+		publisher.end();
+	}
+}
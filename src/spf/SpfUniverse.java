@@ -1,9 +1,22 @@
 package spf;
 
 import com.sun.j3d.utils.universe.SimpleUniverse;
-import java.util.BitSet;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.util.HashMap;
-import java.util.Vector;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.media.j3d.BoundingSphere;
 import javax.media.j3d.BranchGroup;
 import javax.media.j3d.Canvas3D;
@@ -15,11 +28,28 @@ import javax.media.j3d.VirtualUniverse;
 import javax.swing.JOptionPane;
 import javax.vecmath.Matrix3f;
 import javax.vecmath.Vector3f;
+import spf.jfr.SpfCueStickEvent;
+import spf.jfr.SpfShotEvent;
 import spf.objects.SpfObject;
 import spf.objects.SpfSphere;
 import spf.objects.SpfWavefrontObj;
+import spf.physics.SpfBallTable;
+import spf.physics.SpfEventEngine;
+import spf.physics.SpfHistogram;
+import spf.physics.SpfPhysicsEngine;
+import spf.physics.SpfPhysicsMetrics;
+import spf.physics.SpfShot;
+import spf.physics.SpfShotBatch;
+import spf.physics.SpfShotCache;
+import spf.physics.SpfShotOutcome;
+import spf.physics.SpfShotRecording;
+import spf.physics.SpfShotTimeline;
+import spf.physics.SpfStatePublisher;
+import spf.physics.SpfSteppedEngine;
+import spf.physics.SpfTableLoader;
 
 import static spf.SpfConstants.*;
+import static spf.physics.SpfPhysicsConstants.ShotForceScale;
 
 /**
  * Clase principal del juego que representa el universo.
@@ -37,13 +67,30 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 	private Thread m_GameThread;
 	private HashMap<String, SpfObject> m_ObjectMap;
 	private BranchGroup m_BallsBranch;
+	/// Escena del mundo y grupo donde se añade su decorado
+	private SpfScene m_WorldScene;
+	private BranchGroup m_DecorBranch;
 	private Vector3f m_ShotDir;
-	private Vector<SpfSphere> m_ActiveBalls;
+	private SpfSphere[] m_ActiveBalls;
+	private SpfObject[] m_BallShadows;
+	private SpfBallTable m_Table;
+	private SpfPhysicsEngine m_Engine;
+	private SpfShotTimeline m_Timeline;
+	private SpfShotCache m_ShotCache;
+	/// Hay un tiro en curso; se modifica con m_Sync tomado
+	private boolean m_ShotRunning;
+	/// Se esta reproduciendo una grabacion, y el tiro espera a que termine
+	private boolean m_Replaying, m_ShotPending;
+	private SpfTimelinePlayer m_Player;
+	private SpfTableAdapter m_Adapter;
+	private File m_RecordDirectory;
+	private int m_RecordCount;
+	private SpfPhysicsMetrics m_Metrics;
+	private float m_PlaybackSpeed = 1;
 	
 	private int m_NPoolBalls;
 	private int m_ShotForce;
 	private boolean m_FirstShot;
-	private float[][] m_BallDistances;
 	
 	/**
 	 * Constructor de SpfUniverse.
@@ -60,7 +107,20 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 		m_Sync = new Object();
 		m_GameThread = new Thread(this);
 		
-		m_BallDistances = new float[GameBalls+1][GameBalls+1];
+		// El motor por eventos se selecciona con -Dspf.engine=event
+		boolean event = "event".equals(System.getProperty("spf.engine"));
+		m_Engine = createEngine(event);
+		m_Timeline = new SpfShotTimeline();
+		// La cache tiene su propio motor, porque las predicciones se
+		// piden desde otras hebras mientras se simula un tiro
+		m_ShotCache = new SpfShotCache(m_Engine.copy(), ShotCacheSize);
+		m_Metrics = new SpfPhysicsMetrics();
+		attachMetrics(m_Engine);
+		registerMetrics();
+		// Los tiros se graban si se indica un directorio con -Dspf.record
+		String record = System.getProperty("spf.record");
+		if (record != null)
+			m_RecordDirectory = new File(record);
 	}
 	
 	/**
@@ -90,15 +150,32 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 	 * @return Devuelve el Canvas3D utilizado.
 	 */
 	public Canvas3D loadScene () {
-		SpfScene scn = new SpfScene(m_Canvas3D, false);
+		return loadScene(null);
+	}
+	
+	/**
+	 * Carga la escena del juego. Salvo que se indique
+	 * -Dspf.progressive=false, el decorado de la escena no se carga
+	 * aqui, sino en segundo plano al empezar la partida.
+	 * @param progress Receptor del progreso de la carga (puede ser null).
+	 * @return Devuelve el Canvas3D utilizado.
+	 */
+	public Canvas3D loadScene (SpfLoadListener progress) {
+		m_WorldScene = new SpfScene(m_Canvas3D, false);
+		m_WorldScene.setProgressive(!"false".equals(System.getProperty("spf.progressive")));
+		m_WorldScene.setLoadListener(progress);
 		try {
-			m_WorldGroup = scn.loadSceneFromFile("scene.xml");
+			m_WorldGroup = m_WorldScene.loadSceneFromFile("scene.xml");
 		} catch (IllegalArgumentException e) {
 			JOptionPane.showMessageDialog(m_Canvas3D, e.getMessage(),"Error", JOptionPane.ERROR_MESSAGE);
 			m_WorldGroup = new BranchGroup();
 		}
 		m_WorldGroup.setCapability(BranchGroup.ALLOW_CHILDREN_EXTEND);
 		m_WorldGroup.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
+		m_DecorBranch = new BranchGroup();
+		m_DecorBranch.setCapability(BranchGroup.ALLOW_CHILDREN_EXTEND);
+		m_DecorBranch.setCapability(BranchGroup.ALLOW_CHILDREN_WRITE);
+		m_WorldGroup.addChild(m_DecorBranch);
 		m_Fps = new SpfFpsBehavior();
 		m_Fps.setSchedulingBounds(new BoundingSphere());
 		m_WorldGroup.addChild(m_Fps);
@@ -137,24 +214,33 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 	/**
 	 * Inicializa las bolas de billar activas a
 	 * partir del mapa de objetos de la escena.
+	 * Las bolas se asocian a la mesa en el mismo
+	 * orden, de forma que el indice en el vector
+	 * coincide con el identificador en la mesa.
 	 */
 	private void initializeActiveBalls () {
-		m_ActiveBalls = new Vector<SpfSphere>(m_NPoolBalls);
-		String key;
-		m_ActiveBalls.add((SpfSphere)m_ObjectMap.get("BolaBlanca"));
-		for (int i = 1; i < m_NPoolBalls; i++) {
-			key = "Bola" + i;
-			m_ActiveBalls.add((SpfSphere)m_ObjectMap.get(key));
+		m_ActiveBalls = new SpfSphere[m_NPoolBalls];
+		m_BallShadows = new SpfObject[m_NPoolBalls];
+		m_Table = new SpfBallTable(m_NPoolBalls);
+		String[] names = SpfTableLoader.getGameBallNames(m_NPoolBalls - 1);
+		for (int i = 0; i < m_NPoolBalls; i++) {
+			m_ActiveBalls[i] = (SpfSphere)m_ObjectMap.get(names[i]);
+			m_ActiveBalls[i].attach(m_Table);
+			m_BallShadows[i] = m_ObjectMap.get("Sombra" + names[i]);
 		}
-	}
-	
-	/**
-	 * Inicializa la matriz de distancias de las bolas.
-	 */
-	private void initializeBallDistances () {
-		for (int i = 0; i <= GameBalls; i++) {
-			for (int j = 0; j <= GameBalls; j++) {
-				m_BallDistances[i][j] = 1000;
+		m_Adapter = new SpfTableAdapter(m_ActiveBalls, m_BallShadows);
+		m_Player = new SpfTimelinePlayer(m_Adapter);
+		m_Player.setSpeed(m_PlaybackSpeed);
+		// El estado de las bolas se publica para otros procesos
+		// si se indica un fichero con -Dspf.state
+		String state = System.getProperty("spf.state");
+		if (state != null) {
+			try {
+				SpfStatePublisher publisher = new SpfStatePublisher(new File(state), m_NPoolBalls);
+				publisher.publish(m_Table, 0);
+				m_Player.setPublisher(publisher);
+			} catch (IOException e) {
+				System.err.println("No se puede publicar el estado: " + e.getMessage());
 			}
 		}
 	}
@@ -163,6 +249,9 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 	 * Dibuja el taco de billar y le asocia su comportamiento.
 	 */
 	private void drawCueStick () {
+		SpfCueStickEvent event = new SpfCueStickEvent();
+		event.begin();
+		boolean modelLoaded = m_Stick == null;
 		SpfObject cueBall = m_ObjectMap.get("BolaBlanca");
 		// Rotacion inicial del taco
 		Matrix3f rot = SpfScene.getRotationMatrix(180, 0, 7);
@@ -201,6 +290,11 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 		bg.compile();
 		
 		m_WorldGroup.addChild(bg);
+		event.end();
+		if (event.shouldCommit()) {
+			event.setModelLoaded(modelLoaded);
+			event.commit();
+		}
 	}
 	
 	/**
@@ -213,95 +307,244 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 	}
 	
 	/**
-	 * Realiza la simulacion fisica del tiro.
+	 * Realiza la simulacion fisica del tiro. El tiro se calcula
+	 * completo tan rapido como sea posible y despues se reproduce
+	 * su linea de tiempo sobre la escena.
+	 * @param release Instante en que se solto el taco, terminada su
+	 * animacion, en nanosegundos.
 	 * @throws java.lang.InterruptedException
 	 */
-	private void simulateShot () throws InterruptedException {
-		int it = 0;
-		BitSet moving = new BitSet(m_NPoolBalls);
-		
-		SpfSphere bolaBlanca = m_ActiveBalls.firstElement();
-		Vector3f force = new Vector3f(m_ShotDir);
-		force.scale((m_ShotForce+1)*150);
-		// Aplicar fuerza instantanea del tiro
-		bolaBlanca.applyForce(force);
-		
-		moving.set(0);
-		while (!moving.isEmpty()) {
-			// Detectar colisiones entre bolas
-			for (int i = 0; i < m_ActiveBalls.size(); i++) {
-				simulateStep(m_ActiveBalls.elementAt(i), i);
+	private void simulateShot (long release) throws InterruptedException {
+		long start = System.nanoTime();
+		float force = (m_ShotForce+1)*ShotForceScale;
+		SpfBallTable initial = m_RecordDirectory != null ? m_Table.copy() : null;
+		SpfShotEvent event = new SpfShotEvent();
+		event.begin();
+		m_Timeline.begin(m_Table);
+		m_Engine.simulateShot(m_Table, 0, 
+				m_ShotDir.x * force, m_ShotDir.y * force, m_ShotDir.z * force,
+				m_Timeline);
+		long simulated = System.nanoTime();
+		event.end();
+		if (event.shouldCommit()) {
+			int collisions = 0;
+			for (int e = 0; e < m_Timeline.getEventCount(); e++) {
+				if (m_Timeline.getEventType(e) == SpfShotTimeline.BallCollision)
+					collisions++;
 			}
-			// Actualizar estado de las bolas
-			for (int i = 0; i < m_ActiveBalls.size(); i++) {
-				SpfSphere ball = m_ActiveBalls.elementAt(i);
-				// Actualizamos solo si la bola esta en movimiento
-				// o cuando realizamos el tiro inicial
-				if (it == 0 || ball.isMoving())
-					ball.updateState();
-			}
-			// Actualizar mapa de bits para detectar el fin
-			// de la simulacion
-			for (int i = 0; i < m_ActiveBalls.size(); i++) {
-				SpfSphere ball = m_ActiveBalls.elementAt(i);
-				if (ball.isMoving()) {
-					moving.set(i);
-					ball.updateTransform();
-					updateBallShadow(ball);
-				} else {
-					moving.clear(i);
-				}
+			event.setShot(m_Engine.getClass().getSimpleName(), m_Table.getCount(),
+					m_Timeline.getFrameCount() - 1, collisions, m_Timeline.getDuration());
+			event.commit();
+		}
+		if (initial != null)
+			recordShot(initial, force);
+		long ready = System.nanoTime();
+		m_Player.play(m_Timeline);
+		m_Metrics.recordShot(start - release, simulated - start,
+				ready - release, System.nanoTime() - ready);
+	}
+	
+	/**
+	 * Guarda la grabacion del ultimo tiro en el directorio de grabaciones.
+	 * @param initial Estado de la mesa antes del tiro.
+	 * @param force Modulo de la fuerza aplicada.
+	 */
+	private void recordShot (SpfBallTable initial, float force) {
+		SpfShotRecording recording = new SpfShotRecording(initial, 0,
+				m_ShotDir.x, m_ShotDir.y, m_ShotDir.z, force, m_Timeline);
+		m_RecordCount++;
+		File file = new File(m_RecordDirectory, 
+				"shot-" + System.currentTimeMillis() + "-" + m_RecordCount + ".spfr");
+		try {
+			m_RecordDirectory.mkdirs();
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				recording.write(out, true);
+			} finally {
+				out.close();
 			}
-			// Retiramos la fuerza del tiro tras
-			// la primera iteracion
-			if (it == 0) bolaBlanca.applyForce(new Vector3f());
-			it++;
-			Thread.sleep(9);
+		} catch (IOException e) {
+			System.err.println("No se puede grabar el tiro: " + e.getMessage());
 		}
 	}
 	
 	/**
-	 * Detecta colisiones entre una bola dada y las demas.
-	 * @param ball Bola sobre la que hay que detectar colisiones.
-	 * @param idx Indice que ocupa la bola en el vector de bolas.
+	 * Reproduce sobre la escena un tiro grabado. Al terminar, las
+	 * bolas vuelven a mostrar el estado actual de la partida. No
+	 * puede reproducirse mientras hay un tiro en curso; si se tira
+	 * durante la reproduccion, el tiro espera a que termine.
+	 * @param file Fichero con la grabacion.
+	 * @throws java.io.IOException
+	 * @throws java.lang.InterruptedException
+	 * @throws java.lang.IllegalStateException
 	 */
-	private void simulateStep (SpfSphere ball, int idx) {
-		for (int i = 0; i < m_ActiveBalls.size(); i++) {
-			SpfSphere sphere = m_ActiveBalls.elementAt(i);
-			if (i != idx) {
-				Vector3f v = new Vector3f(sphere.getPosition());
-				v.sub(new Vector3f(ball.getPosition()));
-				float currentDistance = v.length();
-				float minDistance = ball.getRadius() + sphere.getRadius();
-				float lastDistance = m_BallDistances[idx][i];
-
-				// Si entramos en colision actualizamos la bola
-				if (currentDistance < minDistance && currentDistance < lastDistance) {
-					ball.updateOnCollision(sphere, v);
-				}
-				m_BallDistances[idx][i] = currentDistance;
+	public void replayShot (File file) throws IOException, InterruptedException,
+			IllegalStateException {
+		SpfShotRecording recording;
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try {
+			recording = SpfShotRecording.read(in);
+		} finally {
+			in.close();
+		}
+		if (recording.getTable().getCount() != m_Table.getCount())
+			throw new IOException("La grabacion no corresponde a esta mesa");
+		synchronized (m_Sync) {
+			if (m_ShotRunning || m_Replaying)
+				throw new IllegalStateException("Hay un tiro en curso");
+			m_Replaying = true;
+		}
+		try {
+			m_Player.play(recording.getTimeline());
+			m_Adapter.update(m_Table);
+		} finally {
+			synchronized (m_Sync) {
+				m_Replaying = false;
+				// Solo se despierta a la hebra del juego si espera para tirar
+				if (m_ShotPending) m_Sync.notifyAll();
 			}
 		}
 	}
 	
 	/**
-	 * Actualiza la posicion de la sombra de la bola.
-	 * @param ball Bola a la que actualizar la sombra.
+	 * Establece el directorio donde se graban los tiros.
+	 * @param directory Directorio de grabaciones (null para no grabar).
+	 */
+	public void setRecordDirectory (File directory) {
+		m_RecordDirectory = directory;
+	}
+	
+	/**
+	 * Calcula el resultado del tiro con la direccion y fuerza
+	 * actuales sin modificar la mesa. Los resultados se guardan
+	 * en una cache, por lo que las consultas repetidas mientras
+	 * se apunta no vuelven a simular el tiro.
+	 * @return Devuelve el resultado del tiro, o null si no hay
+	 * direccion de tiro.
 	 */
-	public void updateBallShadow (SpfSphere ball) {
-		String name = "Sombra" + ball.getName();
-		SpfObject shadow = m_ObjectMap.get(name);
-		if (shadow != null) {
-			Transform3D t3d = new Transform3D();
-			TransformGroup tg = ball.getTransformGroup();
-			tg.getTransform(t3d);
-			Vector3f translation = new Vector3f();
-			t3d.get(translation);
-			translation.y = -0.87f;
-			Transform3D transform = new Transform3D();
-			transform.set(translation);
-			shadow.setTransform(transform);
+	public SpfShotOutcome predictShot () {
+		if (m_ShotDir == null || m_Table == null) return null;
+		float force = (m_ShotForce+1)*ShotForceScale;
+		SpfBallTable table;
+		// La mesa se copia con m_Sync tomado para no leerla
+		// mientras la hebra del juego simula un tiro
+		synchronized (m_Sync) {
+			if (m_ShotRunning) return null;
+			table = m_Table.copy();
 		}
+		return m_ShotCache.getOutcome(table, 0,
+				m_ShotDir.x * force, m_ShotDir.y * force, m_ShotDir.z * force);
+	}
+	
+	/**
+	 * Evalua en paralelo un lote de tiros desde la posicion actual de
+	 * las bolas sin modificar la mesa. Debe llamarse con las bolas en
+	 * reposo, entre tiros. Los resultados se comparten con la cache
+	 * de predictShot.
+	 * @param shots Tiros a evaluar.
+	 * @param executor Ejecutor donde se simulan los tiros.
+	 * @return Devuelve el resultado futuro de cada tiro, en el mismo
+	 * orden que los tiros, o null si la escena no esta cargada o
+	 * hay un tiro en curso.
+	 */
+	public List<CompletableFuture<SpfShotOutcome>> evaluateShots (List<SpfShot> shots,
+			Executor executor) {
+		if (m_Table == null) return null;
+		SpfShotBatch batch = new SpfShotBatch(executor, m_ShotCache);
+		batch.setEngine(m_Engine);
+		// evaluate copia la mesa antes de volver
+		synchronized (m_Sync) {
+			if (m_ShotRunning) return null;
+			return batch.evaluate(m_Table, shots);
+		}
+	}
+	
+	/**
+	 * @return Devuelve la cache de resultados de tiros.
+	 */
+	public SpfShotCache getShotCache () {
+		return m_ShotCache;
+	}
+	
+	/**
+	 * Establece la velocidad de reproduccion de los tiros.
+	 * @param speed Velocidad relativa al tiempo real.
+	 */
+	public void setPlaybackSpeed (float speed) {
+		m_PlaybackSpeed = speed;
+		if (m_Player != null) m_Player.setSpeed(speed);
+	}
+	
+	/**
+	 * @return Devuelve las estadisticas del bucle de reproduccion,
+	 * o null si la escena no esta cargada.
+	 */
+	public SpfLoopStats getLoopStats () {
+		return m_Player == null ? null : m_Player.getLoopStats();
+	}
+	
+	/**
+	 * Establece el motor de simulacion fisica.
+	 * @param engine Motor de simulacion.
+	 */
+	public void setEngine (SpfPhysicsEngine engine) {
+		if (m_Engine instanceof SpfSteppedEngine)
+			((SpfSteppedEngine)m_Engine).setMetrics(null);
+		m_Engine = engine;
+		// La cache usa una copia del motor, con su misma configuracion
+		m_ShotCache = new SpfShotCache(engine.copy(), m_ShotCache.getMaxSize());
+		attachMetrics(engine);
+	}
+	
+	/**
+	 * Crea un motor de simulacion fisica.
+	 * @param event Crear el motor por eventos en lugar del motor por pasos.
+	 * @return Devuelve el motor.
+	 */
+	private static SpfPhysicsEngine createEngine (boolean event) {
+		if (event)
+			return new SpfEventEngine();
+		else
+			return new SpfSteppedEngine();
+	}
+	
+	/**
+	 * Asocia las metricas de la aplicacion al motor, si lo admite.
+	 * Solo se mide el motor de la hebra del juego: la cache de
+	 * predicciones y los lotes de tiros usan sus propios motores,
+	 * sin metricas, para no mezclar sus consultas con los tiros.
+	 * @param engine Motor de simulacion.
+	 */
+	private void attachMetrics (SpfPhysicsEngine engine) {
+		if (engine instanceof SpfSteppedEngine)
+			((SpfSteppedEngine)engine).setMetrics(m_Metrics);
+	}
+	
+	/**
+	 * Registra los histogramas de las metricas en el servidor
+	 * JMX de la plataforma, como spf:type=Physics,name=...
+	 */
+	private void registerMetrics () {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String[] names = SpfPhysicsMetrics.getNames();
+		SpfHistogram[] histograms = m_Metrics.getHistograms();
+		try {
+			for (int i = 0; i < names.length; i++) {
+				ObjectName name = new ObjectName("spf:type=Physics,name=" + names[i]);
+				if (server.isRegistered(name))
+					server.unregisterMBean(name);
+				server.registerMBean(histograms[i], name);
+			}
+		} catch (JMException e) {
+			System.err.println("No se pueden registrar las metricas: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * @return Devuelve las metricas de la simulacion.
+	 */
+	public SpfPhysicsMetrics getMetrics () {
+		return m_Metrics;
 	}
 	
 	/**
@@ -327,8 +570,10 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 	public void startGame () {
 		m_NPoolBalls = GameBalls + 1;
 		m_FirstShot = true;
-		initializeBallDistances();
 		loadBilliardBalls();
+		// La partida empieza mientras se carga el decorado
+		m_WorldScene.setLoadListener(null);
+		m_WorldScene.loadDecor(m_DecorBranch);
 		m_GameThread.start();
 	}
 
@@ -341,13 +586,19 @@ public class SpfUniverse extends VirtualUniverse implements Runnable {
 				// Dibujamos el taco y esperamos
 				// a que se produzca el tiro.
 				synchronized(m_Sync) {
+					m_ShotRunning = false;
 					drawCueStick();
 					m_Sync.wait();
+					m_ShotPending = true;
+					while (m_Replaying)
+						m_Sync.wait();
+					m_ShotPending = false;
+					m_ShotRunning = true;
 				}
 				// Esperar a que se realize la animacion.
 				Thread.sleep(1100);
 				removeCueStick();
-				simulateShot();
+				simulateShot(System.nanoTime());
 				//Thread.sleep(2000);
 				Thread.yield();
 			} catch (InterruptedException e) {
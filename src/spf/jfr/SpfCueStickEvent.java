@@ -0,0 +1,24 @@
+package spf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR de la construccion del grafo del taco antes de cada tiro.
+ * @author Sergio Paque Martin
+ */
+@Name("spf.CueStick")
+@Label("Construccion del taco")
+@Category({"SPF", "Escena"})
+public class SpfCueStickEvent extends jdk.jfr.Event {
+	@Label("Modelo cargado")
+	private boolean modelLoaded;
+	
+	/**
+	 * @param modelLoaded Si el modelo del taco se cargo en esta construccion.
+	 */
+	public void setModelLoaded (boolean modelLoaded) {
+		this.modelLoaded = modelLoaded;
+	}
+}
@@ -0,0 +1,39 @@
+package spf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR de la carga de un modelo Wavefront (OBJ).
+ * @author Sergio Paque Martin
+ */
+@Name("spf.ObjLoad")
+@Label("Carga de modelo OBJ")
+@Category({"SPF", "Carga"})
+public class SpfObjLoadEvent extends jdk.jfr.Event {
+	@Label("Fichero")
+	private String file;
+	@Label("Tamaño")
+	@DataAmount
+	private long size;
+	@Label("Triangulos")
+	private int triangles;
+	@Label("Correcto")
+	private boolean succeeded;
+	
+	/**
+	 * Establece los datos del modelo.
+	 * @param file Nombre del fichero OBJ.
+	 * @param size Tamaño del fichero en bytes.
+	 * @param triangles Numero de triangulos del modelo.
+	 * @param succeeded Si el modelo se cargo correctamente.
+	 */
+	public void setModel (String file, long size, int triangles, boolean succeeded) {
+		this.file = file;
+		this.size = size;
+		this.triangles = triangles;
+		this.succeeded = succeeded;
+	}
+}
@@ -0,0 +1,33 @@
+package spf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR de la carga de un fichero de escena.
+ * @author Sergio Paque Martin
+ */
+@Name("spf.SceneLoad")
+@Label("Carga de escena")
+@Category({"SPF", "Carga"})
+public class SpfSceneLoadEvent extends jdk.jfr.Event {
+	@Label("Fichero")
+	private String file;
+	@Label("Objetos")
+	private int objects;
+	@Label("Desde la cache")
+	private boolean cached;
+	
+	/**
+	 * Establece los datos de la escena.
+	 * @param file Nombre del fichero de escena.
+	 * @param objects Numero de objetos con nombre de la escena.
+	 * @param cached Si la escena se ha leido de la cache de escenas compiladas.
+	 */
+	public void setScene (String file, int objects, boolean cached) {
+		this.file = file;
+		this.objects = objects;
+		this.cached = cached;
+	}
+}
@@ -0,0 +1,50 @@
+package spf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento JFR de la simulacion de un tiro. La duracion del evento
+ * es el tiempo real de la simulacion, sin la reproduccion.
+ * <p>
+ * Los campos no llevan prefijo porque su nombre es el que aparece
+ * en las grabaciones.
+ * @author Sergio Paque Martin
+ */
+@Name("spf.Shot")
+@Label("Simulacion de tiro")
+@Category({"SPF", "Fisica"})
+@Description("Simulacion completa de un tiro por el motor fisico")
+public class SpfShotEvent extends jdk.jfr.Event {
+	@Label("Motor")
+	private String engine;
+	@Label("Bolas")
+	private int balls;
+	@Label("Pasos")
+	private int steps;
+	@Label("Colisiones entre bolas")
+	private int collisions;
+	@Label("Tiempo simulado")
+	@Timespan(Timespan.NANOSECONDS)
+	private long simulatedTime;
+	
+	/**
+	 * Establece los datos del tiro.
+	 * @param engine Nombre del motor de simulacion.
+	 * @param balls Numero de bolas de la mesa.
+	 * @param steps Numero de pasos (o eventos) simulados.
+	 * @param collisions Numero de colisiones entre bolas.
+	 * @param simulatedTime Duracion simulada del tiro en segundos.
+	 */
+	public void setShot (String engine, int balls, int steps, int collisions,
+			float simulatedTime) {
+		this.engine = engine;
+		this.balls = balls;
+		this.steps = steps;
+		this.collisions = collisions;
+		this.simulatedTime = (long)(simulatedTime * 1e9);
+	}
+}
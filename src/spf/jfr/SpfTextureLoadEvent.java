@@ -0,0 +1,37 @@
+package spf.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Evento JFR de la carga de una textura.
+ * @author Sergio Paque Martin
+ */
+@Name("spf.TextureLoad")
+@Label("Carga de textura")
+@Category({"SPF", "Carga"})
+public class SpfTextureLoadEvent extends jdk.jfr.Event {
+	@Label("Fichero")
+	private String file;
+	@Label("Ancho")
+	private int width;
+	@Label("Alto")
+	private int height;
+	@Label("Niveles de mipmap")
+	private int levels;
+	
+	/**
+	 * Establece los datos de la textura.
+	 * @param file Ruta del fichero de la textura.
+	 * @param width Ancho de la imagen base.
+	 * @param height Alto de la imagen base.
+	 * @param levels Numero de niveles, incluida la imagen base.
+	 */
+	public void setTexture (String file, int width, int height, int levels) {
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.levels = levels;
+	}
+}
@@ -1,17 +1,13 @@
 package spf.objects;
 
 import com.sun.j3d.utils.geometry.Primitive;
-import com.sun.j3d.utils.image.TextureLoader;
 import java.util.List;
 import javax.media.j3d.Appearance;
 import javax.media.j3d.Canvas3D;
 import javax.media.j3d.ColoringAttributes;
-import javax.media.j3d.ImageComponent2D;
 import javax.media.j3d.Material;
 import javax.media.j3d.Node;
 import javax.media.j3d.Texture;
-import javax.media.j3d.Texture2D;
-import javax.media.j3d.TextureAttributes;
 import javax.media.j3d.Transform3D;
 import javax.media.j3d.TransformGroup;
 import javax.media.j3d.TransparencyAttributes;
@@ -20,7 +16,7 @@ import javax.vecmath.Vector3f;
 import spf.SpfApplication;
 import spf.xml.SpfXmlNode;
 
-import static spf.SpfConstants.*;
+import static spf.physics.SpfPhysicsConstants.*;
 
 /**
  * Clase base para representar las posibles primitivas.
@@ -34,6 +30,8 @@ public abstract class SpfObject {
 	protected Primitive m_Primitive;
 	protected Appearance m_Appearance;
 	protected Canvas3D m_Canvas3D;
+	/// Textura obtenida de la cache compartida
+	private SpfTextureCache.Entry m_Texture;
 	
 	protected float[] m_MinCoord = new float[] {-2.2f, -0.82f, -1.15f};
 	protected float[] m_MaxCoord = new float[] {2.2f, -0.82f, 1.15f};
@@ -100,15 +98,15 @@ public abstract class SpfObject {
 	 * @return Devuelve si el objeto esta en movimiento.
 	 */
 	public boolean isMoving () {
-		Vector3f velocity = new Vector3f(m_Velocity);
-		return velocity.lengthSquared() >= 0.0001f;
+		float vx = m_Velocity[0], vy = m_Velocity[1], vz = m_Velocity[2];
+		return vx*vx + vy*vy + vz*vz >= 0.0001f;
 	}
 	
 	/**
 	 * Actualiza el estado del objeto (movimiento lineal).
 	 */
 	public void updateState () {
-		float dt = 0.009f;
+		float dt = PhysicsStep;
 		float K1, K23, K4;
 		//double L1, L2, L3, L4;
 		// L1 = L2 = L3 = L4
@@ -225,60 +223,34 @@ public abstract class SpfObject {
 	}
 	
 	/**
-	 * Carga la textura del objeto a partir de un nodo xml.
+	 * Carga la textura del objeto a partir de un nodo xml. Las
+	 * texturas se obtienen de la cache compartida, de forma que
+	 * los objetos con el mismo fichero usan la misma textura.
 	 * @param node Nodo xml actual.
 	 */
 	private void loadTexture (SpfXmlNode node) {
 		String filename = node.getAttribute("filename");
 		if (filename.length() > 0) {
 			String path = SpfApplication.getResourcesPath() + filename;
-			String extension = filename.substring(filename.lastIndexOf('.')).toLowerCase();
-			int flags;
-			String format;
-			if (extension.endsWith(".png") || extension.endsWith(".gif")) {
-				flags = Texture.RGBA;
-				format = "RGBA";
-			} else {
-				flags = Texture.RGB;
-				format = "RGB";
-			}
-			
-			TextureLoader loader = 
-					new TextureLoader(
-						path, 
-						format, 
-						TextureLoader.GENERATE_MIPMAP, 
-						m_Canvas3D);
-			ImageComponent2D image = loader.getImage();
-			int imageWidth = image.getWidth();
-			int imageHeight = image.getHeight();
-			int imageLevel = 0;
-			
-			Texture2D texture = 
-					new Texture2D(
-						Texture.MULTI_LEVEL_MIPMAP,
-						flags,
-						imageWidth, imageHeight);
-			texture.setImage(imageLevel, image);
-			// ejecutar hasta tener tamaño 1x1
-			while (imageWidth > 1 || imageHeight > 1) {
-				imageLevel++;
-
-				if (imageWidth > 1) imageWidth = imageWidth >> 1;
-				if (imageHeight > 1) imageHeight = imageHeight >> 1;
-
-				image = loader.getScaledImage(imageWidth, imageHeight);
-				texture.setImage(imageLevel, image);
-			}
-			texture.setMagFilter(Texture.BASE_LEVEL_LINEAR);
-			texture.setMinFilter(Texture.MULTI_LEVEL_LINEAR);
-			
-			// Modular color de la textura con el del material.
-			TextureAttributes texAtt = new TextureAttributes();
-			texAtt.setTextureMode(TextureAttributes.MODULATE);
-			
-			m_Appearance.setTexture(texture);
-			m_Appearance.setTextureAttributes(texAtt);
+			SpfTextureCache.Entry texture = SpfTextureCache.getInstance().acquire(
+					path, Texture.BASE_LEVEL_LINEAR, Texture.MULTI_LEVEL_LINEAR, m_Canvas3D);
+			if (m_Texture != null)
+				SpfTextureCache.getInstance().release(m_Texture);
+			m_Texture = texture;
+			m_Appearance.setTexture(texture.getTexture());
+			m_Appearance.setTextureAttributes(texture.getAttributes());
+		}
+	}
+	
+	/**
+	 * Libera las texturas del objeto en la cache compartida. Se
+	 * llama cuando el objeto deja de usarse, directamente o con
+	 * SpfScene.release; la apariencia del objeto no se modifica.
+	 */
+	public void release () {
+		if (m_Texture != null) {
+			SpfTextureCache.getInstance().release(m_Texture);
+			m_Texture = null;
 		}
 	}
 	
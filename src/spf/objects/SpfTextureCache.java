@@ -0,0 +1,278 @@
+package spf.objects;
+
+import com.sun.j3d.utils.image.TextureLoader;
+import java.awt.Component;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import javax.media.j3d.ImageComponent2D;
+import javax.media.j3d.Texture;
+import javax.media.j3d.Texture2D;
+import javax.media.j3d.TextureAttributes;
+import spf.jfr.SpfTextureLoadEvent;
+
+/**
+ * Cache de texturas compartida por todos los objetos del proceso. Cada
+ * textura se identifica por el fichero, el formato y los filtros de los
+ * mipmaps, y se carga una sola vez: los objetos que la usan comparten
+ * el mismo Texture2D y los mismos TextureAttributes.
+ * <p>
+ * La cache cuenta las referencias a cada textura. Las que no tienen
+ * referencias se mantienen mientras quepan en el presupuesto de bytes,
+ * y se descartan empezando por la menos usada recientemente. Las que
+ * estan en uso nunca se descartan, aunque se supere el presupuesto.
+ * <p>
+ * Cada objeto mantiene sus referencias hasta que se libera con
+ * SpfObject.release o, para todos los objetos de una escena, con
+ * SpfScene.release. El juego conserva sus escenas mientras se ejecuta,
+ * por lo que sus texturas siempre estan en uso; el descarte solo
+ * afecta a las texturas de los objetos liberados.
+ * <p>
+ * El presupuesto se indica en megabytes con -Dspf.textureCache
+ * (por defecto, 64).
+ * @author Sergio Paque Martin
+ */
+public class SpfTextureCache {
+	private static final long DefaultBudget = 64L << 20;
+	private static final SpfTextureCache Instance = new SpfTextureCache(getDefaultBudget());
+
+	/// Texturas por clave, de la menos a la mas usada recientemente
+	private LinkedHashMap<String, Entry> m_Entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private long m_Budget;
+	private long m_Bytes;
+
+	/**
+	 * Constructor de SpfTextureCache.
+	 * @param budget Bytes que pueden ocupar las texturas sin referencias.
+	 */
+	public SpfTextureCache (long budget) {
+		m_Budget = budget;
+	}
+
+	/**
+	 * @return Devuelve la cache compartida por todo el proceso.
+	 */
+	public static SpfTextureCache getInstance () {
+		return Instance;
+	}
+
+	/**
+	 * Obtiene una textura, cargandola si no esta en la cache, y
+	 * añade una referencia a ella. Cada llamada debe corresponderse
+	 * con una llamada a release.
+	 * @param path Ruta del fichero de la textura.
+	 * @param magFilter Filtro de ampliacion.
+	 * @param minFilter Filtro de reduccion de los mipmaps.
+	 * @param observer Componente para cargar la imagen.
+	 * @return Devuelve la textura.
+	 */
+	public Entry acquire (String path, int magFilter, int minFilter, Component observer) {
+		String format = getFormat(path);
+		String key = path + '|' + format + '|' + magFilter + '|' + minFilter;
+		Entry entry;
+		synchronized (this) {
+			entry = m_Entries.get(key);
+			if (entry == null) {
+				entry = new Entry(path, format, magFilter, minFilter);
+				m_Entries.put(key, entry);
+			}
+			entry.m_References++;
+		}
+		// La imagen se carga fuera del cerrojo de la cache, para que
+		// otras texturas puedan cargarse a la vez
+		boolean loaded;
+		try {
+			loaded = entry.load(observer);
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				entry.m_References--;
+				// Otras hebras pueden estar cargando la misma textura;
+				// si no queda ninguna, se quita para no guardar el fallo
+				if (entry.m_References == 0 && m_Entries.get(key) == entry)
+					m_Entries.remove(key);
+			}
+			throw e;
+		}
+		if (loaded) {
+			synchronized (this) {
+				// Solo se cuentan los bytes de las texturas de la cache
+				if (m_Entries.get(key) == entry) {
+					m_Bytes += entry.m_Bytes;
+					evict();
+				}
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Quita una referencia a una textura. Cuando no le quedan
+	 * referencias puede descartarse.
+	 * @param entry Textura obtenida con acquire.
+	 */
+	public synchronized void release (Entry entry) {
+		if (entry.m_References > 0)
+			entry.m_References--;
+		evict();
+	}
+
+	/**
+	 * Establece el presupuesto de la cache y descarta las texturas
+	 * sin referencias que no quepan en el.
+	 * @param budget Bytes que pueden ocupar las texturas sin referencias.
+	 */
+	public synchronized void setBudget (long budget) {
+		m_Budget = budget;
+		evict();
+	}
+
+	/**
+	 * @return Devuelve los bytes que ocupan las texturas de la cache.
+	 */
+	public synchronized long getBytes () {
+		return m_Bytes;
+	}
+
+	/**
+	 * @return Devuelve el numero de texturas de la cache.
+	 */
+	public synchronized int size () {
+		return m_Entries.size();
+	}
+
+	/**
+	 * Descarta las texturas sin referencias, de la menos a la mas
+	 * usada recientemente, hasta que la cache quepa en el presupuesto.
+	 */
+	private void evict () {
+		Iterator<Entry> it = m_Entries.values().iterator();
+		while (m_Bytes > m_Budget && it.hasNext()) {
+			Entry entry = it.next();
+			// Las que se estan cargando tienen al menos una referencia
+			if (entry.m_References == 0) {
+				it.remove();
+				m_Bytes -= entry.m_Bytes;
+			}
+		}
+	}
+
+	/**
+	 * @param path Ruta del fichero de la textura.
+	 * @return Devuelve el formato de la imagen segun su extension.
+	 */
+	private static String getFormat (String path) {
+		String extension = path.substring(path.lastIndexOf('.')).toLowerCase();
+		if (extension.endsWith(".png") || extension.endsWith(".gif"))
+			return "RGBA";
+		else
+			return "RGB";
+	}
+
+	/**
+	 * @return Devuelve el presupuesto indicado con -Dspf.textureCache,
+	 * o el presupuesto por defecto.
+	 */
+	private static long getDefaultBudget () {
+		String budget = System.getProperty("spf.textureCache");
+		if (budget != null) {
+			try {
+				return Long.parseLong(budget) << 20;
+			} catch (NumberFormatException e) {
+				System.err.println("No se puede leer el tamaño de la cache de texturas: " + e.getMessage());
+			}
+		}
+		return DefaultBudget;
+	}
+
+	/**
+	 * Textura de la cache, con sus atributos.
+	 */
+	public static class Entry {
+		private String m_Path;
+		private String m_Format;
+		private int m_MagFilter, m_MinFilter;
+		private Texture2D m_Texture;
+		private TextureAttributes m_Attributes;
+		private long m_Bytes;
+		private int m_References;
+
+		Entry (String path, String format, int magFilter, int minFilter) {
+			m_Path = path;
+			m_Format = format;
+			m_MagFilter = magFilter;
+			m_MinFilter = minFilter;
+		}
+
+		/**
+		 * @return Devuelve la textura compartida.
+		 */
+		public Texture2D getTexture () {
+			return m_Texture;
+		}
+
+		/**
+		 * @return Devuelve los atributos de la textura compartidos.
+		 */
+		public TextureAttributes getAttributes () {
+			return m_Attributes;
+		}
+
+		/**
+		 * Carga la imagen y genera los mipmaps, si no se ha hecho ya.
+		 * @param observer Componente para cargar la imagen.
+		 * @return Devuelve si la textura se ha cargado en esta llamada.
+		 */
+		private synchronized boolean load (Component observer) {
+			if (m_Texture != null) return false;
+			SpfTextureLoadEvent event = new SpfTextureLoadEvent();
+			event.begin();
+			TextureLoader loader =
+					new TextureLoader(
+						m_Path,
+						m_Format,
+						TextureLoader.GENERATE_MIPMAP,
+						observer);
+			ImageComponent2D image = loader.getImage();
+			int imageWidth = image.getWidth();
+			int imageHeight = image.getHeight();
+			int imageLevel = 0;
+			int baseWidth = imageWidth;
+			int baseHeight = imageHeight;
+			int texel = m_Format.equals("RGBA") ? 4 : 3;
+			long bytes = (long)imageWidth * imageHeight * texel;
+
+			Texture2D texture =
+					new Texture2D(
+						Texture.MULTI_LEVEL_MIPMAP,
+						m_Format.equals("RGBA") ? Texture.RGBA : Texture.RGB,
+						imageWidth, imageHeight);
+			texture.setImage(imageLevel, image);
+			// Ejecutar hasta tamaño 1x1
+			while (imageWidth > 1 || imageHeight > 1) {
+				imageLevel++;
+
+				if (imageWidth > 1) imageWidth = imageWidth >> 1;
+				if (imageHeight > 1) imageHeight = imageHeight >> 1;
+
+				image = loader.getScaledImage(imageWidth, imageHeight);
+				texture.setImage(imageLevel, image);
+				bytes += (long)imageWidth * imageHeight * texel;
+			}
+			texture.setMagFilter(m_MagFilter);
+			texture.setMinFilter(m_MinFilter);
+
+			// Modular color de la textura con el del material.
+			TextureAttributes texAtt = new TextureAttributes();
+			texAtt.setTextureMode(TextureAttributes.MODULATE);
+
+			m_Attributes = texAtt;
+			m_Bytes = bytes;
+			m_Texture = texture;
+			event.end();
+			if (event.shouldCommit()) {
+				event.setTexture(m_Path, baseWidth, baseHeight, imageLevel + 1);
+				event.commit();
+			}
+			return true;
+		}
+	}
+}
@@ -2,31 +2,35 @@ package spf.objects;
 
 import com.sun.j3d.loaders.Scene;
 import com.sun.j3d.loaders.objectfile.ObjectFile;
-import com.sun.j3d.utils.image.TextureLoader;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import javax.media.j3d.Appearance;
 import javax.media.j3d.Canvas3D;
+import javax.media.j3d.Geometry;
 import javax.media.j3d.Group;
-import javax.media.j3d.ImageComponent2D;
+import javax.media.j3d.IndexedTriangleArray;
+import javax.media.j3d.IndexedTriangleStripArray;
 import javax.media.j3d.Material;
 import javax.media.j3d.Node;
 import javax.media.j3d.Shape3D;
 import javax.media.j3d.Texture;
-import javax.media.j3d.Texture2D;
-import javax.media.j3d.TextureAttributes;
 import javax.media.j3d.Transform3D;
 import javax.media.j3d.TransformGroup;
 import javax.media.j3d.TransparencyAttributes;
+import javax.media.j3d.TriangleArray;
+import javax.media.j3d.TriangleStripArray;
 import javax.vecmath.Color3f;
 import javax.vecmath.Vector3f;
 import spf.SpfApplication;
+import spf.jfr.SpfObjLoadEvent;
 import spf.xml.SpfXmlNode;
 
 /**
@@ -41,6 +45,8 @@ public class SpfWavefrontObj extends SpfObject {
 	/// Mapa de apariencias: nombre_material --> apariencia_material
 	private HashMap<String, Appearance> m_ObjApp;
 	private Node m_Node;
+	/// Texturas obtenidas de la cache compartida
+	private List<SpfTextureCache.Entry> m_Textures = new ArrayList<SpfTextureCache.Entry>();
 	
 	/**
 	 * Contructor de SpfWavefrontObj.
@@ -72,24 +78,9 @@ public class SpfWavefrontObj extends SpfObject {
 	 * @return Devuelve un nodo con el modelo leido.
 	 */
 	public Node load(SpfXmlNode node) {
-		ObjectFile obj = new ObjectFile(ObjectFile.RESIZE | ObjectFile.STRIPIFY);
-		String filename = node.getAttribute("filename");
-		Scene scn = null;
-		try {
-			scn = obj.load(m_BasePath + filename);
-			loadMaterials(filename);
-			// Si esta especificado el fichero de
-			// materiales, cargarlo
-			String matlib = node.getAttribute("matlib");
-			if (matlib.length() > 0) {
-				loadAppearances(matlib);
-				setSceneAppearance(scn);
-			}
-		} catch (Exception e) {
+		Scene scn = loadScene(node.getAttribute("filename"), node.getAttribute("matlib"));
+		if (scn == null)
 			return null;
-		}
-		m_ObjApp = null;
-		m_ObjMat = null;
 		m_Node = scn.getSceneGroup();
 		
 		Vector3f position = new Vector3f();
@@ -109,6 +100,31 @@ public class SpfWavefrontObj extends SpfObject {
 	 * @return
 	 */
 	public Node load (String filename, String matlib) {
+		Scene scn = loadScene(filename, matlib);
+		if (scn == null)
+			return null;
+		m_Node = scn.getSceneGroup();
+		
+		if (m_Model != null) {
+			Vector3f position = new Vector3f();
+			Transform3D t3d = new Transform3D();
+			m_Model.getTransform(t3d);
+			t3d.get(position);
+			position.get(m_Position);
+		}
+		
+		return m_Node;
+	}
+
+	/**
+	 * Carga el modelo y, si esta especificado, su fichero de materiales.
+	 * @param filename Nombre del fichero OBJ.
+	 * @param matlib Nombre del fichero MTL (cadena vacia si no hay).
+	 * @return Devuelve la escena cargada o null si hay algun error.
+	 */
+	private Scene loadScene (String filename, String matlib) {
+		SpfObjLoadEvent event = new SpfObjLoadEvent();
+		event.begin();
 		ObjectFile obj = new ObjectFile(ObjectFile.RESIZE | ObjectFile.STRIPIFY);
 		Scene scn = null;
 		try {
@@ -119,21 +135,55 @@ public class SpfWavefrontObj extends SpfObject {
 				setSceneAppearance(scn);
 			}
 		} catch (Exception e) {
-			return null;
+			scn = null;
 		}
 		m_ObjApp = null;
 		m_ObjMat = null;
-		m_Node = scn.getSceneGroup();
-		
-		if (m_Model != null) {
-			Vector3f position = new Vector3f();
-			Transform3D t3d = new Transform3D();
-			m_Model.getTransform(t3d);
-			t3d.get(position);
-			position.get(m_Position);
+		event.end();
+		if (event.shouldCommit()) {
+			int triangles = scn == null ? 0 : countTriangles(scn.getSceneGroup());
+			event.setModel(filename, new File(m_BasePath + filename).length(), 
+					triangles, scn != null);
+			event.commit();
 		}
-		
-		return m_Node;
+		return scn;
+	}
+	
+	/**
+	 * Cuenta los triangulos de la geometria de un nodo.
+	 * @param node Nodo de la escena.
+	 * @return Devuelve el numero de triangulos.
+	 */
+	private static int countTriangles (Node node) {
+		int triangles = 0;
+		if (node instanceof Group) {
+			Group group = (Group)node;
+			for (int i = 0; i < group.numChildren(); i++)
+				triangles += countTriangles(group.getChild(i));
+		} else if (node instanceof Shape3D) {
+			Shape3D shape = (Shape3D)node;
+			for (int i = 0; i < shape.numGeometries(); i++) {
+				Geometry geometry = shape.getGeometry(i);
+				if (geometry instanceof TriangleStripArray) {
+					TriangleStripArray strips = (TriangleStripArray)geometry;
+					int[] counts = new int[strips.getNumStrips()];
+					strips.getStripVertexCounts(counts);
+					for (int s = 0; s < counts.length; s++)
+						triangles += Math.max(0, counts[s] - 2);
+				} else if (geometry instanceof IndexedTriangleStripArray) {
+					IndexedTriangleStripArray strips = (IndexedTriangleStripArray)geometry;
+					int[] counts = new int[strips.getNumStrips()];
+					strips.getStripIndexCounts(counts);
+					for (int s = 0; s < counts.length; s++)
+						triangles += Math.max(0, counts[s] - 2);
+				} else if (geometry instanceof IndexedTriangleArray) {
+					triangles += ((IndexedTriangleArray)geometry).getIndexCount() / 3;
+				} else if (geometry instanceof TriangleArray) {
+					triangles += ((TriangleArray)geometry).getVertexCount() / 3;
+				}
+			}
+		}
+		return triangles;
 	}
 
 	/**
@@ -292,7 +342,7 @@ public class SpfWavefrontObj extends SpfObject {
 	}
 
 	/**
-	 * Carga una textura.
+	 * Carga una textura desde la cache compartida.
 	 * @param app Apariencia para establecer la textura.
 	 * @param filename Nombre del fichero de la textura.
 	 */
@@ -301,53 +351,23 @@ public class SpfWavefrontObj extends SpfObject {
 		
 		File file = new File(path);
 		if (!file.exists()) return;
-		String extension = filename.substring(filename.lastIndexOf('.')).toLowerCase();
-		int flags;
-		String format;
-		if (extension.endsWith(".png") || extension.endsWith(".gif")) {
-			flags = Texture.RGBA;
-			format = "RGBA";
-		} else {
-			flags = Texture.RGB;
-			format = "RGB";
-		}
-		
-		TextureLoader loader = 
-				new TextureLoader(
-					path, 
-					format, 
-					TextureLoader.GENERATE_MIPMAP, 
-					m_Canvas3D);
-		ImageComponent2D image = loader.getImage();
-		int imageWidth = image.getWidth();
-		int imageHeight = image.getHeight();
-		int imageLevel = 0;
+		SpfTextureCache.Entry texture = SpfTextureCache.getInstance().acquire(
+				path, Texture.FASTEST, Texture.FASTEST, m_Canvas3D);
+		m_Textures.add(texture);
 		
-		// Generar mipmaps
-		Texture2D texture = 
-					new Texture2D(
-						Texture.MULTI_LEVEL_MIPMAP,
-						flags,
-						imageWidth, imageHeight);
-		texture.setImage(imageLevel, image);
-		// Ejecutar hasta tamaño 1x1
-		while (imageWidth > 1 || imageHeight > 1) {
-			imageLevel++;
-
-			if (imageWidth > 1) imageWidth = imageWidth >> 1;
-			if (imageHeight > 1) imageHeight = imageHeight >> 1;
-
-			image = loader.getScaledImage(imageWidth, imageHeight);
-			texture.setImage(imageLevel, image);
-		}
-		texture.setMagFilter(Texture.FASTEST);
-		texture.setMinFilter(Texture.FASTEST);
-		
-		TextureAttributes texAtt = new TextureAttributes();
-		texAtt.setTextureMode(TextureAttributes.MODULATE);
-		
-		app.setTexture(texture);
-		app.setTextureAttributes(texAtt);
+		app.setTexture(texture.getTexture());
+		app.setTextureAttributes(texture.getAttributes());
+	}
+	
+	/**
+	 * Libera las texturas del modelo en la cache compartida.
+	 */
+	@Override
+	public void release () {
+		super.release();
+		for (SpfTextureCache.Entry texture : m_Textures)
+			SpfTextureCache.getInstance().release(texture);
+		m_Textures.clear();
 	}
 
 	/**
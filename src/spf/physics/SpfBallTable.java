@@ -0,0 +1,461 @@
+package spf.physics;
+
+import static spf.physics.SpfPhysicsConstants.*;
+
+/**
+ * Estado de las bolas de la mesa almacenado como estructura de arrays.
+ * Cada componente se guarda en un array contiguo de tipo primitivo
+ * indexado por el identificador de la bola, de forma que el integrador
+ * y la deteccion de colisiones recorren la memoria de forma lineal.
+ * @author Sergio Paque Martin
+ */
+public class SpfBallTable {
+	/// Coeficiente de rozamiento del movimiento lineal
+	public static final float RollingDrag = 0.05f;
+	/// Velocidad al cuadrado por debajo de la cual la bola se detiene
+	public static final float RestSpeedSq = 0.0001f;
+	
+	private int m_Count;
+	private float[] m_Mass;
+	private float[] m_Radius;
+	private float[] m_InertiaTensor;
+	/// Vectores de estado indexados como [eje][bola]
+	private float[][] m_Position;
+	private float[][] m_Velocity;
+	private float[][] m_Force;
+	private float[][] m_AngularVelocity;
+	private float[][] m_Angle;
+	private float[][] m_Torque;
+	/// Desplazamiento previsto de cada bola en el paso actual
+	private float[][] m_Sweep;
+
+	private float[] m_MinCoord = new float[] {-2.2f, -0.82f, -1.15f};
+	private float[] m_MaxCoord = new float[] {2.2f, -0.82f, 1.15f};
+	private float m_Restitution = BallRestitution;
+	private float m_TimeStep = PhysicsStep;
+
+	/**
+	 * Constructor de SpfBallTable.
+	 * @param capacity Numero de bolas previsto.
+	 */
+	public SpfBallTable (int capacity) {
+		if (capacity < 1) capacity = 1;
+		m_Mass = new float[capacity];
+		m_Radius = new float[capacity];
+		m_InertiaTensor = new float[capacity];
+		m_Position = new float[3][capacity];
+		m_Velocity = new float[3][capacity];
+		m_Force = new float[3][capacity];
+		m_AngularVelocity = new float[3][capacity];
+		m_Angle = new float[3][capacity];
+		m_Torque = new float[3][capacity];
+		m_Sweep = new float[3][capacity];
+	}
+
+	/**
+	 * Añade una bola en reposo a la mesa.
+	 * @param x Posicion en el eje X.
+	 * @param y Posicion en el eje Y.
+	 * @param z Posicion en el eje Z.
+	 * @param radius Radio de la bola.
+	 * @param mass Masa de la bola.
+	 * @return Devuelve el identificador de la bola.
+	 */
+	public int addBall (float x, float y, float z, float radius, float mass) {
+		if (m_Count == m_Mass.length)
+			grow(m_Count * 2);
+		int id = m_Count++;
+		m_Mass[id] = mass;
+		m_Radius[id] = radius;
+		// Calcular el momento de inercia de la esfera
+		m_InertiaTensor[id] = 0.4f * mass * radius * radius;
+		m_Position[0][id] = x;
+		m_Position[1][id] = y;
+		m_Position[2][id] = z;
+		return id;
+	}
+
+	/**
+	 * Copia el estado completo de una bola de otra mesa.
+	 * @param table Mesa de origen.
+	 * @param src Identificador de la bola en la mesa de origen.
+	 * @return Devuelve el identificador de la bola en esta mesa.
+	 */
+	public int addBall (SpfBallTable table, int src) {
+		int id = addBall(0, 0, 0, table.m_Radius[src], table.m_Mass[src]);
+		for (int i = 0; i < 3; i++) {
+			m_Position[i][id] = table.m_Position[i][src];
+			m_Velocity[i][id] = table.m_Velocity[i][src];
+			m_Force[i][id] = table.m_Force[i][src];
+			m_AngularVelocity[i][id] = table.m_AngularVelocity[i][src];
+			m_Angle[i][id] = table.m_Angle[i][src];
+			m_Torque[i][id] = table.m_Torque[i][src];
+		}
+		return id;
+	}
+
+	/**
+	 * Crea una copia independiente de la mesa con el estado
+	 * de todas las bolas y los parametros de simulacion.
+	 * @return Devuelve la copia de la mesa.
+	 */
+	public SpfBallTable copy () {
+		SpfBallTable table = new SpfBallTable(m_Count);
+		for (int i = 0; i < m_Count; i++)
+			table.addBall(this, i);
+		table.m_MinCoord = m_MinCoord.clone();
+		table.m_MaxCoord = m_MaxCoord.clone();
+		table.m_Restitution = m_Restitution;
+		table.m_TimeStep = m_TimeStep;
+		return table;
+	}
+
+	/**
+	 * Amplia la capacidad de los arrays de estado.
+	 * @param capacity Nueva capacidad.
+	 */
+	private void grow (int capacity) {
+		m_Mass = copyOf(m_Mass, capacity);
+		m_Radius = copyOf(m_Radius, capacity);
+		m_InertiaTensor = copyOf(m_InertiaTensor, capacity);
+		for (int i = 0; i < 3; i++) {
+			m_Position[i] = copyOf(m_Position[i], capacity);
+			m_Velocity[i] = copyOf(m_Velocity[i], capacity);
+			m_Force[i] = copyOf(m_Force[i], capacity);
+			m_AngularVelocity[i] = copyOf(m_AngularVelocity[i], capacity);
+			m_Angle[i] = copyOf(m_Angle[i], capacity);
+			m_Torque[i] = copyOf(m_Torque[i], capacity);
+			m_Sweep[i] = copyOf(m_Sweep[i], capacity);
+		}
+	}
+
+	private static float[] copyOf (float[] array, int length) {
+		float[] copy = new float[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+
+	/**
+	 * @return Devuelve el numero de bolas de la mesa.
+	 */
+	public int getCount () {
+		return m_Count;
+	}
+
+	/**
+	 * @param id Identificador de la bola.
+	 * @return Devuelve el radio de la bola.
+	 */
+	public float getRadius (int id) {
+		return m_Radius[id];
+	}
+
+	/**
+	 * @param id Identificador de la bola.
+	 * @return Devuelve la masa de la bola.
+	 */
+	public float getMass (int id) {
+		return m_Mass[id];
+	}
+
+	/**
+	 * @return Devuelve las masas de todas las bolas.
+	 */
+	public float[] getMasses () {
+		return m_Mass;
+	}
+
+	/**
+	 * @return Devuelve los radios de todas las bolas.
+	 */
+	public float[] getRadii () {
+		return m_Radius;
+	}
+
+	/**
+	 * @return Devuelve las posiciones de las bolas como [eje][bola].
+	 */
+	public float[][] getPositions () {
+		return m_Position;
+	}
+
+	/**
+	 * @return Devuelve las velocidades de las bolas como [eje][bola].
+	 */
+	public float[][] getVelocities () {
+		return m_Velocity;
+	}
+
+	/**
+	 * @return Devuelve las fuerzas aplicadas a las bolas como [eje][bola].
+	 */
+	public float[][] getForces () {
+		return m_Force;
+	}
+
+	/**
+	 * @return Devuelve las velocidades angulares como [eje][bola].
+	 */
+	public float[][] getAngularVelocities () {
+		return m_AngularVelocity;
+	}
+
+	/**
+	 * @return Devuelve los angulos de rotacion como [eje][bola].
+	 */
+	public float[][] getAngles () {
+		return m_Angle;
+	}
+
+	/**
+	 * @return Devuelve el desplazamiento previsto de las bolas en el
+	 * paso actual como [eje][bola], calculado con updateSweep.
+	 */
+	public float[][] getSweeps () {
+		return m_Sweep;
+	}
+
+	/**
+	 * @return Devuelve el paso de integracion en segundos.
+	 */
+	public float getTimeStep () {
+		return m_TimeStep;
+	}
+
+	/**
+	 * Establece el paso de integracion.
+	 * @param timeStep Paso de integracion en segundos.
+	 */
+	public void setTimeStep (float timeStep) {
+		m_TimeStep = timeStep;
+	}
+
+	/**
+	 * @return Devuelve el coeficiente de restitucion de los choques.
+	 */
+	public float getRestitution () {
+		return m_Restitution;
+	}
+
+	/**
+	 * Establece el coeficiente de restitucion de los choques.
+	 * @param restitution Coeficiente entre 0 y 1.
+	 */
+	public void setRestitution (float restitution) {
+		m_Restitution = restitution;
+	}
+
+	/**
+	 * @return Devuelve el limite inferior de la mesa en cada eje.
+	 */
+	public float[] getMinCoord () {
+		return m_MinCoord;
+	}
+
+	/**
+	 * @return Devuelve el limite superior de la mesa en cada eje.
+	 */
+	public float[] getMaxCoord () {
+		return m_MaxCoord;
+	}
+
+	// </editor-fold>
+
+	/**
+	 * Aplica una fuerza a una bola.
+	 * @param id Identificador de la bola.
+	 * @param fx Fuerza en el eje X.
+	 * @param fy Fuerza en el eje Y.
+	 * @param fz Fuerza en el eje Z.
+	 */
+	public void applyForce (int id, float fx, float fy, float fz) {
+		m_Force[0][id] = fx;
+		m_Force[1][id] = fy;
+		m_Force[2][id] = fz;
+	}
+
+	/**
+	 * @param id Identificador de la bola.
+	 * @return Devuelve si la bola esta en movimiento.
+	 */
+	public boolean isMoving (int id) {
+		float vx = m_Velocity[0][id];
+		float vy = m_Velocity[1][id];
+		float vz = m_Velocity[2][id];
+		return vx*vx + vy*vy + vz*vz >= RestSpeedSq;
+	}
+
+	/**
+	 * Calcula el desplazamiento que tendra una bola en el siguiente
+	 * paso, con la misma formula que el integrador. Las fases amplia
+	 * y estrecha lo usan para detectar colisiones a lo largo de todo
+	 * el paso y no solo en su inicio.
+	 * @param id Identificador de la bola.
+	 */
+	public void updateSweep (int id) {
+		float dt = m_TimeStep;
+		float mass = m_Mass[id];
+		for (int i = 0; i < 3; i++) {
+			float velocity = m_Velocity[i][id];
+			float friction = -RollingDrag * mass * G * velocity;
+			float L = dt * (m_Force[i][id] + friction) / mass;
+			m_Sweep[i][id] = dt * (velocity + L/2);
+		}
+	}
+
+	/**
+	 * Actualiza el estado de una bola, tanto del
+	 * movimiento lineal como del movimiento angular.
+	 * @param id Identificador de la bola.
+	 * @return Devuelve una mascara con los ejes en los
+	 * que la bola ha chocado con una banda.
+	 */
+	public int updateState (int id) {
+		// Actualizar movimiento lineal
+		int cushions = updateLinearState(id);
+
+		float radius = m_Radius[id];
+		float wx = m_AngularVelocity[0][id];
+		float wz = m_AngularVelocity[2][id];
+		// Calcular velocidad en el perimetro de la esfera, siendo
+		// r = (0, -radio, 0) el vector desde el punto de contacto
+		// con el suelo hasta el centro de la esfera.
+		float px = wz * radius + m_Velocity[0][id];
+		float py = m_Velocity[1][id];
+		float pz = -wx * radius + m_Velocity[2][id];
+		float lengthSq = px*px + py*py + pz*pz;
+		if (lengthSq != 0) {
+			// Beware of Nan!!!
+			float length = (float)Math.sqrt(lengthSq);
+			px /= length;
+			py /= length;
+			pz /= length;
+		}
+
+		// Calcular fuerza de rozamiento de la esfera con el tapete
+		float scale = -Friction * m_Mass[id] * radius * G;
+		float fx = scale * px;
+		float fz = scale * pz;
+		// Calcular torsion de la esfera (r x fuerza)
+		m_Torque[0][id] = -radius * fz * 100;
+		m_Torque[1][id] = 0;
+		m_Torque[2][id] = radius * fx * 100;
+		updateAngularState(id);
+
+		// Resetear valores a 0 para evitar acumulacion de errores
+		if (!isMoving(id)) {
+			for (int i = 0; i < 3; i++) {
+				m_Velocity[i][id] = 0;
+				m_AngularVelocity[i][id] = 0;
+			}
+		}
+		return cushions;
+	}
+
+	/**
+	 * Actualiza el estado de una bola (movimiento lineal).
+	 * @param id Identificador de la bola.
+	 * @return Devuelve una mascara con los ejes en los
+	 * que la bola ha chocado con una banda.
+	 */
+	private int updateLinearState (int id) {
+		float dt = m_TimeStep;
+		float mass = m_Mass[id];
+		float K1, K23, K4;
+		// L1 = L2 = L3 = L4
+		float L;
+		float deltap;
+		int cushions = 0;
+
+		for (int i = 0; i < 3; i++) {
+			float[] velocity = m_Velocity[i];
+			float[] position = m_Position[i];
+			// Funcion f para Runge-Kutta con la fuerza de friccion
+			float friction = -RollingDrag * mass * G * velocity[id];
+			L = dt * (m_Force[i][id] + friction) / mass;
+			K1 = dt * velocity[id];
+			K23 = dt * (velocity[id] + L/2);
+			K4 = dt * (velocity[id] + L);
+			deltap = (K1 + 4*K23 + K4) / 6;
+			velocity[id] += L;
+			float next = position[id] + deltap;
+			if (next > m_MinCoord[i] && next < m_MaxCoord[i]) {
+				position[id] = next;
+			} else {
+				if (velocity[id] != 0) cushions |= 1 << i;
+				velocity[id] *= -1;
+				// Reflejar la parte del desplazamiento que atraviesa la
+				// banda, de forma que la bola rebota en el instante del
+				// contacto aunque recorra mucha distancia en un paso.
+				float bound = next <= m_MinCoord[i] ? m_MinCoord[i] : m_MaxCoord[i];
+				next = 2 * bound - next;
+				position[id] = Math.max(m_MinCoord[i], Math.min(m_MaxCoord[i], next));
+			}
+		}
+		return cushions;
+	}
+
+	/**
+	 * Actualiza el estado de una bola (movimiento angular).
+	 * @param id Identificador de la bola.
+	 */
+	private void updateAngularState (int id) {
+		float dt = m_TimeStep;
+		float inertia = m_InertiaTensor[id];
+		// K2 = K3
+		float K1, K23, K4;
+		// L1 = L2 = L3 = L4
+		float L;
+
+		for (int i = 0; i < 3; i++) {
+			float[] angularVelocity = m_AngularVelocity[i];
+			L = dt * m_Torque[i][id] / inertia;
+			K1 = dt * angularVelocity[id];
+			K23 = dt * (angularVelocity[id] + L/2);
+			K4 = dt * (angularVelocity[id] + L);
+			m_Angle[i][id] += (K1 + 4*K23 + K4) /6;
+			angularVelocity[id] = (angularVelocity[id] + L) * 0.98f;
+		}
+	}
+
+	/**
+	 * Resuelve un contacto entre dos bolas aplicando impulsos
+	 * iguales y opuestos a lo largo de la normal de contacto, con el
+	 * coeficiente de restitucion de la mesa (por defecto,
+	 * SpfPhysicsConstants.BallRestitution). Lo usan los dos motores.
+	 * @param a Primera bola.
+	 * @param b Segunda bola.
+	 * @param nx Normal de contacto de a hacia b en el eje X (sin normalizar).
+	 * @param ny Normal de contacto de a hacia b en el eje Y (sin normalizar).
+	 * @param nz Normal de contacto de a hacia b en el eje Z (sin normalizar).
+	 * @return Devuelve si las bolas se acercaban y se aplico el impulso.
+	 */
+	public boolean resolveContact (int a, int b, float nx, float ny, float nz) {
+		float length = (float)Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if (length == 0) return false;
+		nx /= length;
+		ny /= length;
+		nz /= length;
+
+		float approach = (m_Velocity[0][b] - m_Velocity[0][a]) * nx +
+				(m_Velocity[1][b] - m_Velocity[1][a]) * ny +
+				(m_Velocity[2][b] - m_Velocity[2][a]) * nz;
+		if (approach >= 0) return false;
+
+		// El vector desde el centro de la esfera hasta la superficie
+		// de contacto es paralelo a la normal, por lo que los terminos
+		// angulares del denominador del impulso se anulan.
+		float impulse = (1 + m_Restitution) * approach / (1/m_Mass[a] + 1/m_Mass[b]);
+		float scaleA = impulse / m_Mass[a];
+		float scaleB = impulse / m_Mass[b];
+		m_Velocity[0][a] += nx * scaleA;
+		m_Velocity[1][a] += ny * scaleA;
+		m_Velocity[2][a] += nz * scaleA;
+		m_Velocity[0][b] -= nx * scaleB;
+		m_Velocity[1][b] -= ny * scaleB;
+		m_Velocity[2][b] -= nz * scaleB;
+		return true;
+	}
+}
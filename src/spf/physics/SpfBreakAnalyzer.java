@@ -0,0 +1,224 @@
+package spf.physics;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Analisis de Monte Carlo del tiro de salida. Cada tiro parte de la
+ * misma mesa con una pequeña perturbacion aleatoria de la direccion
+ * del tiro, de su fuerza y de la colocacion de las bolas de color.
+ * Los tiros se reparten entre todos los nucleos con un ForkJoinPool
+ * y cada tarea acumula sus propias estadisticas, que se combinan al
+ * terminar.
+ * <p>
+ * La perturbacion de cada tiro depende solo de la semilla y del
+ * numero del tiro, por lo que los resultados no dependen del numero
+ * de hilos.
+ * @author Sergio Paque Martin
+ */
+public class SpfBreakAnalyzer {
+	/// Tiros por tarea sin dividir
+	private static final int TaskSize = 64;
+	/// Pasadas para separar las bolas solapadas tras la perturbacion
+	private static final int RelaxPasses = 8;
+
+	private SpfBallTable m_Rack;
+	private int m_Cue;
+	private float m_DirX;
+	private float m_DirZ;
+	private float m_Force = 750;
+	private float m_AngleJitter = (float)Math.toRadians(0.5);
+	private float m_ForceJitter = 0.02f;
+	private float m_RackJitter = 0.002f;
+	private long m_Seed;
+	private boolean m_EventEngine;
+
+	/// Motor de cada hilo, ya que los motores no pueden compartirse
+	private ThreadLocal<SpfPhysicsEngine> m_Engines = new ThreadLocal<SpfPhysicsEngine>() {
+		@Override
+		protected SpfPhysicsEngine initialValue () {
+			return m_EventEngine ? new SpfEventEngine() : new SpfSteppedEngine();
+		}
+	};
+
+	/**
+	 * Constructor de SpfBreakAnalyzer. La direccion del tiro va de
+	 * la bola golpeada a la bola de color mas cercana.
+	 * @param rack Mesa con las bolas en su posicion de salida.
+	 * @param cue Bola golpeada.
+	 */
+	public SpfBreakAnalyzer (SpfBallTable rack, int cue) {
+		m_Rack = rack;
+		m_Cue = cue;
+		float[][] position = rack.getPositions();
+		float best = Float.MAX_VALUE;
+		for (int i = 0; i < rack.getCount(); i++) {
+			if (i == cue) continue;
+			float dx = position[0][i] - position[0][cue];
+			float dz = position[2][i] - position[2][cue];
+			float distance = (float)Math.sqrt(dx * dx + dz * dz);
+			if (distance > 0 && distance < best) {
+				best = distance;
+				m_DirX = dx / distance;
+				m_DirZ = dz / distance;
+			}
+		}
+	}
+
+	/**
+	 * Simula una serie de tiros.
+	 * @param first Numero del primer tiro.
+	 * @param count Numero de tiros.
+	 * @param pool Pool donde se ejecutan los tiros.
+	 * @return Devuelve las estadisticas de los tiros.
+	 */
+	public SpfBreakStats run (long first, int count, ForkJoinPool pool) {
+		return pool.invoke(new BreakTask(first, count));
+	}
+
+	/**
+	 * Simula un tiro.
+	 * @param shot Numero del tiro.
+	 * @param stats Estadisticas donde se añade el resultado.
+	 */
+	private void simulate (long shot, SpfBreakStats stats) {
+		Random random = new Random(m_Seed + shot * 0x9E3779B97F4A7C15L);
+		SpfBallTable table = m_Rack.copy();
+		perturbRack(table, random);
+
+		float angle = (float)random.nextGaussian() * m_AngleJitter;
+		float cos = (float)Math.cos(angle);
+		float sin = (float)Math.sin(angle);
+		float force = m_Force * (1 + (float)random.nextGaussian() * m_ForceJitter);
+		float dirX = m_DirX * cos - m_DirZ * sin;
+		float dirZ = m_DirX * sin + m_DirZ * cos;
+
+		SpfBallTable start = table.copy();
+		SpfShotOutcome outcome = new SpfShotOutcome();
+		m_Engines.get().simulateShot(table, m_Cue, dirX * force, 0, dirZ * force, outcome);
+		outcome.finish(table);
+		stats.add(start, m_Cue, outcome);
+	}
+
+	/**
+	 * Desplaza al azar las bolas de color en el plano XZ y
+	 * despues separa las que hayan quedado solapadas.
+	 * @param table Mesa de bolas.
+	 * @param random Generador de numeros aleatorios del tiro.
+	 */
+	private void perturbRack (SpfBallTable table, Random random) {
+		if (m_RackJitter <= 0) return;
+		float[][] position = table.getPositions();
+		int count = table.getCount();
+		for (int i = 0; i < count; i++) {
+			if (i == m_Cue) continue;
+			position[0][i] += (float)random.nextGaussian() * m_RackJitter;
+			position[2][i] += (float)random.nextGaussian() * m_RackJitter;
+		}
+		for (int pass = 0; pass < RelaxPasses; pass++) {
+			boolean overlap = false;
+			for (int i = 0; i < count; i++) {
+				for (int j = i + 1; j < count; j++) {
+					float dx = position[0][j] - position[0][i];
+					float dz = position[2][j] - position[2][i];
+					float minimum = table.getRadius(i) + table.getRadius(j);
+					float distanceSq = dx * dx + dz * dz;
+					if (distanceSq >= minimum * minimum || distanceSq == 0) continue;
+					float distance = (float)Math.sqrt(distanceSq);
+					float push = (minimum - distance) * 0.5f / distance;
+					position[0][i] -= dx * push;
+					position[2][i] -= dz * push;
+					position[0][j] += dx * push;
+					position[2][j] += dz * push;
+					overlap = true;
+				}
+			}
+			if (!overlap) break;
+		}
+	}
+
+	/**
+	 * Tarea que simula un rango de tiros, dividiendolo
+	 * mientras sea mayor que TaskSize.
+	 */
+	private class BreakTask extends RecursiveTask<SpfBreakStats> {
+		private long m_First;
+		private int m_Count;
+
+		public BreakTask (long first, int count) {
+			m_First = first;
+			m_Count = count;
+		}
+
+		@Override
+		protected SpfBreakStats compute () {
+			if (m_Count <= TaskSize) {
+				SpfBreakStats stats = new SpfBreakStats(m_Rack.getCount());
+				for (int i = 0; i < m_Count; i++)
+					simulate(m_First + i, stats);
+				return stats;
+			}
+			int half = m_Count / 2;
+			BreakTask right = new BreakTask(m_First + half, m_Count - half);
+			right.fork();
+			SpfBreakStats stats = new BreakTask(m_First, half).compute();
+			stats.merge(right.join());
+			return stats;
+		}
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+
+	/**
+	 * @return Devuelve la fuerza media del tiro.
+	 */
+	public float getForce () {
+		return m_Force;
+	}
+
+	/**
+	 * @param force Fuerza media del tiro.
+	 */
+	public void setForce (float force) {
+		m_Force = force;
+	}
+
+	/**
+	 * @param degrees Desviacion tipica de la direccion del tiro en grados.
+	 */
+	public void setAngleJitter (float degrees) {
+		m_AngleJitter = (float)Math.toRadians(degrees);
+	}
+
+	/**
+	 * @param jitter Desviacion tipica relativa de la fuerza del tiro.
+	 */
+	public void setForceJitter (float jitter) {
+		m_ForceJitter = jitter;
+	}
+
+	/**
+	 * @param jitter Desviacion tipica de la colocacion de las bolas de color.
+	 */
+	public void setRackJitter (float jitter) {
+		m_RackJitter = jitter;
+	}
+
+	/**
+	 * @param seed Semilla de las perturbaciones.
+	 */
+	public void setSeed (long seed) {
+		m_Seed = seed;
+	}
+
+	/**
+	 * Selecciona el motor de simulacion. Debe llamarse antes de run.
+	 * @param event Usar el motor por eventos en lugar del motor por pasos.
+	 */
+	public void setEventEngine (boolean event) {
+		m_EventEngine = event;
+	}
+
+	// </editor-fold>
+}
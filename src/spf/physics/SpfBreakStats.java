@@ -0,0 +1,239 @@
+package spf.physics;
+
+import java.io.PrintStream;
+
+/**
+ * Estadisticas acumuladas de una serie de tiros de salida. Cada
+ * hilo rellena sus propias estadisticas y despues se combinan.
+ * @author Sergio Paque Martin
+ */
+public class SpfBreakStats {
+	private SpfRunningStats m_Spread = new SpfRunningStats();
+	private SpfRunningStats m_Cushions = new SpfRunningStats();
+	private SpfRunningStats m_Collisions = new SpfRunningStats();
+	private SpfRunningStats m_Displaced = new SpfRunningStats();
+	private SpfRunningStats m_Cluster = new SpfRunningStats();
+	private SpfRunningStats m_RestTime = new SpfRunningStats();
+	/// Posicion final de cada bola como [bola][eje X o Z]
+	private SpfRunningStats[][] m_Position;
+	
+	/**
+	 * Constructor de SpfBreakStats.
+	 * @param balls Numero de bolas de la mesa.
+	 */
+	public SpfBreakStats (int balls) {
+		m_Position = new SpfRunningStats[balls][2];
+		for (int i = 0; i < balls; i++) {
+			m_Position[i][0] = new SpfRunningStats();
+			m_Position[i][1] = new SpfRunningStats();
+		}
+	}
+	
+	/**
+	 * Añade el resultado de un tiro.
+	 * @param rack Mesa antes del tiro.
+	 * @param cue Bola golpeada.
+	 * @param outcome Resultado del tiro.
+	 */
+	public void add (SpfBallTable rack, int cue, SpfShotOutcome outcome) {
+		int balls = outcome.getBallCount();
+		float[][] start = rack.getPositions();
+		float radius = rack.getRadius(cue);
+		
+		int cushions = 0;
+		int collisions = 0;
+		for (int e = 0; e < outcome.getEventCount(); e++) {
+			int type = outcome.getEventType(e);
+			if (type == SpfShotTimeline.CushionCollision) cushions++;
+			else if (type == SpfShotTimeline.BallCollision) collisions++;
+		}
+		
+		// Dispersion: distancia cuadratica media de las
+		// bolas de color a su centro en el plano XZ
+		double cx = 0, cz = 0;
+		int displaced = 0;
+		for (int i = 0; i < balls; i++) {
+			float x = outcome.getFinalPosition(i, 0);
+			float z = outcome.getFinalPosition(i, 2);
+			m_Position[i][0].add(x);
+			m_Position[i][1].add(z);
+			if (i == cue) continue;
+			cx += x;
+			cz += z;
+			double dx = x - start[0][i];
+			double dz = z - start[2][i];
+			if (dx * dx + dz * dz > radius * radius) displaced++;
+		}
+		int others = balls - 1;
+		cx /= others;
+		cz /= others;
+		double spread = 0;
+		for (int i = 0; i < balls; i++) {
+			if (i == cue) continue;
+			double dx = outcome.getFinalPosition(i, 0) - cx;
+			double dz = outcome.getFinalPosition(i, 2) - cz;
+			spread += dx * dx + dz * dz;
+		}
+		
+		m_Spread.add(Math.sqrt(spread / others));
+		m_Cushions.add(cushions);
+		m_Collisions.add(collisions);
+		m_Displaced.add(displaced);
+		m_Cluster.add(largestCluster(outcome, cue, radius));
+		m_RestTime.add(outcome.getDuration());
+	}
+	
+	/**
+	 * Calcula el mayor grupo de bolas de color que siguen en
+	 * contacto (o casi) despues del tiro.
+	 * @param outcome Resultado del tiro.
+	 * @param cue Bola golpeada, que no se cuenta.
+	 * @param radius Radio de las bolas.
+	 * @return Devuelve el numero de bolas del mayor grupo.
+	 */
+	private static int largestCluster (SpfShotOutcome outcome, int cue, float radius) {
+		int balls = outcome.getBallCount();
+		int[] parent = new int[balls];
+		for (int i = 0; i < balls; i++) parent[i] = i;
+		float limit = 2.2f * radius;
+		for (int i = 0; i < balls; i++) {
+			if (i == cue) continue;
+			for (int j = i + 1; j < balls; j++) {
+				if (j == cue) continue;
+				float dx = outcome.getFinalPosition(i, 0) - outcome.getFinalPosition(j, 0);
+				float dz = outcome.getFinalPosition(i, 2) - outcome.getFinalPosition(j, 2);
+				if (dx * dx + dz * dz < limit * limit)
+					parent[find(parent, i)] = find(parent, j);
+			}
+		}
+		int[] size = new int[balls];
+		int largest = 0;
+		for (int i = 0; i < balls; i++) {
+			if (i == cue) continue;
+			int root = find(parent, i);
+			largest = Math.max(largest, ++size[root]);
+		}
+		return largest;
+	}
+	
+	private static int find (int[] parent, int id) {
+		while (parent[id] != id) {
+			parent[id] = parent[parent[id]];
+			id = parent[id];
+		}
+		return id;
+	}
+	
+	/**
+	 * Combina con las estadisticas de otra serie de tiros.
+	 * @param stats Estadisticas a combinar.
+	 */
+	public void merge (SpfBreakStats stats) {
+		m_Spread.merge(stats.m_Spread);
+		m_Cushions.merge(stats.m_Cushions);
+		m_Collisions.merge(stats.m_Collisions);
+		m_Displaced.merge(stats.m_Displaced);
+		m_Cluster.merge(stats.m_Cluster);
+		m_RestTime.merge(stats.m_RestTime);
+		for (int i = 0; i < m_Position.length; i++) {
+			m_Position[i][0].merge(stats.m_Position[i][0]);
+			m_Position[i][1].merge(stats.m_Position[i][1]);
+		}
+	}
+	
+	/**
+	 * Escribe un resumen de una linea.
+	 * @param out Salida.
+	 */
+	public void printSummary (PrintStream out) {
+		out.printf("tiros=%d dispersion=%.3f+-%.3f bandas=%.2f+-%.2f " +
+				"desplazadas=%.2f grupo=%.2f reposo=%.2f+-%.2fs%n",
+				getCount(), m_Spread.getMean(), m_Spread.getStdDev(),
+				m_Cushions.getMean(), m_Cushions.getStdDev(),
+				m_Displaced.getMean(), m_Cluster.getMean(),
+				m_RestTime.getMean(), m_RestTime.getStdDev());
+	}
+	
+	/**
+	 * Escribe el informe completo, con la posicion final de cada bola.
+	 * @param out Salida.
+	 * @param names Nombres de las bolas.
+	 */
+	public void printReport (PrintStream out, String[] names) {
+		out.println("Tiros:                " + getCount());
+		out.println("Dispersion (RMS):     " + m_Spread);
+		out.println("Choques con bandas:   " + m_Cushions);
+		out.println("Choques entre bolas:  " + m_Collisions);
+		out.println("Bolas desplazadas:    " + m_Displaced);
+		out.println("Mayor grupo:          " + m_Cluster);
+		out.println("Tiempo hasta reposo:  " + m_RestTime);
+		out.println("Posicion final (X, Z):");
+		for (int i = 0; i < m_Position.length; i++) {
+			out.printf("  %-12s %8.3f +- %.3f  %8.3f +- %.3f%n", names[i],
+					m_Position[i][0].getMean(), m_Position[i][0].getStdDev(),
+					m_Position[i][1].getMean(), m_Position[i][1].getStdDev());
+		}
+	}
+	
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+	
+	/**
+	 * @return Devuelve el numero de tiros.
+	 */
+	public long getCount () {
+		return m_RestTime.getCount();
+	}
+	
+	/**
+	 * @return Devuelve la dispersion de las bolas de color.
+	 */
+	public SpfRunningStats getSpread () {
+		return m_Spread;
+	}
+	
+	/**
+	 * @return Devuelve los choques con bandas por tiro.
+	 */
+	public SpfRunningStats getCushions () {
+		return m_Cushions;
+	}
+	
+	/**
+	 * @return Devuelve los choques entre bolas por tiro.
+	 */
+	public SpfRunningStats getCollisions () {
+		return m_Collisions;
+	}
+	
+	/**
+	 * @return Devuelve las bolas de color desplazadas por tiro.
+	 */
+	public SpfRunningStats getDisplaced () {
+		return m_Displaced;
+	}
+	
+	/**
+	 * @return Devuelve el tamaño del mayor grupo de bolas tras el tiro.
+	 */
+	public SpfRunningStats getCluster () {
+		return m_Cluster;
+	}
+	
+	/**
+	 * @return Devuelve el tiempo hasta que se detienen las bolas.
+	 */
+	public SpfRunningStats getRestTime () {
+		return m_RestTime;
+	}
+	
+	/**
+	 * @param ball Identificador de la bola.
+	 * @param axis 0 para el eje X, 1 para el eje Z.
+	 * @return Devuelve la posicion final de la bola en el eje.
+	 */
+	public SpfRunningStats getPosition (int ball, int axis) {
+		return m_Position[ball][axis];
+	}
+	
+	// </editor-fold>
+}
@@ -0,0 +1,42 @@
+package spf.physics;
+
+/**
+ * Interfaz para los algoritmos de fase amplia de la deteccion
+ * de colisiones. Una fase amplia descarta de forma rapida los
+ * pares de bolas que no pueden estar en contacto y devuelve
+ * solo los pares candidatos, que despues se comprueban de
+ * forma exacta.
+ * <p>
+ * La caja de cada bola incluye el desplazamiento previsto en el
+ * paso actual (SpfBallTable.getSweeps), de forma que tambien se
+ * devuelven las bolas rapidas que se cruzan durante el paso.
+ * @author Sergio Paque Martin
+ */
+public interface SpfBroadphase {
+	
+	/**
+	 * Calcula los pares de bolas candidatos a colisionar.
+	 * Cada par se devuelve una sola vez, con el menor
+	 * identificador en primer lugar.
+	 * @param table Mesa de bolas.
+	 * @param pairs Lista donde se guardan los pares candidatos.
+	 */
+	public void findPairs (SpfBallTable table, SpfPairList pairs);
+	
+	/**
+	 * Calcula los pares candidatos a colisionar dentro de un
+	 * subconjunto de las bolas de la mesa.
+	 * @param table Mesa de bolas.
+	 * @param ids Identificadores de las bolas del subconjunto.
+	 * @param count Numero de bolas del subconjunto.
+	 * @param pairs Lista donde se guardan los pares candidatos.
+	 */
+	public void findPairs (SpfBallTable table, int[] ids, int count, SpfPairList pairs);
+	
+	/**
+	 * Crea una fase amplia con la misma configuracion que esta
+	 * y sin estado, para usarla en otro motor.
+	 * @return Devuelve la nueva fase amplia.
+	 */
+	public SpfBroadphase copy ();
+}
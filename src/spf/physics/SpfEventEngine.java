@@ -0,0 +1,356 @@
+package spf.physics;
+
+import java.util.PriorityQueue;
+
+import static spf.physics.SpfPhysicsConstants.*;
+
+/**
+ * Motor de simulacion dirigido por eventos. Entre dos eventos el
+ * movimiento de cada bola tiene solucion cerrada: con el rozamiento
+ * lineal del modelo la velocidad decae como v(t) = v0 e^(-kt) y la
+ * posicion avanza p(t) = p0 + v0 (1 - e^(-kt)) / k. El motor calcula
+ * el instante exacto de cada choque entre bolas, choque con banda y
+ * parada, y salta de un evento al siguiente mediante una cola de
+ * prioridad en lugar de integrar pasos fijos.
+ * <p>
+ * El modelo de rozamiento del motor por pasos no acopla el giro de la
+ * bola con su movimiento lineal, por lo que no existe una transicion
+ * de deslizamiento a rodadura que afecte a la trayectoria. El giro se
+ * calcula suponiendo rodadura pura entre eventos.
+ * @author Sergio Paque Martin
+ */
+public class SpfEventEngine implements SpfPhysicsEngine {
+	private static final int BallEvent = 0;
+	private static final int CushionEvent = 1;
+	private static final int StopEvent = 2;
+	/// Limite de eventos por tiro para evitar bucles infinitos
+	private static final int MaxEvents = 1000000;
+
+	private double m_Drag = SpfBallTable.RollingDrag * G;
+	private double m_RestSpeed = Math.sqrt(SpfBallTable.RestSpeedSq);
+	private float m_FramePeriod = PhysicsStep;
+	private PriorityQueue<Event> m_Queue;
+	/// Instante al que corresponde el estado de cada bola
+	private double[] m_Time = new double[0];
+	/// Contador de cambios de cada bola para invalidar eventos
+	private int[] m_Version = new int[0];
+
+	/**
+	 * Evento de la simulacion.
+	 */
+	private static class Event implements Comparable<Event> {
+		double time;
+		int type;
+		int a, b;
+		int versionA, versionB;
+
+		Event (double time, int type, int a, int b, int versionA, int versionB) {
+			this.time = time;
+			this.type = type;
+			this.a = a;
+			this.b = b;
+			this.versionA = versionA;
+			this.versionB = versionB;
+		}
+
+		/**
+		 * Ordena por tiempo y, a igual tiempo, por tipo y bolas,
+		 * de forma que el resultado sea siempre el mismo.
+		 */
+		public int compareTo (Event e) {
+			if (time != e.time) return time < e.time ? -1 : 1;
+			if (type != e.type) return type - e.type;
+			if (a != e.a) return a - e.a;
+			return b - e.b;
+		}
+	}
+
+	/**
+	 * Constructor de SpfEventEngine.
+	 */
+	public SpfEventEngine () {
+		m_Queue = new PriorityQueue<Event>(64);
+	}
+
+	/**
+	 * Establece cada cuanto tiempo simulado se notifica el
+	 * estado de la mesa al receptor del tiro.
+	 * @param period Periodo en segundos.
+	 */
+	public void setFramePeriod (float period) {
+		m_FramePeriod = period;
+	}
+
+	/**
+	 * Crea un motor por eventos con el mismo periodo de notificacion.
+	 * @return Devuelve el nuevo motor.
+	 */
+	public SpfPhysicsEngine copy () {
+		SpfEventEngine engine = new SpfEventEngine();
+		engine.m_FramePeriod = m_FramePeriod;
+		engine.m_Drag = m_Drag;
+		engine.m_RestSpeed = m_RestSpeed;
+		return engine;
+	}
+
+	/**
+	 * Realiza la simulacion fisica del tiro.
+	 * @param table Mesa de bolas.
+	 * @param cue Bola golpeada.
+	 * @param fx Fuerza del tiro en el eje X.
+	 * @param fy Fuerza del tiro en el eje Y.
+	 * @param fz Fuerza del tiro en el eje Z.
+	 * @param listener Receptor de la evolucion del tiro (puede ser null).
+	 */
+	public void simulateShot (SpfBallTable table, int cue,
+			float fx, float fy, float fz, SpfShotListener listener) {
+		int count = table.getCount();
+		if (m_Time.length < count) {
+			m_Time = new double[count];
+			m_Version = new int[count];
+		}
+		for (int i = 0; i < count; i++) {
+			m_Time[i] = 0;
+			m_Version[i] = 0;
+		}
+		m_Queue.clear();
+
+		// La fuerza del tiro actua durante un paso: se aplica
+		// como un impulso instantaneo sobre la bola golpeada.
+		float[][] velocity = table.getVelocities();
+		float scale = table.getTimeStep() / table.getMass(cue);
+		velocity[0][cue] += fx * scale;
+		velocity[1][cue] += fy * scale;
+		velocity[2][cue] += fz * scale;
+
+		for (int i = 0; i < count; i++) {
+			if (table.isMoving(i)) predict(table, i, 0, -1);
+		}
+
+		double now = 0;
+		double nextFrame = m_FramePeriod;
+		int events = 0;
+		while (!m_Queue.isEmpty() && events < MaxEvents) {
+			Event e = m_Queue.poll();
+			if (e.versionA != m_Version[e.a]) continue;
+			if (e.type == BallEvent && e.versionB != m_Version[e.b]) continue;
+			events++;
+
+			// Notificar los estados intermedios hasta el evento
+			if (listener != null && m_FramePeriod > 0) {
+				while (nextFrame <= e.time) {
+					advanceAll(table, nextFrame);
+					listener.stateUpdated(table, (float)nextFrame);
+					nextFrame += m_FramePeriod;
+				}
+			}
+			now = e.time;
+
+			if (e.type == BallEvent) {
+				advance(table, e.a, now);
+				advance(table, e.b, now);
+				boolean movingA = table.isMoving(e.a);
+				boolean movingB = table.isMoving(e.b);
+				float[][] position = table.getPositions();
+				float nx = position[0][e.b] - position[0][e.a];
+				float ny = position[1][e.b] - position[1][e.a];
+				float nz = position[2][e.b] - position[2][e.a];
+				boolean resolved = table.resolveContact(e.a, e.b, nx, ny, nz);
+				if (resolved && listener != null)
+					listener.ballCollision((float)now, e.a, e.b);
+				settle(table, e.a, movingA, now, listener);
+				settle(table, e.b, movingB, now, listener);
+				m_Version[e.a]++;
+				m_Version[e.b]++;
+				// Si por redondeo las bolas ya no se acercaban, no
+				// volver a predecir el mismo choque en este instante.
+				predict(table, e.a, now, resolved ? -1 : e.b);
+				predict(table, e.b, now, e.a);
+			} else if (e.type == CushionEvent) {
+				int axis = e.b;
+				advance(table, e.a, now);
+				float[] position = table.getPositions()[axis];
+				float[] v = table.getVelocities()[axis];
+				// Evitar que los errores de redondeo saquen la bola de la mesa
+				if (v[e.a] > 0)
+					position[e.a] = Math.min(position[e.a], table.getMaxCoord()[axis]);
+				else
+					position[e.a] = Math.max(position[e.a], table.getMinCoord()[axis]);
+				v[e.a] *= -1;
+				if (listener != null) listener.cushionCollision((float)now, e.a, axis);
+				m_Version[e.a]++;
+				predict(table, e.a, now, -1);
+			} else {
+				advance(table, e.a, now);
+				stop(table, e.a);
+				if (listener != null) listener.ballStopped((float)now, e.a);
+				m_Version[e.a]++;
+				// La bola parada aun puede ser golpeada por otras
+				predict(table, e.a, now, -1);
+			}
+		}
+
+		advanceAll(table, now);
+		if (listener != null) listener.stateUpdated(table, (float)now);
+	}
+
+	/**
+	 * Detiene una bola si su velocidad esta por debajo del umbral.
+	 * @param table Mesa de bolas.
+	 * @param id Bola a comprobar.
+	 * @param wasMoving Indica si la bola estaba en movimiento.
+	 * @param now Instante actual.
+	 * @param listener Receptor de la evolucion del tiro (puede ser null).
+	 */
+	private void settle (SpfBallTable table, int id, boolean wasMoving,
+			double now, SpfShotListener listener) {
+		if (table.isMoving(id)) return;
+		stop(table, id);
+		if (wasMoving && listener != null) listener.ballStopped((float)now, id);
+	}
+
+	/**
+	 * Detiene una bola.
+	 * @param table Mesa de bolas.
+	 * @param id Bola a detener.
+	 */
+	private void stop (SpfBallTable table, int id) {
+		float[][] velocity = table.getVelocities();
+		float[][] angularVelocity = table.getAngularVelocities();
+		for (int i = 0; i < 3; i++) {
+			velocity[i][id] = 0;
+			angularVelocity[i][id] = 0;
+		}
+	}
+
+	/**
+	 * Avanza todas las bolas hasta un instante dado.
+	 * @param table Mesa de bolas.
+	 * @param time Instante de destino.
+	 */
+	private void advanceAll (SpfBallTable table, double time) {
+		int count = table.getCount();
+		for (int i = 0; i < count; i++) advance(table, i, time);
+	}
+
+	/**
+	 * Avanza una bola hasta un instante dado mediante
+	 * la solucion cerrada del movimiento.
+	 * @param table Mesa de bolas.
+	 * @param id Bola a avanzar.
+	 * @param time Instante de destino.
+	 */
+	private void advance (SpfBallTable table, int id, double time) {
+		double dt = time - m_Time[id];
+		if (dt <= 0) return;
+		m_Time[id] = time;
+		float[][] velocity = table.getVelocities();
+		float vx = velocity[0][id], vy = velocity[1][id], vz = velocity[2][id];
+		if (vx == 0 && vy == 0 && vz == 0) return;
+
+		double decay = Math.exp(-m_Drag * dt);
+		float s = (float)((1 - decay) / m_Drag);
+		float[][] position = table.getPositions();
+		position[0][id] += vx * s;
+		position[1][id] += vy * s;
+		position[2][id] += vz * s;
+		velocity[0][id] = (float)(vx * decay);
+		velocity[1][id] = (float)(vy * decay);
+		velocity[2][id] = (float)(vz * decay);
+
+		// Giro por rodadura pura: w x r + v = 0, con r = (0, -radio, 0)
+		float radius = table.getRadius(id);
+		float[][] angle = table.getAngles();
+		float[][] angularVelocity = table.getAngularVelocities();
+		angle[0][id] += vz * s / radius;
+		angle[2][id] -= vx * s / radius;
+		angularVelocity[0][id] = velocity[2][id] / radius;
+		angularVelocity[1][id] = 0;
+		angularVelocity[2][id] = -velocity[0][id] / radius;
+	}
+
+	/**
+	 * Calcula el instante en que una bola recorre una distancia
+	 * dada a lo largo de su trayectoria.
+	 * @param s Distancia en unidades de la velocidad inicial.
+	 * @return Devuelve el tiempo necesario, o infinito si la
+	 * bola se detiene antes.
+	 */
+	private double timeToTravel (double s) {
+		double x = 1 - m_Drag * s;
+		if (x <= 0) return Double.POSITIVE_INFINITY;
+		return -Math.log(x) / m_Drag;
+	}
+
+	/**
+	 * Calcula los proximos eventos de una bola y los añade a la cola.
+	 * @param table Mesa de bolas.
+	 * @param a Bola cuyo estado ha cambiado.
+	 * @param now Instante actual, al que esta avanzada la bola.
+	 * @param exclude Bola con la que no se predicen choques, o -1.
+	 */
+	private void predict (SpfBallTable table, int a, double now, int exclude) {
+		float[][] position = table.getPositions();
+		float[][] velocity = table.getVelocities();
+		float[] radius = table.getRadii();
+		float[] min = table.getMinCoord();
+		float[] max = table.getMaxCoord();
+		double vax = velocity[0][a], vay = velocity[1][a], vaz = velocity[2][a];
+		double speed = Math.sqrt(vax*vax + vay*vay + vaz*vaz);
+
+		if (speed >= m_RestSpeed) {
+			// Parada de la bola
+			double t = Math.log(speed / m_RestSpeed) / m_Drag;
+			m_Queue.add(new Event(now + t, StopEvent, a, -1, m_Version[a], 0));
+
+			// Choques con las bandas
+			for (int axis = 0; axis < 3; axis++) {
+				double v = velocity[axis][a];
+				if (min[axis] >= max[axis] || v == 0) continue;
+				double bound = v > 0 ? max[axis] : min[axis];
+				double s = (bound - position[axis][a]) / v;
+				if (s < 0) s = 0;
+				t = timeToTravel(s);
+				if (t != Double.POSITIVE_INFINITY)
+					m_Queue.add(new Event(now + t, CushionEvent, a, axis, m_Version[a], 0));
+			}
+		}
+
+		// Choques con el resto de bolas
+		int count = table.getCount();
+		for (int j = 0; j < count; j++) {
+			if (j == a || j == exclude) continue;
+			double vjx = velocity[0][j], vjy = velocity[1][j], vjz = velocity[2][j];
+			double pjx = position[0][j], pjy = position[1][j], pjz = position[2][j];
+			// Llevar la bola j al instante actual sin modificarla
+			double dt = now - m_Time[j];
+			if (dt > 0 && (vjx != 0 || vjy != 0 || vjz != 0)) {
+				double decay = Math.exp(-m_Drag * dt);
+				double s = (1 - decay) / m_Drag;
+				pjx += vjx * s;
+				pjy += vjy * s;
+				pjz += vjz * s;
+				vjx *= decay;
+				vjy *= decay;
+				vjz *= decay;
+			}
+			// Ambas bolas decaen igual, luego la posicion relativa
+			// es d(s) = d0 + dv * s, con s = (1 - e^(-kt)) / k.
+			double dx = pjx - position[0][a], dy = pjy - position[1][a], dz = pjz - position[2][a];
+			double dvx = vjx - vax, dvy = vjy - vay, dvz = vjz - vaz;
+			double qa = dvx*dvx + dvy*dvy + dvz*dvz;
+			double qb = dx*dvx + dy*dvy + dz*dvz;
+			if (qa == 0 || qb >= 0) continue;
+			double reach = radius[a] + radius[j];
+			double qc = dx*dx + dy*dy + dz*dz - reach*reach;
+			double disc = qb*qb - qa*qc;
+			if (disc < 0) continue;
+			double s = qc <= 0 ? 0 : (-qb - Math.sqrt(disc)) / qa;
+			double t = timeToTravel(s);
+			if (t == Double.POSITIVE_INFINITY) continue;
+			int first = Math.min(a, j), second = Math.max(a, j);
+			m_Queue.add(new Event(now + t, BallEvent, first, second,
+					m_Version[first], m_Version[second]));
+		}
+	}
+}
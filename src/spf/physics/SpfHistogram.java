@@ -0,0 +1,114 @@
+package spf.physics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma sin bloqueos de valores enteros no negativos. Los
+ * intervalos son potencias de dos: el intervalo 0 cuenta el valor 0
+ * y el intervalo k los valores de 2^(k-1) a 2^k - 1. Registrar un
+ * valor solo utiliza operaciones atomicas, de forma que el hilo del
+ * juego nunca espera a los lectores.
+ * @author Sergio Paque Martin
+ */
+public class SpfHistogram implements SpfHistogramMBean {
+	/// Numero de intervalos
+	public static final int BucketCount = 64;
+
+	private AtomicLongArray m_Buckets = new AtomicLongArray(BucketCount);
+	private AtomicLong m_Count = new AtomicLong();
+	private AtomicLong m_Sum = new AtomicLong();
+	private AtomicLong m_Max = new AtomicLong();
+
+	/**
+	 * Registra un valor. Los valores negativos se registran como 0.
+	 * @param value Valor a registrar.
+	 */
+	public void record (long value) {
+		if (value < 0) value = 0;
+		m_Buckets.incrementAndGet(bucket(value));
+		m_Count.incrementAndGet();
+		m_Sum.addAndGet(value);
+		long max = m_Max.get();
+		while (value > max && !m_Max.compareAndSet(max, value))
+			max = m_Max.get();
+	}
+
+	/**
+	 * @param value Valor no negativo.
+	 * @return Devuelve el intervalo del valor.
+	 */
+	private static int bucket (long value) {
+		return Math.min(BucketCount - 1, 64 - Long.numberOfLeadingZeros(value));
+	}
+
+	/**
+	 * Calcula un percentil aproximado. Se devuelve el limite superior
+	 * del intervalo que lo contiene, sin superar el maximo registrado.
+	 * @param percentile Percentil entre 0 y 100.
+	 * @return Devuelve el valor del percentil.
+	 */
+	public long getPercentile (double percentile) {
+		long[] buckets = getBuckets();
+		long count = 0;
+		for (int k = 0; k < buckets.length; k++)
+			count += buckets[k];
+		if (count == 0) return 0;
+		long rank = (long)Math.ceil(count * percentile / 100);
+		long seen = 0;
+		for (int k = 0; k < buckets.length; k++) {
+			seen += buckets[k];
+			if (seen >= rank && buckets[k] > 0) {
+				long upper = k == 0 ? 0 : (1L << k) - 1;
+				return Math.min(upper, getMax());
+			}
+		}
+		return getMax();
+	}
+
+	public long getCount () {
+		return m_Count.get();
+	}
+
+	public double getMean () {
+		long count = m_Count.get();
+		return count == 0 ? 0 : (double)m_Sum.get() / count;
+	}
+
+	public long getMax () {
+		return m_Max.get();
+	}
+
+	public long getP50 () {
+		return getPercentile(50);
+	}
+
+	public long getP90 () {
+		return getPercentile(90);
+	}
+
+	public long getP99 () {
+		return getPercentile(99);
+	}
+
+	public long[] getBuckets () {
+		long[] buckets = new long[BucketCount];
+		for (int k = 0; k < BucketCount; k++)
+			buckets[k] = m_Buckets.get(k);
+		return buckets;
+	}
+
+	public void reset () {
+		for (int k = 0; k < BucketCount; k++)
+			m_Buckets.set(k, 0);
+		m_Count.set(0);
+		m_Sum.set(0);
+		m_Max.set(0);
+	}
+
+	@Override
+	public String toString () {
+		return String.format("n=%d media=%.1f p50=%d p99=%d max=%d",
+				getCount(), getMean(), getP50(), getP99(), getMax());
+	}
+}
@@ -0,0 +1,48 @@
+package spf.physics;
+
+/**
+ * Interfaz de gestion (JMX) de un histograma.
+ * @author Sergio Paque Martin
+ */
+public interface SpfHistogramMBean {
+	
+	/**
+	 * @return Devuelve el numero de valores registrados.
+	 */
+	public long getCount ();
+	
+	/**
+	 * @return Devuelve la media de los valores registrados.
+	 */
+	public double getMean ();
+	
+	/**
+	 * @return Devuelve el maximo de los valores registrados.
+	 */
+	public long getMax ();
+	
+	/**
+	 * @return Devuelve la mediana aproximada.
+	 */
+	public long getP50 ();
+	
+	/**
+	 * @return Devuelve el percentil 90 aproximado.
+	 */
+	public long getP90 ();
+	
+	/**
+	 * @return Devuelve el percentil 99 aproximado.
+	 */
+	public long getP99 ();
+	
+	/**
+	 * @return Devuelve el numero de valores de cada intervalo.
+	 */
+	public long[] getBuckets ();
+	
+	/**
+	 * Reinicia el histograma.
+	 */
+	public void reset ();
+}
@@ -0,0 +1,182 @@
+package spf.physics;
+
+import java.util.Random;
+
+/**
+ * Nucleos de calculo que el motor por pasos aplica a muchas bolas o
+ * pares a la vez: la prediccion del desplazamiento de las bolas
+ * despiertas y el instante de contacto de los pares candidatos.
+ * <p>
+ * Esta clase es la implementacion escalar. Si la JVM dispone del
+ * modulo jdk.incubator.vector y la clase SpfVectorKernels esta en el
+ * classpath, getInstance devuelve la implementacion vectorial, pero
+ * solo despues de comprobar que da exactamente los mismos resultados
+ * que la escalar; en otro caso se usa siempre la escalar. Con
+ * -Dspf.vector=false se fuerza la implementacion escalar.
+ * @author Sergio Paque Martin
+ */
+public class SpfKernels {
+	/// Implementacion vectorial, que se carga por nombre
+	private static final String VectorKernels = "spf.physics.SpfVectorKernels";
+	/// Bolas y pares de la comprobacion inicial
+	private static final int CheckBalls = 301;
+	private static final int CheckPairs = 1001;
+
+	private static final SpfKernels Scalar = new SpfKernels();
+	private static SpfKernels Instance;
+
+	/**
+	 * @return Devuelve la implementacion escalar.
+	 */
+	public static SpfKernels getScalar () {
+		return Scalar;
+	}
+
+	/**
+	 * @return Devuelve la mejor implementacion disponible.
+	 */
+	public static synchronized SpfKernels getInstance () {
+		if (Instance == null)
+			Instance = select();
+		return Instance;
+	}
+
+	/**
+	 * Selecciona la implementacion de los nucleos.
+	 * @return Devuelve la implementacion vectorial si esta disponible
+	 * y coincide con la escalar, o la escalar en otro caso.
+	 */
+	private static SpfKernels select () {
+		if ("false".equals(System.getProperty("spf.vector")))
+			return Scalar;
+		try {
+			SpfKernels kernels = (SpfKernels)Class.forName(VectorKernels)
+					.getConstructor().newInstance();
+			if (kernels.matches(Scalar))
+				return kernels;
+			System.err.println("Los nucleos vectoriales no coinciden con los escalares");
+		} catch (Throwable e) {
+			// Sin el modulo jdk.incubator.vector la clase no puede
+			// cargarse (NoClassDefFoundError, LinkageError...)
+		}
+		return Scalar;
+	}
+
+	/**
+	 * @return Devuelve el nombre de la implementacion.
+	 */
+	public String getName () {
+		return "escalar";
+	}
+
+	/**
+	 * Calcula el desplazamiento previsto de un conjunto de bolas,
+	 * como SpfBallTable.updateSweep.
+	 * @param table Mesa de bolas.
+	 * @param ids Identificadores de las bolas.
+	 * @param count Numero de bolas.
+	 */
+	public void updateSweeps (SpfBallTable table, int[] ids, int count) {
+		for (int k = 0; k < count; k++)
+			table.updateSweep(ids[k]);
+	}
+
+	/**
+	 * Calcula el instante de contacto de un conjunto de pares de bolas
+	 * a partir de su posicion y su desplazamiento previsto.
+	 * @param table Mesa de bolas.
+	 * @param first Primera bola de cada par.
+	 * @param second Segunda bola de cada par.
+	 * @param count Numero de pares.
+	 * @param toi Array donde se guarda, para cada par, la fraccion del
+	 * paso en que se produce el contacto o -1 si no se produce.
+	 */
+	public void timesOfImpact (SpfBallTable table, int[] first, int[] second,
+			int count, float[] toi) {
+		timesOfImpact(table, first, second, 0, count, toi);
+	}
+
+	/**
+	 * Calcula de forma escalar el instante de contacto de un rango de pares.
+	 * @param table Mesa de bolas.
+	 * @param first Primera bola de cada par.
+	 * @param second Segunda bola de cada par.
+	 * @param from Primer par del rango.
+	 * @param to Par siguiente al ultimo del rango.
+	 * @param toi Array donde se guarda el instante de contacto de cada par.
+	 */
+	protected final void timesOfImpact (SpfBallTable table, int[] first, int[] second,
+			int from, int to, float[] toi) {
+		float[][] position = table.getPositions();
+		float[][] sweep = table.getSweeps();
+		float[] radius = table.getRadii();
+		for (int k = from; k < to; k++) {
+			int i = first[k];
+			int j = second[k];
+			toi[k] = SpfSteppedEngine.timeOfImpact(
+					position[0][j] - position[0][i],
+					position[1][j] - position[1][i],
+					position[2][j] - position[2][i],
+					sweep[0][j] - sweep[0][i],
+					sweep[1][j] - sweep[1][i],
+					sweep[2][j] - sweep[2][i],
+					radius[i] + radius[j]);
+		}
+	}
+
+	/**
+	 * Comprueba que esta implementacion da los mismos resultados, bit a
+	 * bit, que otra sobre una mesa aleatoria. El motor es determinista
+	 * solo si todas las implementaciones coinciden exactamente.
+	 * @param reference Implementacion de referencia.
+	 * @return Devuelve si los resultados coinciden.
+	 */
+	public boolean matches (SpfKernels reference) {
+		Random random = new Random(CheckBalls);
+		SpfBallTable table = new SpfBallTable(CheckBalls);
+		int[] ids = new int[CheckBalls];
+		for (int i = 0; i < CheckBalls; i++) {
+			// Bolas juntas para que haya contactos, solapes y pares que se alejan
+			ids[i] = table.addBall(random.nextFloat() * 2 - 1, -0.82f,
+					random.nextFloat() - 0.5f, 0.02f + random.nextFloat() * 0.05f,
+					0.5f + random.nextFloat());
+			float[][] velocity = table.getVelocities();
+			for (int axis = 0; axis < 3; axis += 2)
+				velocity[axis][i] = (random.nextFloat() - 0.5f) * 20;
+			if (random.nextInt(8) == 0) velocity[0][i] = velocity[2][i] = 0;
+			if (random.nextInt(16) == 0)
+				table.applyForce(i, random.nextFloat() * 500, 0, random.nextFloat() * 500);
+		}
+		SpfBallTable copy = table.copy();
+		updateSweeps(table, ids, CheckBalls);
+		reference.updateSweeps(copy, ids, CheckBalls);
+		if (!same(table.getSweeps(), copy.getSweeps(), CheckBalls))
+			return false;
+
+		int[] first = new int[CheckPairs];
+		int[] second = new int[CheckPairs];
+		for (int k = 0; k < CheckPairs; k++) {
+			first[k] = random.nextInt(CheckBalls);
+			second[k] = random.nextInt(CheckBalls);
+		}
+		float[] toi = new float[CheckPairs];
+		float[] expected = new float[CheckPairs];
+		timesOfImpact(table, first, second, CheckPairs, toi);
+		reference.timesOfImpact(table, first, second, CheckPairs, expected);
+		for (int k = 0; k < CheckPairs; k++) {
+			if (Float.floatToIntBits(toi[k]) != Float.floatToIntBits(expected[k]))
+				return false;
+		}
+		return true;
+	}
+
+	private static boolean same (float[][] a, float[][] b, int count) {
+		for (int axis = 0; axis < 3; axis++) {
+			for (int i = 0; i < count; i++) {
+				if (Float.floatToIntBits(a[axis][i]) != Float.floatToIntBits(b[axis][i]))
+					return false;
+			}
+		}
+		return true;
+	}
+}
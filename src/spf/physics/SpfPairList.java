@@ -0,0 +1,94 @@
+package spf.physics;
+
+/**
+ * Lista de pares de bolas almacenada en arrays de enteros,
+ * reutilizable entre pasos de la simulacion.
+ * @author Sergio Paque Martin
+ */
+public class SpfPairList {
+	private int[] m_First;
+	private int[] m_Second;
+	private int m_Size;
+	
+	/**
+	 * Constructor de SpfPairList.
+	 */
+	public SpfPairList () {
+		this(64);
+	}
+	
+	/**
+	 * Constructor de SpfPairList.
+	 * @param capacity Numero de pares previsto.
+	 */
+	public SpfPairList (int capacity) {
+		if (capacity < 1) capacity = 1;
+		m_First = new int[capacity];
+		m_Second = new int[capacity];
+	}
+	
+	/**
+	 * Añade un par a la lista.
+	 * @param first Primera bola del par.
+	 * @param second Segunda bola del par.
+	 */
+	public void add (int first, int second) {
+		if (m_Size == m_First.length) {
+			int[] first2 = new int[m_Size * 2];
+			int[] second2 = new int[m_Size * 2];
+			System.arraycopy(m_First, 0, first2, 0, m_Size);
+			System.arraycopy(m_Second, 0, second2, 0, m_Size);
+			m_First = first2;
+			m_Second = second2;
+		}
+		m_First[m_Size] = first;
+		m_Second[m_Size] = second;
+		m_Size++;
+	}
+	
+	/**
+	 * Vacia la lista sin liberar memoria.
+	 */
+	public void clear () {
+		m_Size = 0;
+	}
+	
+	/**
+	 * @return Devuelve el numero de pares de la lista.
+	 */
+	public int size () {
+		return m_Size;
+	}
+	
+	/**
+	 * @param index Posicion del par en la lista.
+	 * @return Devuelve la primera bola del par.
+	 */
+	public int getFirst (int index) {
+		return m_First[index];
+	}
+	
+	/**
+	 * @param index Posicion del par en la lista.
+	 * @return Devuelve la segunda bola del par.
+	 */
+	public int getSecond (int index) {
+		return m_Second[index];
+	}
+	
+	/**
+	 * @return Devuelve la primera bola de cada par. Solo son
+	 * validas las primeras size() posiciones.
+	 */
+	public int[] getFirsts () {
+		return m_First;
+	}
+	
+	/**
+	 * @return Devuelve la segunda bola de cada par. Solo son
+	 * validas las primeras size() posiciones.
+	 */
+	public int[] getSeconds () {
+		return m_Second;
+	}
+}
@@ -0,0 +1,28 @@
+package spf.physics;
+
+/**
+ * Constantes de la simulacion fisica. Estan separadas de
+ * SpfConstants para que el nucleo fisico no dependa de Java3D.
+ * @author Sergio Paque Martin
+ */
+public final class SpfPhysicsConstants {
+	public static final float G = 9.8f;
+	public static final float Friction = 0.01f;
+	public static final float PhysicsStep = 0.009f;
+	/// Fuerza de cada nivel del marcador de fuerza del taco
+	public static final float ShotForceScale = 150;
+	/// Bolas de una partida, sin contar la blanca
+	public static final int GameBalls = 15;
+	/**
+	 * Coeficiente de restitucion de los choques entre bolas. Los choques
+	 * son elasticos, como la elasticidad (1) que declaran las esferas del
+	 * juego y la que usa el motor por eventos. La antigua respuesta del
+	 * motor por pasos, que actualizaba cada bola por separado, no era
+	 * un coeficiente elegido: en un choque de frente dejaba a las bolas
+	 * con la mitad y la cuarta parte de la velocidad de acercamiento,
+	 * perdia cantidad de movimiento y dependia del orden de las bolas.
+	 */
+	public static final float BallRestitution = 1;
+	
+	private SpfPhysicsConstants () {}
+}
@@ -0,0 +1,31 @@
+package spf.physics;
+
+/**
+ * Interfaz comun de los motores de simulacion fisica.
+ * @author Sergio Paque Martin
+ */
+public interface SpfPhysicsEngine {
+	
+	/**
+	 * Simula un tiro hasta que todas las bolas se detienen.
+	 * La fuerza del tiro actua sobre la bola golpeada durante
+	 * un paso de simulacion. Al terminar, la mesa contiene el
+	 * estado final de las bolas.
+	 * @param table Mesa de bolas.
+	 * @param cue Bola golpeada.
+	 * @param fx Fuerza del tiro en el eje X.
+	 * @param fy Fuerza del tiro en el eje Y.
+	 * @param fz Fuerza del tiro en el eje Z.
+	 * @param listener Receptor de la evolucion del tiro (puede ser null).
+	 */
+	public void simulateShot (SpfBallTable table, int cue, 
+			float fx, float fy, float fz, SpfShotListener listener);
+	
+	/**
+	 * Crea un motor con la misma configuracion que este y sin
+	 * estado, para simular tiros desde otra hebra. Las metricas
+	 * no se copian.
+	 * @return Devuelve el nuevo motor.
+	 */
+	public SpfPhysicsEngine copy ();
+}
@@ -0,0 +1,153 @@
+package spf.physics;
+
+/**
+ * Metricas del bucle de simulacion. El motor registra las metricas
+ * de cada paso y de cada tiro; la aplicacion registra las que
+ * dependen del bucle del juego (retraso desde que se suelta el taco,
+ * tiempo de simulacion, tiempo de proceso del tiro y duracion de la
+ * reproduccion). Todos los tiempos en nanosegundos.
+ * @author Sergio Paque Martin
+ */
+public class SpfPhysicsMetrics {
+	private SpfHistogram m_StepTime = new SpfHistogram();
+	private SpfHistogram m_StepsPerShot = new SpfHistogram();
+	private SpfHistogram m_CollisionsPerStep = new SpfHistogram();
+	private SpfHistogram m_CandidatePairs = new SpfHistogram();
+	private SpfHistogram m_MovingBalls = new SpfHistogram();
+	private SpfHistogram m_ShotLatency = new SpfHistogram();
+	private SpfHistogram m_ShotTime = new SpfHistogram();
+	private SpfHistogram m_SimulationTime = new SpfHistogram();
+	private SpfHistogram m_PlaybackTime = new SpfHistogram();
+
+	/**
+	 * Registra un paso de simulacion.
+	 * @param nanos Duracion del paso.
+	 * @param pairs Pares candidatos de la fase amplia.
+	 * @param collisions Colisiones resueltas.
+	 * @param moving Bolas en movimiento.
+	 */
+	public void recordStep (long nanos, int pairs, int collisions, int moving) {
+		m_StepTime.record(nanos);
+		m_CandidatePairs.record(pairs);
+		m_CollisionsPerStep.record(collisions);
+		m_MovingBalls.record(moving);
+	}
+
+	/**
+	 * Registra los pasos simulados en un tiro.
+	 * @param steps Numero de pasos.
+	 */
+	public void recordSteps (int steps) {
+		m_StepsPerShot.record(steps);
+	}
+
+	/**
+	 * Registra un tiro completo.
+	 * @param latency Tiempo desde que se suelta el taco, terminada su
+	 * animacion, hasta el inicio de la simulacion.
+	 * @param simulation Tiempo de la simulacion del tiro en el motor.
+	 * @param nanos Tiempo desde que se suelta el taco hasta que el tiro
+	 * esta listo para reproducirse, sin incluir la reproduccion.
+	 * @param playback Tiempo de la reproduccion del tiro en la escena.
+	 */
+	public void recordShot (long latency, long simulation, long nanos, long playback) {
+		m_ShotLatency.record(latency);
+		m_SimulationTime.record(simulation);
+		m_ShotTime.record(nanos);
+		m_PlaybackTime.record(playback);
+	}
+
+	/**
+	 * Reinicia todas las metricas.
+	 */
+	public void reset () {
+		SpfHistogram[] histograms = getHistograms();
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i].reset();
+	}
+
+	/**
+	 * @return Devuelve todos los histogramas, en el mismo orden que getNames.
+	 */
+	public SpfHistogram[] getHistograms () {
+		return new SpfHistogram[] { m_StepTime, m_StepsPerShot, m_CollisionsPerStep,
+				m_CandidatePairs, m_MovingBalls, m_ShotLatency, m_ShotTime,
+				m_SimulationTime, m_PlaybackTime };
+	}
+
+	/**
+	 * @return Devuelve los nombres de los histogramas.
+	 */
+	public static String[] getNames () {
+		return new String[] { "StepTime", "StepsPerShot", "CollisionsPerStep",
+				"CandidatePairs", "MovingBalls", "ShotLatency", "ShotTime",
+				"SimulationTime", "PlaybackTime" };
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+
+	/**
+	 * @return Devuelve el histograma de la duracion de los pasos.
+	 */
+	public SpfHistogram getStepTime () {
+		return m_StepTime;
+	}
+
+	/**
+	 * @return Devuelve el histograma de pasos por tiro.
+	 */
+	public SpfHistogram getStepsPerShot () {
+		return m_StepsPerShot;
+	}
+
+	/**
+	 * @return Devuelve el histograma de colisiones por paso.
+	 */
+	public SpfHistogram getCollisionsPerStep () {
+		return m_CollisionsPerStep;
+	}
+
+	/**
+	 * @return Devuelve el histograma de pares candidatos por paso.
+	 */
+	public SpfHistogram getCandidatePairs () {
+		return m_CandidatePairs;
+	}
+
+	/**
+	 * @return Devuelve el histograma de bolas en movimiento por paso.
+	 */
+	public SpfHistogram getMovingBalls () {
+		return m_MovingBalls;
+	}
+
+	/**
+	 * @return Devuelve el histograma del retraso hasta el inicio de la simulacion.
+	 */
+	public SpfHistogram getShotLatency () {
+		return m_ShotLatency;
+	}
+
+	/**
+	 * @return Devuelve el histograma del tiempo de proceso de los tiros.
+	 */
+	public SpfHistogram getShotTime () {
+		return m_ShotTime;
+	}
+
+	/**
+	 * @return Devuelve el histograma del tiempo de simulacion de los tiros.
+	 */
+	public SpfHistogram getSimulationTime () {
+		return m_SimulationTime;
+	}
+
+	/**
+	 * @return Devuelve el histograma de la duracion de la reproduccion de los tiros.
+	 */
+	public SpfHistogram getPlaybackTime () {
+		return m_PlaybackTime;
+	}
+
+	// </editor-fold>
+}
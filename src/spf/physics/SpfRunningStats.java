@@ -0,0 +1,98 @@
+package spf.physics;
+
+/**
+ * Estadisticas incrementales de una serie de valores: numero,
+ * media, desviacion tipica, minimo y maximo. No guarda los valores,
+ * y dos estadisticas calculadas por separado (por ejemplo en hilos
+ * distintos) pueden combinarse sin perder precision.
+ * @author Sergio Paque Martin
+ */
+public class SpfRunningStats {
+	private long m_Count;
+	private double m_Mean;
+	private double m_M2;
+	private double m_Min = Double.POSITIVE_INFINITY;
+	private double m_Max = Double.NEGATIVE_INFINITY;
+	
+	/**
+	 * Añade un valor.
+	 * @param value Valor a añadir.
+	 */
+	public void add (double value) {
+		m_Count++;
+		// Algoritmo de Welford para media y varianza
+		double delta = value - m_Mean;
+		m_Mean += delta / m_Count;
+		m_M2 += delta * (value - m_Mean);
+		if (value < m_Min) m_Min = value;
+		if (value > m_Max) m_Max = value;
+	}
+	
+	/**
+	 * Combina con otras estadisticas (algoritmo de Chan).
+	 * @param stats Estadisticas a combinar.
+	 */
+	public void merge (SpfRunningStats stats) {
+		if (stats.m_Count == 0) return;
+		if (m_Count == 0) {
+			m_Count = stats.m_Count;
+			m_Mean = stats.m_Mean;
+			m_M2 = stats.m_M2;
+			m_Min = stats.m_Min;
+			m_Max = stats.m_Max;
+			return;
+		}
+		long count = m_Count + stats.m_Count;
+		double delta = stats.m_Mean - m_Mean;
+		m_Mean += delta * stats.m_Count / count;
+		m_M2 += stats.m_M2 + delta * delta * ((double)m_Count * stats.m_Count / count);
+		m_Count = count;
+		if (stats.m_Min < m_Min) m_Min = stats.m_Min;
+		if (stats.m_Max > m_Max) m_Max = stats.m_Max;
+	}
+	
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+	
+	/**
+	 * @return Devuelve el numero de valores.
+	 */
+	public long getCount () {
+		return m_Count;
+	}
+	
+	/**
+	 * @return Devuelve la media de los valores.
+	 */
+	public double getMean () {
+		return m_Mean;
+	}
+	
+	/**
+	 * @return Devuelve la desviacion tipica de los valores.
+	 */
+	public double getStdDev () {
+		return m_Count > 1 ? Math.sqrt(m_M2 / (m_Count - 1)) : 0;
+	}
+	
+	/**
+	 * @return Devuelve el minimo de los valores.
+	 */
+	public double getMin () {
+		return m_Count == 0 ? 0 : m_Min;
+	}
+	
+	/**
+	 * @return Devuelve el maximo de los valores.
+	 */
+	public double getMax () {
+		return m_Count == 0 ? 0 : m_Max;
+	}
+	
+	// </editor-fold>
+	
+	@Override
+	public String toString () {
+		return String.format("%.4f +- %.4f [%.4f, %.4f]", 
+				getMean(), getStdDev(), getMin(), getMax());
+	}
+}
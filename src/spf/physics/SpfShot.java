@@ -0,0 +1,83 @@
+package spf.physics;
+
+import static spf.physics.SpfPhysicsConstants.ShotForceScale;
+
+/**
+ * Parametros de un tiro: bola golpeada, direccion y fuerza.
+ * @author Sergio Paque Martin
+ */
+public class SpfShot {
+	private int m_Cue;
+	private float m_DirX;
+	private float m_DirY;
+	private float m_DirZ;
+	private float m_Force;
+
+	/**
+	 * Constructor de SpfShot.
+	 * @param cue Bola golpeada.
+	 * @param dirX Direccion del tiro en el eje X.
+	 * @param dirY Direccion del tiro en el eje Y.
+	 * @param dirZ Direccion del tiro en el eje Z.
+	 * @param force Modulo de la fuerza del tiro.
+	 */
+	public SpfShot (int cue, float dirX, float dirY, float dirZ, float force) {
+		m_Cue = cue;
+		m_DirX = dirX;
+		m_DirY = dirY;
+		m_DirZ = dirZ;
+		m_Force = force;
+	}
+
+	/**
+	 * Crea un tiro de la bola blanca con los mismos datos que el taco
+	 * pasa a SpfUniverse (setShotDir y setShotForce).
+	 * @param dirX Direccion del tiro en el eje X.
+	 * @param dirY Direccion del tiro en el eje Y.
+	 * @param dirZ Direccion del tiro en el eje Z.
+	 * @param level Nivel del marcador de fuerza, empezando en 0.
+	 * @return Devuelve el tiro.
+	 */
+	public static SpfShot fromCueStick (float dirX, float dirY, float dirZ, int level) {
+		return new SpfShot(0, dirX, dirY, dirZ, (level + 1) * ShotForceScale);
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+
+	/**
+	 * @return Devuelve la bola golpeada.
+	 */
+	public int getCue () {
+		return m_Cue;
+	}
+
+	/**
+	 * @return Devuelve la fuerza del tiro en el eje X.
+	 */
+	public float getForceX () {
+		return m_DirX * m_Force;
+	}
+
+	/**
+	 * @return Devuelve la fuerza del tiro en el eje Y.
+	 */
+	public float getForceY () {
+		return m_DirY * m_Force;
+	}
+
+	/**
+	 * @return Devuelve la fuerza del tiro en el eje Z.
+	 */
+	public float getForceZ () {
+		return m_DirZ * m_Force;
+	}
+
+	/**
+	 * @return Devuelve el modulo de la fuerza del tiro.
+	 */
+	public float getForce () {
+		return m_Force;
+	}
+
+	// </editor-fold>
+}
@@ -0,0 +1,13 @@
+package spf.physics;
+
+/**
+ * Implementacion vacia de SpfShotListener, para
+ * redefinir solo los metodos necesarios.
+ * @author Sergio Paque Martin
+ */
+public abstract class SpfShotAdapter implements SpfShotListener {
+	public void stateUpdated (SpfBallTable table, float time) {}
+	public void ballCollision (float time, int first, int second) {}
+	public void cushionCollision (float time, int ball, int axis) {}
+	public void ballStopped (float time, int ball) {}
+}
@@ -0,0 +1,177 @@
+package spf.physics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Evalua en paralelo lotes de tiros sobre una misma disposicion de
+ * bolas, por ejemplo para las pistas o para los jugadores automaticos.
+ * Cada tiro se simula sobre su propia copia de la mesa en el ejecutor
+ * indicado, sin pasar por el hilo del juego.
+ * <p>
+ * Los tiros repetidos dentro de un lote se simulan una sola vez y
+ * comparten el mismo resultado futuro. Si se indica una cache, los
+ * tiros se comparan con su misma clave cuantizada y los resultados
+ * se guardan en ella para los lotes siguientes; sin cache solo se
+ * agrupan los tiros exactamente iguales.
+ * @author Sergio Paque Martin
+ */
+public class SpfShotBatch {
+	private Executor m_Executor;
+	private SpfShotCache m_Cache;
+	private boolean m_EventEngine;
+	/// Motor del que se copian los de cada hilo (puede ser null)
+	private SpfPhysicsEngine m_Engine;
+
+	/// Motor de cada hilo del ejecutor
+	private ThreadLocal<SpfPhysicsEngine> m_Engines = new ThreadLocal<SpfPhysicsEngine>() {
+		@Override
+		protected SpfPhysicsEngine initialValue () {
+			if (m_Engine != null) return m_Engine.copy();
+			return m_EventEngine ? new SpfEventEngine() : new SpfSteppedEngine();
+		}
+	};
+
+	/**
+	 * Constructor de SpfShotBatch.
+	 * @param executor Ejecutor donde se simulan los tiros.
+	 */
+	public SpfShotBatch (Executor executor) {
+		this(executor, null);
+	}
+
+	/**
+	 * Constructor de SpfShotBatch.
+	 * @param executor Ejecutor donde se simulan los tiros.
+	 * @param cache Cache de resultados compartida entre lotes (puede ser null).
+	 */
+	public SpfShotBatch (Executor executor, SpfShotCache cache) {
+		m_Executor = executor;
+		m_Cache = cache;
+	}
+
+	/**
+	 * Evalua un lote de tiros.
+	 * @param table Mesa de bolas en reposo. Se copia antes de volver,
+	 * por lo que puede modificarse mientras se simulan los tiros.
+	 * @param shots Tiros a evaluar.
+	 * @return Devuelve el resultado futuro de cada tiro, en el mismo
+	 * orden que los tiros.
+	 */
+	public List<CompletableFuture<SpfShotOutcome>> evaluate (SpfBallTable table,
+			List<SpfShot> shots) {
+		final SpfBallTable start = table.copy();
+		List<CompletableFuture<SpfShotOutcome>> results =
+				new ArrayList<CompletableFuture<SpfShotOutcome>>(shots.size());
+		HashMap<SpfShotCache.Key, CompletableFuture<SpfShotOutcome>> batch =
+				new HashMap<SpfShotCache.Key, CompletableFuture<SpfShotOutcome>>();
+		for (final SpfShot shot : shots) {
+			final SpfShotCache.Key key = createKey(start, shot);
+			CompletableFuture<SpfShotOutcome> result = batch.get(key);
+			if (result == null) {
+				SpfShotOutcome cached = m_Cache == null ? null : m_Cache.lookup(key);
+				if (cached != null) {
+					result = CompletableFuture.completedFuture(cached);
+				} else {
+					result = CompletableFuture.supplyAsync(new Supplier<SpfShotOutcome>() {
+						public SpfShotOutcome get () {
+							SpfShotOutcome outcome = simulate(start, shot);
+							if (m_Cache != null) m_Cache.store(key, outcome);
+							return outcome;
+						}
+					}, m_Executor);
+				}
+				batch.put(key, result);
+			}
+			results.add(result);
+		}
+		return results;
+	}
+
+	/**
+	 * Evalua un lote de tiros y espera a todos ellos.
+	 * @param table Mesa de bolas en reposo.
+	 * @param shots Tiros a evaluar.
+	 * @return Devuelve un futuro con los resultados, en el mismo
+	 * orden que los tiros.
+	 */
+	public CompletableFuture<List<SpfShotOutcome>> evaluateAll (SpfBallTable table,
+			List<SpfShot> shots) {
+		final List<CompletableFuture<SpfShotOutcome>> results = evaluate(table, shots);
+		return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[results.size()]))
+				.thenApply(new Function<Void, List<SpfShotOutcome>>() {
+					public List<SpfShotOutcome> apply (Void ignored) {
+						List<SpfShotOutcome> outcomes = new ArrayList<SpfShotOutcome>(results.size());
+						for (CompletableFuture<SpfShotOutcome> result : results)
+							outcomes.add(result.join());
+						return outcomes;
+					}
+				});
+	}
+
+	/**
+	 * Simula un tiro sobre una copia de la mesa.
+	 * @param table Mesa de bolas.
+	 * @param shot Tiro a simular.
+	 * @return Devuelve el resultado del tiro.
+	 */
+	private SpfShotOutcome simulate (SpfBallTable table, SpfShot shot) {
+		SpfBallTable copy = table.copy();
+		SpfShotOutcome outcome = new SpfShotOutcome();
+		m_Engines.get().simulateShot(copy, shot.getCue(),
+				shot.getForceX(), shot.getForceY(), shot.getForceZ(), outcome);
+		outcome.finish(copy);
+		return outcome;
+	}
+
+	/**
+	 * Crea la clave de un tiro. Con cache se usa su clave cuantizada;
+	 * sin cache, los valores exactos del tiro, ya que todos los tiros
+	 * del lote parten de la misma mesa.
+	 * @param table Mesa de bolas.
+	 * @param shot Tiro.
+	 * @return Devuelve la clave del tiro.
+	 */
+	private SpfShotCache.Key createKey (SpfBallTable table, SpfShot shot) {
+		if (m_Cache != null)
+			return m_Cache.createKey(table, shot.getCue(),
+					shot.getForceX(), shot.getForceY(), shot.getForceZ());
+		return new SpfShotCache.Key(new int[] {
+			shot.getCue(),
+			Float.floatToIntBits(shot.getForceX()),
+			Float.floatToIntBits(shot.getForceY()),
+			Float.floatToIntBits(shot.getForceZ())
+		});
+	}
+
+	/**
+	 * Selecciona el motor de simulacion. Debe llamarse antes de evaluar.
+	 * @param event Usar el motor por eventos en lugar del motor por pasos.
+	 */
+	public void setEventEngine (boolean event) {
+		m_EventEngine = event;
+		m_Engine = null;
+	}
+
+	/**
+	 * Selecciona el motor de simulacion. Cada hilo del ejecutor
+	 * simula con su propia copia del motor, con la misma fase amplia
+	 * y los mismos nucleos de calculo. Debe llamarse antes de evaluar.
+	 * @param engine Motor del que se copian los de cada hilo.
+	 */
+	public void setEngine (SpfPhysicsEngine engine) {
+		m_Engine = engine.copy();
+	}
+
+	/**
+	 * @return Devuelve la cache de resultados, o null si no hay.
+	 */
+	public SpfShotCache getCache () {
+		return m_Cache;
+	}
+}
@@ -0,0 +1,291 @@
+package spf.physics;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache LRU de resultados de tiros. La clave es el estado de la
+ * mesa y los parametros del tiro cuantizados, de forma que tiros
+ * practicamente iguales sobre la misma disposicion de bolas
+ * comparten resultado sin volver a simular.
+ * <p>
+ * Las posiciones y los angulos de las bolas se cuantizan; el resto
+ * del estado de la mesa forma parte de la clave con su valor exacto.
+ * @author Sergio Paque Martin
+ */
+public class SpfShotCache {
+	private SpfPhysicsEngine m_Engine;
+	private LinkedHashMap<Key, SpfShotOutcome> m_Map;
+	private int m_MaxSize;
+	private float m_PositionQuantum = 0.001f;
+	private float m_AngleQuantum = 0.001f;
+	private float m_DirectionQuantum = 0.0001f;
+	private float m_ForceQuantum = 1;
+	private long m_Hits;
+	private long m_Misses;
+	
+	/**
+	 * Constructor de SpfShotCache.
+	 * @param engine Motor de simulacion para los tiros que no estan en la cache.
+	 * @param maxSize Numero maximo de resultados guardados.
+	 */
+	public SpfShotCache (SpfPhysicsEngine engine, int maxSize) {
+		m_Engine = engine;
+		m_MaxSize = maxSize;
+		m_Map = new LinkedHashMap<Key, SpfShotOutcome>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry (Map.Entry<Key, SpfShotOutcome> eldest) {
+				return size() > m_MaxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Obtiene el resultado de un tiro, simulandolo sobre una copia
+	 * de la mesa si no esta en la cache. La mesa no se modifica.
+	 * @param table Mesa de bolas en reposo.
+	 * @param cue Bola golpeada.
+	 * @param fx Fuerza del tiro en el eje X.
+	 * @param fy Fuerza del tiro en el eje Y.
+	 * @param fz Fuerza del tiro en el eje Z.
+	 * @return Devuelve el resultado del tiro.
+	 */
+	public SpfShotOutcome getOutcome (SpfBallTable table, int cue, float fx, float fy, float fz) {
+		Key key = createKey(table, cue, fx, fy, fz);
+		SpfShotOutcome outcome = lookup(key);
+		if (outcome == null) {
+			outcome = simulate(table, cue, fx, fy, fz);
+			store(key, outcome);
+		}
+		return outcome;
+	}
+	
+	/**
+	 * Busca un resultado en la cache y actualiza los contadores.
+	 * @param key Clave del tiro.
+	 * @return Devuelve el resultado, o null si no esta en la cache.
+	 */
+	synchronized SpfShotOutcome lookup (Key key) {
+		SpfShotOutcome outcome = m_Map.get(key);
+		if (outcome != null)
+			m_Hits++;
+		else
+			m_Misses++;
+		return outcome;
+	}
+	
+	/**
+	 * Guarda un resultado en la cache.
+	 * @param key Clave del tiro.
+	 * @param outcome Resultado del tiro.
+	 */
+	synchronized void store (Key key, SpfShotOutcome outcome) {
+		m_Map.put(key, outcome);
+	}
+	
+	/**
+	 * Simula un tiro sobre una copia de la mesa.
+	 * @param table Mesa de bolas.
+	 * @param cue Bola golpeada.
+	 * @param fx Fuerza del tiro en el eje X.
+	 * @param fy Fuerza del tiro en el eje Y.
+	 * @param fz Fuerza del tiro en el eje Z.
+	 * @return Devuelve el resultado del tiro.
+	 */
+	SpfShotOutcome simulate (SpfBallTable table, int cue, float fx, float fy, float fz) {
+		SpfBallTable copy = table.copy();
+		SpfShotOutcome outcome = new SpfShotOutcome();
+		// Los motores guardan estado entre pasos y no
+		// pueden usarse desde varios hilos a la vez.
+		synchronized (m_Engine) {
+			m_Engine.simulateShot(copy, cue, fx, fy, fz, outcome);
+		}
+		outcome.finish(copy);
+		return outcome;
+	}
+	
+	/**
+	 * Crea la clave de un tiro cuantizando el estado de la mesa,
+	 * la direccion y el modulo de la fuerza. La clave incluye todo
+	 * lo que interviene en la simulacion: las posiciones y los
+	 * angulos de las bolas, cuantizados, y sus velocidades, radios
+	 * y masas, los limites de la mesa, el coeficiente de restitucion
+	 * y el paso de simulacion, exactos.
+	 * @param table Mesa de bolas.
+	 * @param cue Bola golpeada.
+	 * @param fx Fuerza del tiro en el eje X.
+	 * @param fy Fuerza del tiro en el eje Y.
+	 * @param fz Fuerza del tiro en el eje Z.
+	 * @return Devuelve la clave del tiro.
+	 */
+	Key createKey (SpfBallTable table, int cue, float fx, float fy, float fz) {
+		int count = table.getCount();
+		float[][] position = table.getPositions();
+		float[][] angle = table.getAngles();
+		float[][] velocity = table.getVelocities();
+		float[][] angularVelocity = table.getAngularVelocities();
+		float[] radius = table.getRadii();
+		float[] mass = table.getMasses();
+		float[] minCoord = table.getMinCoord();
+		float[] maxCoord = table.getMaxCoord();
+		int[] data = new int[count * 14 + 14];
+		int k = 0;
+		data[k++] = count;
+		data[k++] = cue;
+		data[k++] = exact(table.getTimeStep());
+		data[k++] = exact(table.getRestitution());
+		for (int axis = 0; axis < 3; axis++) {
+			data[k++] = exact(minCoord[axis]);
+			data[k++] = exact(maxCoord[axis]);
+		}
+		for (int i = 0; i < count; i++) {
+			for (int axis = 0; axis < 3; axis++) {
+				data[k++] = quantize(position[axis][i], m_PositionQuantum);
+				data[k++] = quantize(angle[axis][i], m_AngleQuantum);
+				data[k++] = exact(velocity[axis][i]);
+				data[k++] = exact(angularVelocity[axis][i]);
+			}
+			data[k++] = exact(radius[i]);
+			data[k++] = exact(mass[i]);
+		}
+		float force = (float)Math.sqrt(fx * fx + fy * fy + fz * fz);
+		float inv = force > 0 ? 1 / force : 0;
+		data[k++] = quantize(fx * inv, m_DirectionQuantum);
+		data[k++] = quantize(fy * inv, m_DirectionQuantum);
+		data[k++] = quantize(fz * inv, m_DirectionQuantum);
+		data[k] = quantize(force, m_ForceQuantum);
+		return new Key(data);
+	}
+	
+	private static int exact (float value) {
+		// Sumar 0 convierte -0 en 0, que simulan igual
+		return Float.floatToIntBits(value + 0.0f);
+	}
+	
+	private static int quantize (float value, float quantum) {
+		return quantum > 0 ? Math.round(value / quantum) : Float.floatToIntBits(value);
+	}
+	
+	/**
+	 * Vacia la cache y reinicia los contadores.
+	 */
+	public synchronized void clear () {
+		m_Map.clear();
+		m_Hits = 0;
+		m_Misses = 0;
+	}
+	
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+	
+	/**
+	 * @return Devuelve el numero de resultados guardados.
+	 */
+	public synchronized int size () {
+		return m_Map.size();
+	}
+	
+	/**
+	 * @return Devuelve el numero maximo de resultados guardados.
+	 */
+	public synchronized int getMaxSize () {
+		return m_MaxSize;
+	}
+	
+	/**
+	 * Establece el numero maximo de resultados guardados. Si la
+	 * cache es mayor se eliminan los menos usados.
+	 * @param maxSize Numero maximo de resultados.
+	 */
+	public synchronized void setMaxSize (int maxSize) {
+		m_MaxSize = maxSize;
+		Iterator<Key> it = m_Map.keySet().iterator();
+		while (m_Map.size() > m_MaxSize && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+	
+	/**
+	 * @return Devuelve el numero de consultas resueltas desde la cache.
+	 */
+	public synchronized long getHits () {
+		return m_Hits;
+	}
+	
+	/**
+	 * @return Devuelve el numero de consultas que han requerido simular.
+	 */
+	public synchronized long getMisses () {
+		return m_Misses;
+	}
+	
+	/**
+	 * Establece la cuantizacion de las posiciones de las bolas.
+	 * Cambiar la cuantizacion vacia la cache.
+	 * @param quantum Tamaño del paso de cuantizacion (0 = exacto).
+	 */
+	public synchronized void setPositionQuantum (float quantum) {
+		m_PositionQuantum = quantum;
+		m_Map.clear();
+	}
+	
+	/**
+	 * Establece la cuantizacion de los angulos de las bolas.
+	 * Cambiar la cuantizacion vacia la cache.
+	 * @param quantum Tamaño del paso de cuantizacion (0 = exacto).
+	 */
+	public synchronized void setAngleQuantum (float quantum) {
+		m_AngleQuantum = quantum;
+		m_Map.clear();
+	}
+	
+	/**
+	 * Establece la cuantizacion de las componentes de la direccion
+	 * normalizada del tiro. Cambiar la cuantizacion vacia la cache.
+	 * @param quantum Tamaño del paso de cuantizacion (0 = exacto).
+	 */
+	public synchronized void setDirectionQuantum (float quantum) {
+		m_DirectionQuantum = quantum;
+		m_Map.clear();
+	}
+	
+	/**
+	 * Establece la cuantizacion del modulo de la fuerza del tiro.
+	 * Cambiar la cuantizacion vacia la cache.
+	 * @param quantum Tamaño del paso de cuantizacion (0 = exacto).
+	 */
+	public synchronized void setForceQuantum (float quantum) {
+		m_ForceQuantum = quantum;
+		m_Map.clear();
+	}
+	
+	// </editor-fold>
+	
+	/**
+	 * Clave inmutable de un tiro cuantizado.
+	 */
+	static final class Key {
+		private final int[] m_Data;
+		private final int m_Hash;
+		
+		Key (int[] data) {
+			m_Data = data;
+			m_Hash = Arrays.hashCode(data);
+		}
+		
+		@Override
+		public int hashCode () {
+			return m_Hash;
+		}
+		
+		@Override
+		public boolean equals (Object obj) {
+			if (this == obj) return true;
+			if (!(obj instanceof Key)) return false;
+			Key other = (Key)obj;
+			return m_Hash == other.m_Hash && Arrays.equals(m_Data, other.m_Data);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package spf.physics;
+
+/**
+ * Interfaz para recibir la evolucion de la mesa durante
+ * la simulacion de un tiro.
+ * @author Sergio Paque Martin
+ */
+public interface SpfShotListener {
+	
+	/**
+	 * Se invoca cuando el estado de la mesa avanza hasta
+	 * un nuevo instante de la simulacion.
+	 * @param table Mesa de bolas.
+	 * @param time Tiempo simulado desde el inicio del tiro.
+	 */
+	public void stateUpdated (SpfBallTable table, float time);
+	
+	/**
+	 * Se invoca cuando dos bolas colisionan.
+	 * @param time Tiempo simulado de la colision.
+	 * @param first Primera bola.
+	 * @param second Segunda bola.
+	 */
+	public void ballCollision (float time, int first, int second);
+	
+	/**
+	 * Se invoca cuando una bola choca con una banda.
+	 * @param time Tiempo simulado de la colision.
+	 * @param ball Bola que choca.
+	 * @param axis Eje perpendicular a la banda.
+	 */
+	public void cushionCollision (float time, int ball, int axis);
+	
+	/**
+	 * Se invoca cuando una bola se detiene.
+	 * @param time Tiempo simulado de la parada.
+	 * @param ball Bola que se detiene.
+	 */
+	public void ballStopped (float time, int ball);
+}
@@ -0,0 +1,168 @@
+package spf.physics;
+
+import static spf.physics.SpfShotTimeline.StateSize;
+
+/**
+ * Resultado de un tiro: estado final de reposo de las bolas y
+ * lista de eventos. Se rellena como receptor de un motor de
+ * simulacion y no se modifica despues, por lo que puede
+ * compartirse entre hilos.
+ * @author Sergio Paque Martin
+ */
+public class SpfShotOutcome extends SpfShotAdapter {
+	private int m_BallCount;
+	private float[] m_State = new float[0];
+	private float m_Duration;
+	
+	private int m_EventCount;
+	private int[] m_EventType = new int[16];
+	private int[] m_EventFirst = new int[16];
+	private int[] m_EventSecond = new int[16];
+	private float[] m_EventTime = new float[16];
+	
+	/**
+	 * Guarda el estado final de las bolas de la mesa. Debe llamarse
+	 * una vez, cuando el motor termina de simular el tiro.
+	 * @param table Mesa de bolas despues del tiro.
+	 */
+	public void finish (SpfBallTable table) {
+		m_BallCount = table.getCount();
+		m_State = new float[m_BallCount * StateSize];
+		float[][] position = table.getPositions();
+		float[][] angle = table.getAngles();
+		for (int i = 0; i < m_BallCount; i++) {
+			int k = i * StateSize;
+			m_State[k] = position[0][i];
+			m_State[k + 1] = position[1][i];
+			m_State[k + 2] = position[2][i];
+			m_State[k + 3] = angle[0][i];
+			m_State[k + 4] = angle[1][i];
+			m_State[k + 5] = angle[2][i];
+		}
+	}
+	
+	@Override
+	public void stateUpdated (SpfBallTable table, float time) {
+		m_Duration = time;
+	}
+	
+	@Override
+	public void ballCollision (float time, int first, int second) {
+		addEvent(SpfShotTimeline.BallCollision, time, first, second);
+	}
+	
+	@Override
+	public void cushionCollision (float time, int ball, int axis) {
+		addEvent(SpfShotTimeline.CushionCollision, time, ball, axis);
+	}
+	
+	@Override
+	public void ballStopped (float time, int ball) {
+		addEvent(SpfShotTimeline.BallStopped, time, ball, -1);
+	}
+	
+	/**
+	 * Añade un evento a la lista de eventos del tiro.
+	 * @param type Tipo de evento.
+	 * @param time Tiempo simulado del evento.
+	 * @param first Bola afectada.
+	 * @param second Segunda bola, eje de la banda o -1.
+	 */
+	private void addEvent (int type, float time, int first, int second) {
+		if (m_EventCount == m_EventType.length) {
+			int length = m_EventCount * 2;
+			m_EventType = copyOf(m_EventType, length);
+			m_EventFirst = copyOf(m_EventFirst, length);
+			m_EventSecond = copyOf(m_EventSecond, length);
+			float[] eventTime = new float[length];
+			System.arraycopy(m_EventTime, 0, eventTime, 0, m_EventCount);
+			m_EventTime = eventTime;
+		}
+		m_EventType[m_EventCount] = type;
+		m_EventTime[m_EventCount] = time;
+		m_EventFirst[m_EventCount] = first;
+		m_EventSecond[m_EventCount] = second;
+		m_EventCount++;
+		if (time > m_Duration) m_Duration = time;
+	}
+	
+	private static int[] copyOf (int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+	
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+	
+	/**
+	 * @return Devuelve el numero de bolas de la mesa.
+	 */
+	public int getBallCount () {
+		return m_BallCount;
+	}
+	
+	/**
+	 * @return Devuelve la duracion simulada del tiro.
+	 */
+	public float getDuration () {
+		return m_Duration;
+	}
+	
+	/**
+	 * @return Devuelve el estado final de las bolas, con StateSize
+	 * valores consecutivos por bola (posicion y angulos).
+	 */
+	public float[] getFinalStates () {
+		return m_State;
+	}
+	
+	/**
+	 * @param ball Identificador de la bola.
+	 * @param axis Eje (0 = X, 1 = Y, 2 = Z).
+	 * @return Devuelve la posicion final de la bola en el eje indicado.
+	 */
+	public float getFinalPosition (int ball, int axis) {
+		return m_State[ball * StateSize + axis];
+	}
+	
+	/**
+	 * @return Devuelve el numero de eventos.
+	 */
+	public int getEventCount () {
+		return m_EventCount;
+	}
+	
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve el tipo del evento.
+	 */
+	public int getEventType (int event) {
+		return m_EventType[event];
+	}
+	
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve el tiempo simulado del evento.
+	 */
+	public float getEventTime (int event) {
+		return m_EventTime[event];
+	}
+	
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve la bola afectada por el evento.
+	 */
+	public int getEventFirst (int event) {
+		return m_EventFirst[event];
+	}
+	
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve la segunda bola, el eje de la banda o -1.
+	 */
+	public int getEventSecond (int event) {
+		return m_EventSecond[event];
+	}
+	
+	// </editor-fold>
+}
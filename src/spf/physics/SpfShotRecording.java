@@ -0,0 +1,456 @@
+package spf.physics;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static spf.physics.SpfShotTimeline.StateSize;
+
+/**
+ * Grabacion de un tiro en formato binario compacto: datos del
+ * tiro, estado inicial completo de la mesa, linea de tiempo y
+ * lista de eventos.
+ * <p>
+ * Las posiciones y los angulos de la linea de tiempo se cuantizan
+ * y se guardan como la diferencia respecto a la prediccion a
+ * velocidad constante (el estado anterior mas el ultimo cambio de
+ * la bola), codificada como entero de longitud variable. Con bolas
+ * rodando en linea recta la mayoria de valores ocupan un byte, y el
+ * resultado se puede comprimir ademas con Deflater.
+ * <p>
+ * Formato: cabecera sin comprimir (Magic, Version, opciones) seguida
+ * del contenido, comprimido si se indica en las opciones.
+ * @author Sergio Paque Martin
+ */
+public class SpfShotRecording {
+	public static final int Magic = 0x53504652;
+	public static final int Version = 1;
+	/// Opciones de la cabecera
+	public static final int Compressed = 1;
+	/// Tamaño de cuantizacion por defecto
+	public static final float DefaultPositionQuantum = 0.0005f;
+	public static final float DefaultAngleQuantum = 0.005f;
+	/// Separacion minima por defecto entre fotogramas guardados
+	public static final float DefaultFramePeriod = 1 / 30f;
+	/// Resolucion de los tiempos de los fotogramas (microsegundos)
+	private static final float TimeQuantum = 0.000001f;
+
+	private SpfBallTable m_Table;
+	private int m_Cue;
+	private float m_DirX, m_DirY, m_DirZ;
+	private float m_Force;
+	private SpfShotTimeline m_Timeline;
+	private float m_PositionQuantum = DefaultPositionQuantum;
+	private float m_AngleQuantum = DefaultAngleQuantum;
+	private float m_FramePeriod = DefaultFramePeriod;
+
+	/**
+	 * Constructor de SpfShotRecording.
+	 * @param table Estado de la mesa antes del tiro.
+	 * @param cue Bola golpeada.
+	 * @param dirX Direccion del tiro en el eje X.
+	 * @param dirY Direccion del tiro en el eje Y.
+	 * @param dirZ Direccion del tiro en el eje Z.
+	 * @param force Modulo de la fuerza aplicada.
+	 * @param timeline Linea de tiempo del tiro.
+	 */
+	public SpfShotRecording (SpfBallTable table, int cue, float dirX, float dirY, float dirZ,
+			float force, SpfShotTimeline timeline) {
+		m_Table = table;
+		m_Cue = cue;
+		m_DirX = dirX;
+		m_DirY = dirY;
+		m_DirZ = dirZ;
+		m_Force = force;
+		m_Timeline = timeline;
+	}
+
+	/**
+	 * Establece la cuantizacion utilizada al escribir la grabacion.
+	 * @param position Tamaño de cuantizacion de las posiciones.
+	 * @param angle Tamaño de cuantizacion de los angulos.
+	 */
+	public void setQuantum (float position, float angle) {
+		m_PositionQuantum = position;
+		m_AngleQuantum = angle;
+	}
+
+	/**
+	 * Establece la separacion minima entre los fotogramas guardados.
+	 * Los fotogramas intermedios se descartan, ya que el reproductor
+	 * interpola entre fotogramas, pero siempre se guardan los
+	 * fotogramas anterior y posterior a cada evento para que los
+	 * choques se reproduzcan en su sitio.
+	 * @param period Separacion en segundos (0 = guardar todos).
+	 */
+	public void setFramePeriod (float period) {
+		m_FramePeriod = period;
+	}
+
+	/**
+	 * Escribe la grabacion en un flujo.
+	 * @param stream Flujo de salida.
+	 * @param compress Comprimir el contenido con Deflater.
+	 * @throws java.io.IOException
+	 */
+	public void write (OutputStream stream, boolean compress) throws IOException {
+		DataOutputStream header = new DataOutputStream(stream);
+		header.writeInt(Magic);
+		header.writeByte(Version);
+		header.writeByte(compress ? Compressed : 0);
+		header.flush();
+
+		DeflaterOutputStream deflater = null;
+		DataOutputStream out = header;
+		if (compress) {
+			deflater = new DeflaterOutputStream(stream, new Deflater(Deflater.BEST_COMPRESSION));
+			out = new DataOutputStream(deflater);
+		}
+		writeShot(out);
+		writeTable(out);
+		writeFrames(out);
+		writeEvents(out);
+		out.flush();
+		if (deflater != null) deflater.finish();
+	}
+
+	private void writeShot (DataOutputStream out) throws IOException {
+		writeVarInt(out, m_Cue);
+		out.writeFloat(m_DirX);
+		out.writeFloat(m_DirY);
+		out.writeFloat(m_DirZ);
+		out.writeFloat(m_Force);
+	}
+
+	private void writeTable (DataOutputStream out) throws IOException {
+		SpfBallTable table = m_Table;
+		int count = table.getCount();
+		writeVarInt(out, count);
+		for (int i = 0; i < 3; i++) {
+			out.writeFloat(table.getMinCoord()[i]);
+			out.writeFloat(table.getMaxCoord()[i]);
+		}
+		out.writeFloat(table.getRestitution());
+		out.writeFloat(table.getTimeStep());
+		float[][] position = table.getPositions();
+		float[][] angle = table.getAngles();
+		for (int b = 0; b < count; b++) {
+			out.writeFloat(table.getRadius(b));
+			out.writeFloat(table.getMass(b));
+			for (int i = 0; i < 3; i++) out.writeFloat(position[i][b]);
+			for (int i = 0; i < 3; i++) out.writeFloat(angle[i][b]);
+		}
+	}
+
+	private void writeFrames (DataOutputStream out) throws IOException {
+		SpfShotTimeline timeline = m_Timeline;
+		int balls = timeline.getBallCount();
+		int frames = timeline.getFrameCount();
+		float[] states = timeline.getEntryStates();
+		boolean[] keep = selectFrames();
+		int kept = 0;
+		for (int f = 0; f < frames; f++)
+			if (keep[f]) kept++;
+
+		// Estado actual de cada bola y bolas cambiadas desde el
+		// ultimo fotograma guardado.
+		float[] current = new float[balls * StateSize];
+		boolean[] changed = new boolean[balls];
+		int[] last = new int[balls * StateSize];
+		int[] delta = new int[balls * StateSize];
+		out.writeFloat(m_PositionQuantum);
+		out.writeFloat(m_AngleQuantum);
+		writeVarInt(out, kept);
+		long lastTime = 0;
+		for (int f = 0; f < frames; f++) {
+			int changes = 0;
+			for (int e = timeline.getFrameStart(f); e < timeline.getFrameEnd(f); e++) {
+				int ball = timeline.getEntryBall(e);
+				System.arraycopy(states, e * StateSize, current, ball * StateSize, StateSize);
+				changed[ball] = true;
+			}
+			if (!keep[f]) continue;
+			for (int b = 0; b < balls; b++)
+				if (changed[b]) changes++;
+
+			long time = Math.round(timeline.getFrameTime(f) / TimeQuantum);
+			writeVarLong(out, time - lastTime);
+			lastTime = time;
+			writeVarInt(out, changes);
+			int lastBall = -1;
+			for (int ball = 0; ball < balls; ball++) {
+				if (!changed[ball]) continue;
+				changed[ball] = false;
+				writeVarInt(out, ball - lastBall - 1);
+				lastBall = ball;
+				for (int k = 0; k < StateSize; k++) {
+					int index = ball * StateSize + k;
+					float quantum = k < 3 ? m_PositionQuantum : m_AngleQuantum;
+					int value = Math.round(current[index] / quantum);
+					int change = value - last[index];
+					writeVarInt(out, zigZag(change - delta[index]));
+					delta[index] = change;
+					last[index] = value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decide que fotogramas de la linea de tiempo se guardan.
+	 * @return Devuelve un array con los fotogramas a guardar.
+	 */
+	private boolean[] selectFrames () {
+		SpfShotTimeline timeline = m_Timeline;
+		int frames = timeline.getFrameCount();
+		boolean[] keep = new boolean[frames];
+		if (frames == 0) return keep;
+		keep[0] = true;
+		keep[frames - 1] = true;
+		// Fotogramas alrededor de cada evento
+		int event = 0;
+		int events = timeline.getEventCount();
+		for (int f = 1; f < frames; f++) {
+			float time = timeline.getFrameTime(f);
+			while (event < events && timeline.getEventTime(event) <= time) {
+				if (timeline.getEventTime(event) > timeline.getFrameTime(f - 1)) {
+					keep[f - 1] = true;
+					keep[f] = true;
+				}
+				event++;
+			}
+		}
+		// Fotogramas con la separacion minima
+		float lastTime = 0;
+		for (int f = 1; f < frames; f++) {
+			float time = timeline.getFrameTime(f);
+			if (time - lastTime >= m_FramePeriod) keep[f] = true;
+			if (keep[f]) lastTime = time;
+		}
+		return keep;
+	}
+
+	private void writeEvents (DataOutputStream out) throws IOException {
+		SpfShotTimeline timeline = m_Timeline;
+		int events = timeline.getEventCount();
+		writeVarInt(out, events);
+		long lastTime = 0;
+		for (int e = 0; e < events; e++) {
+			long time = Math.round(timeline.getEventTime(e) / TimeQuantum);
+			out.writeByte(timeline.getEventType(e));
+			writeVarLong(out, time - lastTime);
+			lastTime = time;
+			writeVarInt(out, timeline.getEventFirst(e));
+			writeVarInt(out, zigZag(timeline.getEventSecond(e)));
+		}
+	}
+
+	/**
+	 * Lee una grabacion de un flujo.
+	 * @param stream Flujo de entrada.
+	 * @return Devuelve la grabacion leida.
+	 * @throws java.io.IOException
+	 */
+	public static SpfShotRecording read (InputStream stream) throws IOException {
+		DataInputStream header = new DataInputStream(stream);
+		if (header.readInt() != Magic || header.readUnsignedByte() != Version)
+			throw new IOException("El formato del fichero no es correcto");
+		int options = header.readUnsignedByte();
+		DataInputStream in = header;
+		if ((options & Compressed) != 0)
+			in = new DataInputStream(new InflaterInputStream(stream));
+
+		int cue = readVarInt(in);
+		float dirX = in.readFloat();
+		float dirY = in.readFloat();
+		float dirZ = in.readFloat();
+		float force = in.readFloat();
+		SpfBallTable table = readTable(in);
+		SpfShotTimeline timeline = new SpfShotTimeline();
+		SpfShotRecording recording = new SpfShotRecording(table, cue, dirX, dirY, dirZ, force, timeline);
+		recording.readFrames(in);
+		readEvents(in, timeline);
+		return recording;
+	}
+
+	private static SpfBallTable readTable (DataInputStream in) throws IOException {
+		int count = readVarInt(in);
+		SpfBallTable table = new SpfBallTable(count);
+		for (int i = 0; i < 3; i++) {
+			table.getMinCoord()[i] = in.readFloat();
+			table.getMaxCoord()[i] = in.readFloat();
+		}
+		table.setRestitution(in.readFloat());
+		table.setTimeStep(in.readFloat());
+		float[][] angle = table.getAngles();
+		for (int b = 0; b < count; b++) {
+			float radius = in.readFloat();
+			float mass = in.readFloat();
+			float x = in.readFloat();
+			float y = in.readFloat();
+			float z = in.readFloat();
+			table.addBall(x, y, z, radius, mass);
+			for (int i = 0; i < 3; i++) angle[i][b] = in.readFloat();
+		}
+		return table;
+	}
+
+	/**
+	 * Reconstruye la linea de tiempo alimentandola con una mesa
+	 * auxiliar, igual que durante la simulacion.
+	 * @param in Flujo de entrada.
+	 * @throws java.io.IOException
+	 */
+	private void readFrames (DataInputStream in) throws IOException {
+		m_PositionQuantum = in.readFloat();
+		m_AngleQuantum = in.readFloat();
+		int balls = m_Table.getCount();
+		SpfBallTable state = m_Table.copy();
+		float[][] position = state.getPositions();
+		float[][] angle = state.getAngles();
+		int[] last = new int[balls * StateSize];
+		int[] delta = new int[balls * StateSize];
+		int frames = readVarInt(in);
+		long time = 0;
+		for (int f = 0; f < frames; f++) {
+			time += readVarLong(in);
+			int entries = readVarInt(in);
+			int ball = -1;
+			for (int e = 0; e < entries; e++) {
+				ball += readVarInt(in) + 1;
+				if (ball >= balls)
+					throw new IOException("El formato del fichero no es correcto");
+				for (int k = 0; k < StateSize; k++) {
+					int index = ball * StateSize + k;
+					delta[index] += unZigZag(readVarInt(in));
+					last[index] += delta[index];
+					if (k < 3)
+						position[k][ball] = last[index] * m_PositionQuantum;
+					else
+						angle[k - 3][ball] = last[index] * m_AngleQuantum;
+				}
+			}
+			if (f == 0)
+				m_Timeline.begin(state);
+			else
+				m_Timeline.stateUpdated(state, time * TimeQuantum);
+		}
+	}
+
+	private static void readEvents (DataInputStream in, SpfShotTimeline timeline) throws IOException {
+		int events = readVarInt(in);
+		long time = 0;
+		for (int e = 0; e < events; e++) {
+			int type = in.readUnsignedByte();
+			time += readVarLong(in);
+			int first = readVarInt(in);
+			int second = unZigZag(readVarInt(in));
+			float t = time * TimeQuantum;
+			switch (type) {
+				case SpfShotTimeline.BallCollision:
+					timeline.ballCollision(t, first, second);
+					break;
+				case SpfShotTimeline.CushionCollision:
+					timeline.cushionCollision(t, first, second);
+					break;
+				case SpfShotTimeline.BallStopped:
+					timeline.ballStopped(t, first);
+					break;
+				default:
+					throw new IOException("El formato del fichero no es correcto");
+			}
+		}
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Codificacion de enteros">
+
+	private static int zigZag (int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag (int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarInt (DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static void writeVarLong (DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int)(value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+
+	private static int readVarInt (DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("El formato del fichero no es correcto");
+	}
+
+	private static long readVarLong (DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("El formato del fichero no es correcto");
+	}
+
+	// </editor-fold>
+
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+
+	/**
+	 * @return Devuelve el estado de la mesa antes del tiro.
+	 */
+	public SpfBallTable getTable () {
+		return m_Table;
+	}
+
+	/**
+	 * @return Devuelve la bola golpeada.
+	 */
+	public int getCue () {
+		return m_Cue;
+	}
+
+	/**
+	 * @return Devuelve la direccion del tiro como (x, y, z).
+	 */
+	public float[] getDirection () {
+		return new float[] {m_DirX, m_DirY, m_DirZ};
+	}
+
+	/**
+	 * @return Devuelve el modulo de la fuerza aplicada.
+	 */
+	public float getForce () {
+		return m_Force;
+	}
+
+	/**
+	 * @return Devuelve la linea de tiempo del tiro.
+	 */
+	public SpfShotTimeline getTimeline () {
+		return m_Timeline;
+	}
+
+	// </editor-fold>
+}
@@ -0,0 +1,261 @@
+package spf.physics;
+
+/**
+ * Linea de tiempo compacta de un tiro. Se rellena como receptor
+ * de un motor de simulacion, que puede ejecutarse tan rapido como
+ * permita la CPU, y despues se reproduce a la velocidad deseada.
+ * <p>
+ * Cada fotograma guarda solo las bolas cuyo estado ha cambiado
+ * respecto al fotograma anterior: identificador, posicion y angulos
+ * de rotacion. Tambien se guarda la lista de eventos del tiro.
+ * @author Sergio Paque Martin
+ */
+public class SpfShotTimeline implements SpfShotListener {
+	/// Tipos de evento
+	public static final int BallCollision = 0;
+	public static final int CushionCollision = 1;
+	public static final int BallStopped = 2;
+	/// Valores guardados por bola: posicion y angulos
+	public static final int StateSize = 6;
+
+	private int m_BallCount;
+	/// Ultimo estado guardado de cada bola
+	private float[] m_Last = new float[0];
+
+	private int m_FrameCount;
+	private float[] m_FrameTime = new float[64];
+	private int[] m_FrameStart = new int[65];
+
+	private int m_EntryCount;
+	private int[] m_EntryBall = new int[256];
+	private float[] m_EntryState = new float[256 * StateSize];
+
+	private int m_EventCount;
+	private int[] m_EventType = new int[32];
+	private int[] m_EventFirst = new int[32];
+	private int[] m_EventSecond = new int[32];
+	private float[] m_EventTime = new float[32];
+
+	/**
+	 * Vacia la linea de tiempo y guarda el estado
+	 * inicial de todas las bolas de la mesa.
+	 * @param table Mesa de bolas.
+	 */
+	public void begin (SpfBallTable table) {
+		m_BallCount = table.getCount();
+		if (m_Last.length < m_BallCount * StateSize)
+			m_Last = new float[m_BallCount * StateSize];
+		m_FrameCount = 0;
+		m_EntryCount = 0;
+		m_EventCount = 0;
+		m_FrameStart[0] = 0;
+		addFrame(table, 0, true);
+	}
+
+	/**
+	 * Guarda un fotograma con las bolas que han cambiado.
+	 * @param table Mesa de bolas.
+	 * @param time Tiempo simulado del fotograma.
+	 */
+	public void stateUpdated (SpfBallTable table, float time) {
+		addFrame(table, time, false);
+	}
+
+	/**
+	 * Guarda un fotograma.
+	 * @param table Mesa de bolas.
+	 * @param time Tiempo simulado del fotograma.
+	 * @param all Guardar todas las bolas aunque no hayan cambiado.
+	 */
+	private void addFrame (SpfBallTable table, float time, boolean all) {
+		if (m_FrameCount == m_FrameTime.length) {
+			m_FrameTime = copyOf(m_FrameTime, m_FrameCount * 2);
+			m_FrameStart = copyOf(m_FrameStart, m_FrameCount * 2 + 1);
+		}
+		float[][] position = table.getPositions();
+		float[][] angle = table.getAngles();
+		float[] last = m_Last;
+		for (int i = 0; i < m_BallCount; i++) {
+			int k = i * StateSize;
+			if (all || last[k] != position[0][i] || last[k + 1] != position[1][i] ||
+					last[k + 2] != position[2][i] || last[k + 3] != angle[0][i] ||
+					last[k + 4] != angle[1][i] || last[k + 5] != angle[2][i]) {
+				last[k] = position[0][i];
+				last[k + 1] = position[1][i];
+				last[k + 2] = position[2][i];
+				last[k + 3] = angle[0][i];
+				last[k + 4] = angle[1][i];
+				last[k + 5] = angle[2][i];
+				addEntry(i, last, k);
+			}
+		}
+		m_FrameTime[m_FrameCount] = time;
+		m_FrameCount++;
+		m_FrameStart[m_FrameCount] = m_EntryCount;
+	}
+
+	/**
+	 * Añade el estado de una bola al fotograma actual.
+	 * @param ball Identificador de la bola.
+	 * @param state Array con el estado.
+	 * @param offset Posicion del estado en el array.
+	 */
+	private void addEntry (int ball, float[] state, int offset) {
+		if (m_EntryCount == m_EntryBall.length) {
+			m_EntryBall = copyOf(m_EntryBall, m_EntryCount * 2);
+			m_EntryState = copyOf(m_EntryState, m_EntryCount * 2 * StateSize);
+		}
+		m_EntryBall[m_EntryCount] = ball;
+		System.arraycopy(state, offset, m_EntryState, m_EntryCount * StateSize, StateSize);
+		m_EntryCount++;
+	}
+
+	public void ballCollision (float time, int first, int second) {
+		addEvent(BallCollision, time, first, second);
+	}
+
+	public void cushionCollision (float time, int ball, int axis) {
+		addEvent(CushionCollision, time, ball, axis);
+	}
+
+	public void ballStopped (float time, int ball) {
+		addEvent(BallStopped, time, ball, -1);
+	}
+
+	/**
+	 * Añade un evento a la lista de eventos del tiro.
+	 * @param type Tipo de evento.
+	 * @param time Tiempo simulado del evento.
+	 * @param first Bola afectada.
+	 * @param second Segunda bola, eje de la banda o -1.
+	 */
+	private void addEvent (int type, float time, int first, int second) {
+		if (m_EventCount == m_EventType.length) {
+			m_EventType = copyOf(m_EventType, m_EventCount * 2);
+			m_EventFirst = copyOf(m_EventFirst, m_EventCount * 2);
+			m_EventSecond = copyOf(m_EventSecond, m_EventCount * 2);
+			m_EventTime = copyOf(m_EventTime, m_EventCount * 2);
+		}
+		m_EventType[m_EventCount] = type;
+		m_EventTime[m_EventCount] = time;
+		m_EventFirst[m_EventCount] = first;
+		m_EventSecond[m_EventCount] = second;
+		m_EventCount++;
+	}
+
+	private static float[] copyOf (float[] array, int length) {
+		float[] copy = new float[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	private static int[] copyOf (int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+		return copy;
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+
+	/**
+	 * @return Devuelve el numero de bolas de la mesa.
+	 */
+	public int getBallCount () {
+		return m_BallCount;
+	}
+
+	/**
+	 * @return Devuelve la duracion simulada del tiro.
+	 */
+	public float getDuration () {
+		return m_FrameCount == 0 ? 0 : m_FrameTime[m_FrameCount - 1];
+	}
+
+	/**
+	 * @return Devuelve el numero de fotogramas.
+	 */
+	public int getFrameCount () {
+		return m_FrameCount;
+	}
+
+	/**
+	 * @param frame Indice del fotograma.
+	 * @return Devuelve el tiempo simulado del fotograma.
+	 */
+	public float getFrameTime (int frame) {
+		return m_FrameTime[frame];
+	}
+
+	/**
+	 * @param frame Indice del fotograma.
+	 * @return Devuelve la primera entrada del fotograma.
+	 */
+	public int getFrameStart (int frame) {
+		return m_FrameStart[frame];
+	}
+
+	/**
+	 * @param frame Indice del fotograma.
+	 * @return Devuelve la entrada siguiente a la ultima del fotograma.
+	 */
+	public int getFrameEnd (int frame) {
+		return m_FrameStart[frame + 1];
+	}
+
+	/**
+	 * @param entry Indice de la entrada.
+	 * @return Devuelve la bola de la entrada.
+	 */
+	public int getEntryBall (int entry) {
+		return m_EntryBall[entry];
+	}
+
+	/**
+	 * @return Devuelve el estado de todas las entradas, con
+	 * StateSize valores consecutivos por entrada.
+	 */
+	public float[] getEntryStates () {
+		return m_EntryState;
+	}
+
+	/**
+	 * @return Devuelve el numero de eventos.
+	 */
+	public int getEventCount () {
+		return m_EventCount;
+	}
+
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve el tipo del evento.
+	 */
+	public int getEventType (int event) {
+		return m_EventType[event];
+	}
+
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve el tiempo simulado del evento.
+	 */
+	public float getEventTime (int event) {
+		return m_EventTime[event];
+	}
+
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve la bola afectada por el evento.
+	 */
+	public int getEventFirst (int event) {
+		return m_EventFirst[event];
+	}
+
+	/**
+	 * @param event Indice del evento.
+	 * @return Devuelve la segunda bola, el eje de la banda o -1.
+	 */
+	public int getEventSecond (int event) {
+		return m_EventSecond[event];
+	}
+
+	// </editor-fold>
+}
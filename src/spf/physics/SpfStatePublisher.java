@@ -0,0 +1,177 @@
+package spf.physics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Publica el estado de las bolas en un fichero proyectado en memoria
+ * para que otros procesos (marcadores, codificadores de video,
+ * herramientas de analisis) puedan leerlo sin bloqueos ni sockets.
+ * <p>
+ * El acceso se protege con un seqlock: el escritor pone el numero de
+ * secuencia en impar, escribe el estado y lo pone en el siguiente
+ * numero par. Un lector copia el estado entre dos lecturas de la
+ * secuencia y lo descarta si no coinciden o si la primera es impar.
+ * El escritor nunca espera a los lectores.
+ * <p>
+ * Formato del fichero (little-endian):
+ * <pre>
+ *  0  int   Magic
+ *  4  int   Version
+ *  8  int   capacidad (bolas)
+ * 12  int   numero de bolas publicadas
+ * 16  long  secuencia
+ * 24  float tiempo del estado
+ * 28  int   reservado
+ * 32  bolas, RecordSize bytes por bola:
+ *     float x, y, z, vx, vy, vz; int flags (bit 0 = en movimiento)
+ * </pre>
+ * Solo un hilo debe escribir en cada publicador.
+ * @author Sergio Paque Martin
+ */
+public class SpfStatePublisher {
+	public static final int Magic = 0x53504653;
+	public static final int Version = 1;
+	/// Desplazamientos de la cabecera
+	public static final int CapacityOffset = 8;
+	public static final int CountOffset = 12;
+	public static final int SequenceOffset = 16;
+	public static final int TimeOffset = 24;
+	public static final int HeaderSize = 32;
+	/// Bytes por bola
+	public static final int RecordSize = 28;
+	/// Bit de la bola en movimiento
+	public static final int Moving = 1;
+
+	/// Acceso con orden de memoria a la secuencia
+	static final VarHandle Sequence = MethodHandles.byteBufferViewVarHandle(
+			long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private RandomAccessFile m_File;
+	private MappedByteBuffer m_Buffer;
+	private int m_Capacity;
+	private long m_Sequence;
+
+	/**
+	 * Constructor de SpfStatePublisher. Crea (o reutiliza) el fichero
+	 * y lo proyecta en memoria con espacio para el numero de bolas dado.
+	 * @param file Fichero compartido.
+	 * @param capacity Numero maximo de bolas.
+	 * @throws java.io.IOException
+	 */
+	public SpfStatePublisher (File file, int capacity) throws IOException {
+		m_Capacity = capacity;
+		m_File = new RandomAccessFile(file, "rw");
+		int size = HeaderSize + capacity * RecordSize;
+		m_File.setLength(size);
+		m_Buffer = m_File.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		m_Buffer.order(ByteOrder.LITTLE_ENDIAN);
+		// Si el fichero ya existia se continua su secuencia, de forma
+		// que los lectores abiertos no confundan dos estados.
+		long sequence = (Long)Sequence.getAcquire(m_Buffer, SequenceOffset);
+		m_Sequence = (sequence + 1) & ~1L;
+		Sequence.setRelease(m_Buffer, SequenceOffset, m_Sequence + 1);
+		m_Buffer.putInt(0, Magic);
+		m_Buffer.putInt(4, Version);
+		m_Buffer.putInt(CapacityOffset, capacity);
+		m_Buffer.putInt(CountOffset, 0);
+		m_Buffer.putFloat(TimeOffset, 0);
+		Sequence.setRelease(m_Buffer, SequenceOffset, m_Sequence);
+	}
+
+	/**
+	 * Comienza la escritura de un estado. Hasta la llamada a end
+	 * los lectores descartan lo que lean.
+	 * @param count Numero de bolas del estado.
+	 * @param time Tiempo del estado.
+	 */
+	public void begin (int count, float time) {
+		if (count > m_Capacity)
+			throw new IllegalArgumentException("Demasiadas bolas: " + count);
+		Sequence.setOpaque(m_Buffer, SequenceOffset, m_Sequence + 1);
+		// Las escrituras del estado no pueden adelantarse a la secuencia impar
+		VarHandle.storeStoreFence();
+		m_Buffer.putInt(CountOffset, count);
+		m_Buffer.putFloat(TimeOffset, time);
+	}
+
+	/**
+	 * Escribe el estado de una bola. Solo puede llamarse entre
+	 * begin y end.
+	 * @param id Identificador de la bola.
+	 * @param x Posicion en el eje X.
+	 * @param y Posicion en el eje Y.
+	 * @param z Posicion en el eje Z.
+	 * @param vx Velocidad en el eje X.
+	 * @param vy Velocidad en el eje Y.
+	 * @param vz Velocidad en el eje Z.
+	 * @param moving Si la bola esta en movimiento.
+	 */
+	public void putBall (int id, float x, float y, float z,
+			float vx, float vy, float vz, boolean moving) {
+		int k = HeaderSize + id * RecordSize;
+		MappedByteBuffer buffer = m_Buffer;
+		buffer.putFloat(k, x);
+		buffer.putFloat(k + 4, y);
+		buffer.putFloat(k + 8, z);
+		buffer.putFloat(k + 12, vx);
+		buffer.putFloat(k + 16, vy);
+		buffer.putFloat(k + 20, vz);
+		buffer.putInt(k + 24, moving ? Moving : 0);
+	}
+
+	/**
+	 * Termina la escritura de un estado y lo hace visible a los lectores.
+	 */
+	public void end () {
+		m_Sequence += 2;
+		Sequence.setRelease(m_Buffer, SequenceOffset, m_Sequence);
+	}
+
+	/**
+	 * Publica el estado actual de una mesa de bolas.
+	 * @param table Mesa de bolas.
+	 * @param time Tiempo del estado.
+	 */
+	public void publish (SpfBallTable table, float time) {
+		int count = table.getCount();
+		float[][] position = table.getPositions();
+		float[][] velocity = table.getVelocities();
+		begin(count, time);
+		for (int i = 0; i < count; i++) {
+			putBall(i, position[0][i], position[1][i], position[2][i],
+					velocity[0][i], velocity[1][i], velocity[2][i],
+					table.isMoving(i));
+		}
+		end();
+	}
+
+	/**
+	 * Cierra el fichero. El estado publicado se mantiene en el
+	 * fichero para los lectores que sigan abiertos.
+	 * @throws java.io.IOException
+	 */
+	public void close () throws IOException {
+		m_File.close();
+	}
+
+	/**
+	 * @return Devuelve el numero maximo de bolas.
+	 */
+	public int getCapacity () {
+		return m_Capacity;
+	}
+
+	/**
+	 * @return Devuelve la secuencia del ultimo estado publicado.
+	 */
+	public long getSequence () {
+		return m_Sequence;
+	}
+}
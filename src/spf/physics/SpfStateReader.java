@@ -0,0 +1,138 @@
+package spf.physics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static spf.physics.SpfStatePublisher.*;
+
+/**
+ * Lector del estado publicado por SpfStatePublisher, pensado para
+ * procesos externos que consultan periodicamente las bolas. No
+ * bloquea nunca al escritor: si un estado cambia mientras se copia,
+ * la lectura se repite.
+ * @author Sergio Paque Martin
+ */
+public class SpfStateReader {
+	private MappedByteBuffer m_Buffer;
+	private int m_Capacity;
+	private int m_Count;
+	private float m_Time;
+	private long m_Sequence = -1;
+	private float[] m_State;
+	private int[] m_Flags;
+
+	/**
+	 * Constructor de SpfStateReader.
+	 * @param file Fichero compartido.
+	 * @throws java.io.IOException
+	 */
+	public SpfStateReader (File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < HeaderSize)
+				throw new IOException("El formato del fichero no es correcto");
+			m_Buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+		m_Buffer.order(ByteOrder.LITTLE_ENDIAN);
+		m_Capacity = m_Buffer.getInt(CapacityOffset);
+		if (m_Buffer.getInt(0) != Magic || m_Buffer.getInt(4) != Version ||
+				m_Buffer.capacity() < HeaderSize + m_Capacity * RecordSize)
+			throw new IOException("El formato del fichero no es correcto");
+		m_State = new float[m_Capacity * 6];
+		m_Flags = new int[m_Capacity];
+	}
+
+	/**
+	 * Copia el ultimo estado publicado si ha cambiado desde la
+	 * ultima llamada.
+	 * @return Devuelve si hay un estado nuevo.
+	 */
+	public boolean poll () {
+		MappedByteBuffer buffer = m_Buffer;
+		while (true) {
+			long before = (Long)Sequence.getAcquire(buffer, SequenceOffset);
+			if (before == m_Sequence)
+				return false;
+			if ((before & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			int count = Math.min(buffer.getInt(CountOffset), m_Capacity);
+			float time = buffer.getFloat(TimeOffset);
+			for (int i = 0; i < count; i++) {
+				int k = HeaderSize + i * RecordSize;
+				int s = i * 6;
+				for (int j = 0; j < 6; j++)
+					m_State[s + j] = buffer.getFloat(k + j * 4);
+				m_Flags[i] = buffer.getInt(k + 24);
+			}
+			// Las lecturas del estado no pueden retrasarse tras la secuencia
+			VarHandle.loadLoadFence();
+			long after = (Long)Sequence.getOpaque(buffer, SequenceOffset);
+			if (after == before) {
+				m_Count = count;
+				m_Time = time;
+				m_Sequence = before;
+				return true;
+			}
+		}
+	}
+
+	// <editor-fold defaultstate="collapsed" desc="Accesors">
+
+	/**
+	 * @return Devuelve el numero de bolas del ultimo estado leido.
+	 */
+	public int getCount () {
+		return m_Count;
+	}
+
+	/**
+	 * @return Devuelve el tiempo del ultimo estado leido.
+	 */
+	public float getTime () {
+		return m_Time;
+	}
+
+	/**
+	 * @return Devuelve la secuencia del ultimo estado leido.
+	 */
+	public long getSequence () {
+		return m_Sequence;
+	}
+
+	/**
+	 * @param ball Identificador de la bola.
+	 * @param axis Eje (0, 1 o 2).
+	 * @return Devuelve la posicion de la bola en el eje.
+	 */
+	public float getPosition (int ball, int axis) {
+		return m_State[ball * 6 + axis];
+	}
+
+	/**
+	 * @param ball Identificador de la bola.
+	 * @param axis Eje (0, 1 o 2).
+	 * @return Devuelve la velocidad de la bola en el eje.
+	 */
+	public float getVelocity (int ball, int axis) {
+		return m_State[ball * 6 + 3 + axis];
+	}
+
+	/**
+	 * @param ball Identificador de la bola.
+	 * @return Devuelve si la bola esta en movimiento.
+	 */
+	public boolean isMoving (int ball) {
+		return (m_Flags[ball] & SpfStatePublisher.Moving) != 0;
+	}
+
+	// </editor-fold>
+}
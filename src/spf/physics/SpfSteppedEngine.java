@@ -0,0 +1,496 @@
+package spf.physics;
+
+import java.util.Arrays;
+
+/**
+ * Motor de simulacion por pasos fijos. En cada paso se detectan
+ * las colisiones entre bolas a lo largo de todo el paso y se
+ * integra el estado de las bolas despiertas mediante Runge-Kutta.
+ * Cada contacto se resuelve una sola vez, con impulsos iguales y
+ * opuestos sobre ambas bolas y en un orden determinista.
+ * Las bolas en contacto forman islas, que se duermen cuando todas
+ * sus bolas quedan en reposo, de forma que el coste de cada paso
+ * depende del numero de bolas en movimiento.
+ * @author Sergio Paque Martin
+ */
+public class SpfSteppedEngine implements SpfPhysicsEngine {
+	/// Numero de bolas dormidas fuera de la rejilla antes de reconstruirla
+	private static final int MaxPendingSleepers = 32;
+	
+	private SpfBroadphase m_Broadphase;
+	private SpfPairList m_Pairs;
+	private boolean[] m_Moving = new boolean[0];
+	/// Bolas despiertas, que se integran y se comprueban en cada paso
+	private int[] m_Awake = new int[0];
+	private int m_AwakeCount;
+	private boolean[] m_IsAwake = new boolean[0];
+	/// Rejilla con las bolas dormidas
+	private SpfUniformGrid m_SleepGrid = new SpfUniformGrid();
+	private boolean[] m_InSleepGrid = new boolean[0];
+	/// Bolas dormidas despues de construir la rejilla
+	private int[] m_Pending = new int[0];
+	private int m_PendingCount;
+	private boolean[] m_IsPending = new boolean[0];
+	/// Islas de bolas en contacto (union-find)
+	private int[] m_Parent = new int[0];
+	private boolean[] m_IslandMoving = new boolean[0];
+	/// Contactos del paso actual
+	private int[] m_ContactFirst = new int[16];
+	private int[] m_ContactSecond = new int[16];
+	private long[] m_ContactOrder = new long[16];
+	private int m_ContactCount;
+	
+	private SpfPhysicsMetrics m_Metrics;
+	private SpfKernels m_Kernels = SpfKernels.getInstance();
+	/// Instante de contacto de cada par candidato
+	private float[] m_Toi = new float[64];
+	
+	/**
+	 * Constructor de SpfSteppedEngine.
+	 */
+	public SpfSteppedEngine () {
+		this(new SpfUniformGrid());
+	}
+	
+	/**
+	 * Constructor de SpfSteppedEngine.
+	 * @param broadphase Algoritmo de fase amplia.
+	 */
+	public SpfSteppedEngine (SpfBroadphase broadphase) {
+		m_Broadphase = broadphase;
+		m_Pairs = new SpfPairList();
+	}
+	
+	/**
+	 * Establece el algoritmo de fase amplia utilizado
+	 * en la deteccion de colisiones.
+	 * @param broadphase Algoritmo de fase amplia.
+	 */
+	public void setBroadphase (SpfBroadphase broadphase) {
+		m_Broadphase = broadphase;
+	}
+	
+	/**
+	 * Establece los nucleos de calculo del paso de simulacion.
+	 * @param kernels Nucleos de calculo (escalares o vectoriales).
+	 */
+	public void setKernels (SpfKernels kernels) {
+		m_Kernels = kernels;
+	}
+	
+	/**
+	 * Establece las metricas donde se registra cada paso y cada tiro.
+	 * @param metrics Metricas de la simulacion (null para no registrar).
+	 */
+	public void setMetrics (SpfPhysicsMetrics metrics) {
+		m_Metrics = metrics;
+	}
+	
+	/**
+	 * @return Devuelve las metricas de la simulacion.
+	 */
+	public SpfPhysicsMetrics getMetrics () {
+		return m_Metrics;
+	}
+	
+	/**
+	 * Crea un motor por pasos con una copia de la fase amplia
+	 * y los mismos nucleos de calculo, sin metricas.
+	 * @return Devuelve el nuevo motor.
+	 */
+	public SpfPhysicsEngine copy () {
+		SpfSteppedEngine engine = new SpfSteppedEngine(m_Broadphase.copy());
+		engine.setKernels(m_Kernels);
+		return engine;
+	}
+	
+	/**
+	 * Realiza la simulacion fisica del tiro. Solo se integran y
+	 * comprueban las bolas despiertas; las bolas en reposo duermen
+	 * hasta que una bola en movimiento las alcanza.
+	 * @param table Mesa de bolas.
+	 * @param cue Bola golpeada.
+	 * @param fx Fuerza del tiro en el eje X.
+	 * @param fy Fuerza del tiro en el eje Y.
+	 * @param fz Fuerza del tiro en el eje Z.
+	 * @param listener Receptor de la evolucion del tiro (puede ser null).
+	 */
+	public void simulateShot (SpfBallTable table, int cue, 
+			float fx, float fy, float fz, SpfShotListener listener) {
+		int count = table.getCount();
+		resize(count);
+		boolean[] moving = m_Moving;
+		
+		// Aplicar fuerza instantanea del tiro
+		table.applyForce(cue, fx, fy, fz);
+		// Despertar la bola golpeada y las que ya se movian
+		m_AwakeCount = 0;
+		m_PendingCount = 0;
+		for (int i = 0; i < count; i++) {
+			moving[i] = false;
+			m_IsAwake[i] = false;
+			table.updateSweep(i);
+			if (i == cue || table.isMoving(i)) wake(i);
+		}
+		moving[cue] = true;
+		buildSleepGrid(table);
+		
+		SpfPhysicsMetrics metrics = m_Metrics;
+		int it = 0;
+		float time = 0;
+		while (m_AwakeCount > 0) {
+			long start = metrics != null ? System.nanoTime() : 0;
+			time = (it + 1) * table.getTimeStep();
+			// Detectar colisiones entre bolas
+			int collisions = simulateStep(table, time, listener);
+			// Actualizar estado de las bolas despiertas
+			for (int k = 0; k < m_AwakeCount; k++) {
+				int i = m_Awake[k];
+				int cushions = table.updateState(i);
+				if (cushions != 0 && listener != null) {
+					for (int axis = 0; axis < 3; axis++) {
+						if ((cushions & (1 << axis)) != 0)
+							listener.cushionCollision(time, i, axis);
+					}
+				}
+			}
+			// Comprobar que bolas siguen en movimiento y
+			// dormir las islas que han quedado en reposo
+			int movingCount = 0;
+			for (int k = 0; k < m_AwakeCount; k++) {
+				int i = m_Awake[k];
+				if (table.isMoving(i)) {
+					movingCount++;
+					moving[i] = true;
+					m_IslandMoving[find(i)] = true;
+				} else if (moving[i]) {
+					moving[i] = false;
+					if (listener != null) listener.ballStopped(time, i);
+				}
+			}
+			int k = 0;
+			while (k < m_AwakeCount) {
+				int i = m_Awake[k];
+				if (!m_IslandMoving[find(i)] && !(it == 0 && i == cue))
+					sleep(table, k);
+				else
+					k++;
+			}
+			if (listener != null) listener.stateUpdated(table, time);
+			// Retiramos la fuerza del tiro tras
+			// la primera iteracion
+			if (it == 0) table.applyForce(cue, 0, 0, 0);
+			it++;
+			if (metrics != null)
+				metrics.recordStep(System.nanoTime() - start, m_Pairs.size(), 
+						collisions, movingCount);
+		}
+		table.applyForce(cue, 0, 0, 0);
+		if (metrics != null) metrics.recordSteps(it);
+	}
+	
+	/**
+	 * Amplia los arrays de estado del motor.
+	 * @param count Numero de bolas de la mesa.
+	 */
+	private void resize (int count) {
+		if (m_Moving.length >= count) return;
+		m_Moving = new boolean[count];
+		m_Awake = new int[count];
+		m_IsAwake = new boolean[count];
+		m_InSleepGrid = new boolean[count];
+		m_Pending = new int[count];
+		m_IsPending = new boolean[count];
+		m_Parent = new int[count];
+		m_IslandMoving = new boolean[count];
+	}
+	
+	/**
+	 * Despierta una bola.
+	 * @param id Identificador de la bola.
+	 */
+	private void wake (int id) {
+		if (m_IsAwake[id]) return;
+		m_IsAwake[id] = true;
+		m_InSleepGrid[id] = false;
+		m_Awake[m_AwakeCount++] = id;
+		m_Parent[id] = id;
+		m_IslandMoving[id] = false;
+	}
+	
+	/**
+	 * Duerme una bola despierta. La bola queda pendiente de
+	 * añadir a la rejilla de bolas dormidas.
+	 * @param table Mesa de bolas.
+	 * @param index Posicion de la bola en la lista de bolas despiertas.
+	 */
+	private void sleep (SpfBallTable table, int index) {
+		int id = m_Awake[index];
+		m_Awake[index] = m_Awake[--m_AwakeCount];
+		m_IsAwake[id] = false;
+		table.updateSweep(id);
+		if (!m_IsPending[id]) {
+			m_IsPending[id] = true;
+			m_Pending[m_PendingCount++] = id;
+		}
+		if (m_PendingCount > MaxPendingSleepers)
+			buildSleepGrid(table);
+	}
+	
+	/**
+	 * Construye la rejilla con todas las bolas dormidas.
+	 * @param table Mesa de bolas.
+	 */
+	private void buildSleepGrid (SpfBallTable table) {
+		int count = table.getCount();
+		int[] ids = m_Pending;
+		int sleeping = 0;
+		for (int i = 0; i < count; i++) {
+			m_IsPending[i] = false;
+			m_InSleepGrid[i] = !m_IsAwake[i];
+			if (m_InSleepGrid[i]) ids[sleeping++] = i;
+		}
+		m_SleepGrid.build(table, ids, sleeping);
+		m_PendingCount = 0;
+	}
+	
+	/**
+	 * @param id Identificador de la bola.
+	 * @return Devuelve la raiz de la isla de la bola.
+	 */
+	private int find (int id) {
+		int[] parent = m_Parent;
+		while (parent[id] != id) {
+			parent[id] = parent[parent[id]];
+			id = parent[id];
+		}
+		return id;
+	}
+	
+	/**
+	 * Une las islas de dos bolas en contacto.
+	 * @param a Primera bola.
+	 * @param b Segunda bola.
+	 */
+	private void union (int a, int b) {
+		int ra = find(a);
+		int rb = find(b);
+		if (ra != rb) {
+			m_Parent[rb] = ra;
+			m_IslandMoving[ra] |= m_IslandMoving[rb];
+		}
+	}
+	
+	/**
+	 * Detecta colisiones de las bolas despiertas. La fase amplia
+	 * devuelve los pares candidatos entre bolas despiertas, y la
+	 * rejilla de bolas dormidas los pares con bolas en reposo;
+	 * solo sobre ellos se realiza la comprobacion exacta. La
+	 * deteccion es continua: se calcula el instante del paso en
+	 * que las bolas entran en contacto, por lo que las bolas
+	 * rapidas no se atraviesan. Una bola dormida se despierta
+	 * cuando una bola en movimiento la alcanza.
+	 * @param table Mesa de bolas.
+	 * @param time Tiempo simulado al final del paso.
+	 * @param listener Receptor de la evolucion del tiro (puede ser null).
+	 * @return Devuelve el numero de colisiones resueltas.
+	 */
+	private int simulateStep (SpfBallTable table, float time, SpfShotListener listener) {
+		float[][] position = table.getPositions();
+		float[][] sweep = table.getSweeps();
+		float[] radius = table.getRadii();
+		float dt = table.getTimeStep();
+		SpfPairList pairs = m_Pairs;
+		
+		// Las islas se recalculan en cada paso
+		int awake = m_AwakeCount;
+		m_Kernels.updateSweeps(table, m_Awake, awake);
+		for (int k = 0; k < awake; k++) {
+			int i = m_Awake[k];
+			m_Parent[i] = i;
+			m_IslandMoving[i] = false;
+		}
+		m_Broadphase.findPairs(table, m_Awake, awake, pairs);
+		for (int k = 0; k < awake; k++) {
+			int i = m_Awake[k];
+			m_SleepGrid.queryPairs(table, i, m_InSleepGrid, pairs);
+			for (int p = 0; p < m_PendingCount; p++) {
+				int j = m_Pending[p];
+				if (!m_IsAwake[j] && SpfUniformGrid.overlaps(position[0], sweep[0], radius, i, j) &&
+						SpfUniformGrid.overlaps(position[2], sweep[2], radius, i, j) &&
+						SpfUniformGrid.overlaps(position[1], sweep[1], radius, i, j)) {
+					if (i < j)
+						pairs.add(i, j);
+					else
+						pairs.add(j, i);
+				}
+			}
+		}
+		// Cada par se comprueba una sola vez
+		m_ContactCount = 0;
+		int size = pairs.size();
+		if (m_Toi.length < size)
+			m_Toi = new float[Math.max(size, m_Toi.length * 2)];
+		m_Kernels.timesOfImpact(table, pairs.getFirsts(), pairs.getSeconds(), size, m_Toi);
+		for (int k = 0; k < size; k++) {
+			if (m_Toi[k] >= 0) addContact(pairs.getFirst(k), pairs.getSecond(k), m_Toi[k]);
+		}
+		sortContacts();
+		
+		// Resolver los contactos en orden, recalculando el instante
+		// de cada uno por si un contacto anterior ha cambiado el
+		// movimiento de sus bolas.
+		int collisions = 0;
+		for (int c = 0; c < m_ContactCount; c++) {
+			int index = (int)m_ContactOrder[c];
+			int i = m_ContactFirst[index];
+			int j = m_ContactSecond[index];
+			float toi = timeOfImpact(table, i, j);
+			if (toi < 0) continue;
+			wake(i);
+			wake(j);
+			union(i, j);
+			
+			// Llevar las bolas al instante del contacto
+			for (int axis = 0; axis < 3; axis++) {
+				position[axis][i] += sweep[axis][i] * toi;
+				position[axis][j] += sweep[axis][j] * toi;
+			}
+			boolean resolved = table.resolveContact(i, j, 
+					position[0][j] - position[0][i],
+					position[1][j] - position[1][i],
+					position[2][j] - position[2][i]);
+			// Retroceder las bolas con su nueva velocidad, de forma
+			// que al integrar el paso completo terminen donde les
+			// corresponde tras el rebote.
+			table.updateSweep(i);
+			table.updateSweep(j);
+			for (int axis = 0; axis < 3; axis++) {
+				position[axis][i] -= sweep[axis][i] * toi;
+				position[axis][j] -= sweep[axis][j] * toi;
+			}
+			if (resolved) {
+				collisions++;
+				if (listener != null) 
+					listener.ballCollision(time - (1 - toi) * dt, i, j);
+			}
+		}
+		return collisions;
+	}
+	
+	/**
+	 * Añade un contacto a la lista de contactos del paso.
+	 * @param first Primera bola.
+	 * @param second Segunda bola.
+	 * @param toi Fraccion del paso en que se produce el contacto.
+	 */
+	private void addContact (int first, int second, float toi) {
+		int n = m_ContactCount;
+		if (n == m_ContactFirst.length) {
+			m_ContactFirst = Arrays.copyOf(m_ContactFirst, n * 2);
+			m_ContactSecond = Arrays.copyOf(m_ContactSecond, n * 2);
+			// Las claves de los contactos ya añadidos tambien se conservan
+			m_ContactOrder = Arrays.copyOf(m_ContactOrder, n * 2);
+		}
+		m_ContactFirst[n] = first;
+		m_ContactSecond[n] = second;
+		// Clave de ordenacion: el instante en los 32 bits altos (los
+		// bits de un float positivo mantienen su orden) y la posicion
+		// del contacto en los bajos.
+		m_ContactOrder[n] = ((long)Float.floatToIntBits(toi) << 32) | n;
+		m_ContactCount++;
+	}
+	
+	/**
+	 * Ordena los contactos por instante y, a igual instante, por
+	 * sus bolas, de forma que el resultado no depende del orden
+	 * en que la fase amplia devuelve los pares.
+	 */
+	private void sortContacts () {
+		long[] order = m_ContactOrder;
+		int n = m_ContactCount;
+		Arrays.sort(order, 0, n);
+		// Los contactos simultaneos (por ejemplo en la salida)
+		// son pocos, por lo que basta la ordenacion por insercion.
+		int start = 0;
+		while (start < n) {
+			int end = start + 1;
+			while (end < n && (order[end] >>> 32) == (order[start] >>> 32)) end++;
+			for (int a = start + 1; a < end; a++) {
+				long key = order[a];
+				int b = a - 1;
+				while (b >= start && compareBalls((int)order[b], (int)key) > 0) {
+					order[b + 1] = order[b];
+					b--;
+				}
+				order[b + 1] = key;
+			}
+			start = end;
+		}
+	}
+	
+	/**
+	 * Compara las bolas de dos contactos.
+	 * @param a Posicion del primer contacto.
+	 * @param b Posicion del segundo contacto.
+	 * @return Devuelve un valor negativo, cero o positivo segun el
+	 * primer contacto vaya antes, igual o despues que el segundo.
+	 */
+	private int compareBalls (int a, int b) {
+		if (m_ContactFirst[a] != m_ContactFirst[b])
+			return m_ContactFirst[a] < m_ContactFirst[b] ? -1 : 1;
+		if (m_ContactSecond[a] != m_ContactSecond[b])
+			return m_ContactSecond[a] < m_ContactSecond[b] ? -1 : 1;
+		return 0;
+	}
+	
+	/**
+	 * Calcula el instante del paso en que dos bolas entran en contacto.
+	 * @param table Mesa de bolas.
+	 * @param i Primera bola.
+	 * @param j Segunda bola.
+	 * @return Devuelve la fraccion del paso en que se produce
+	 * el contacto, o -1 si no se produce.
+	 */
+	private static float timeOfImpact (SpfBallTable table, int i, int j) {
+		float[][] position = table.getPositions();
+		float[][] sweep = table.getSweeps();
+		float[] radius = table.getRadii();
+		return timeOfImpact(
+				position[0][j] - position[0][i], 
+				position[1][j] - position[1][i], 
+				position[2][j] - position[2][i],
+				sweep[0][j] - sweep[0][i],
+				sweep[1][j] - sweep[1][i],
+				sweep[2][j] - sweep[2][i],
+				radius[i] + radius[j]);
+	}
+	
+	/**
+	 * Calcula el instante en que dos esferas que se desplazan en
+	 * linea recta entran en contacto.
+	 * @param dx Posicion relativa en el eje X.
+	 * @param dy Posicion relativa en el eje Y.
+	 * @param dz Posicion relativa en el eje Z.
+	 * @param sx Desplazamiento relativo en el eje X.
+	 * @param sy Desplazamiento relativo en el eje Y.
+	 * @param sz Desplazamiento relativo en el eje Z.
+	 * @param minDistance Suma de los radios.
+	 * @return Devuelve la fraccion del desplazamiento (entre 0 y 1)
+	 * en que se produce el contacto, o -1 si no se produce.
+	 */
+	static float timeOfImpact (float dx, float dy, float dz, 
+			float sx, float sy, float sz, float minDistance) {
+		// Resolver |d + t*s| = minDistance
+		float b = dx*sx + dy*sy + dz*sz;
+		// Si las bolas no se acercan no hay contacto
+		if (b >= 0) return -1;
+		float c = dx*dx + dy*dy + dz*dz - minDistance*minDistance;
+		if (c <= 0) return 0;
+		float a = sx*sx + sy*sy + sz*sz;
+		float disc = b*b - a*c;
+		if (disc < 0) return -1;
+		float t = (-b - (float)Math.sqrt(disc)) / a;
+		return t <= 1 ? t : -1;
+	}
+}
@@ -0,0 +1,129 @@
+package spf.physics;
+
+/**
+ * Fase amplia basada en barrido y poda sobre el eje X. Las
+ * bolas se mantienen ordenadas por el extremo inferior de su
+ * caja entre pasos, por lo que la ordenacion por insercion es
+ * practicamente lineal gracias a la coherencia temporal.
+ * @author Sergio Paque Martin
+ */
+public class SpfSweepAndPrune implements SpfBroadphase {
+	private int[] m_Order = new int[0];
+	private int m_OrderSize;
+	private int[] m_Mark = new int[0];
+	private int m_Stamp;
+
+	/**
+	 * Crea una fase amplia de barrido y poda sin bolas ordenadas.
+	 * @return Devuelve la nueva fase amplia.
+	 */
+	public SpfBroadphase copy () {
+		return new SpfSweepAndPrune();
+	}
+
+	/**
+	 * Calcula los pares de bolas candidatos a colisionar.
+	 * @param table Mesa de bolas.
+	 * @param pairs Lista donde se guardan los pares candidatos.
+	 */
+	public void findPairs (SpfBallTable table, SpfPairList pairs) {
+		findPairs(table, null, table.getCount(), pairs);
+	}
+
+	/**
+	 * Calcula los pares candidatos a colisionar dentro de un
+	 * subconjunto de las bolas de la mesa.
+	 * @param table Mesa de bolas.
+	 * @param ids Identificadores de las bolas del subconjunto
+	 * (null para usar las primeras count bolas).
+	 * @param count Numero de bolas del subconjunto.
+	 * @param pairs Lista donde se guardan los pares candidatos.
+	 */
+	public void findPairs (SpfBallTable table, int[] ids, int count, SpfPairList pairs) {
+		pairs.clear();
+		if (count < 2) return;
+
+		float[] x = table.getPositions()[0];
+		float[] y = table.getPositions()[1];
+		float[] z = table.getPositions()[2];
+		float[] radius = table.getRadii();
+		float[][] sweep = table.getSweeps();
+		float[] sx = sweep[0];
+		float[] sy = sweep[1];
+		float[] sz = sweep[2];
+
+		// Reiniciar el orden si cambia el conjunto de bolas
+		if (!sameBalls(table.getCount(), ids, count)) {
+			if (m_Order.length < count)
+				m_Order = new int[count];
+			for (int k = 0; k < count; k++) m_Order[k] = ids == null ? k : ids[k];
+			m_OrderSize = count;
+		}
+		int[] order = m_Order;
+
+		// Ordenacion por insercion segun el extremo inferior en X
+		for (int a = 1; a < count; a++) {
+			int id = order[a];
+			float key = lower(x, sx, radius, id);
+			int b = a - 1;
+			while (b >= 0 && lower(x, sx, radius, order[b]) > key) {
+				order[b + 1] = order[b];
+				b--;
+			}
+			order[b + 1] = id;
+		}
+
+		// Barrido: solo se comparan las bolas cuyos
+		// intervalos en X se solapan.
+		for (int a = 0; a < count; a++) {
+			int i = order[a];
+			float maxX = x[i] + Math.max(sx[i], 0) + radius[i];
+			for (int b = a + 1; b < count; b++) {
+				int j = order[b];
+				if (lower(x, sx, radius, j) >= maxX) break;
+				if (SpfUniformGrid.overlaps(z, sz, radius, i, j) &&
+						SpfUniformGrid.overlaps(y, sy, radius, i, j)) {
+					if (i < j)
+						pairs.add(i, j);
+					else
+						pairs.add(j, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param p Posiciones de las bolas en el eje.
+	 * @param d Desplazamientos de las bolas en el eje.
+	 * @param radius Radios de las bolas.
+	 * @param id Identificador de la bola.
+	 * @return Devuelve el extremo inferior de la caja de la bola en el eje.
+	 */
+	private static float lower (float[] p, float[] d, float[] radius, int id) {
+		return p[id] + Math.min(d[id], 0) - radius[id];
+	}
+
+	/**
+	 * Comprueba si el orden guardado contiene las mismas bolas
+	 * que el subconjunto indicado.
+	 * @param total Numero de bolas de la mesa.
+	 * @param ids Identificadores de las bolas del subconjunto (o null).
+	 * @param count Numero de bolas del subconjunto.
+	 * @return Devuelve si el conjunto de bolas no ha cambiado.
+	 */
+	private boolean sameBalls (int total, int[] ids, int count) {
+		if (m_OrderSize != count) return false;
+		if (m_Mark.length < total) {
+			m_Mark = new int[total];
+			m_Stamp = 0;
+		}
+		m_Stamp++;
+		for (int k = 0; k < count; k++)
+			m_Mark[ids == null ? k : ids[k]] = m_Stamp;
+		for (int k = 0; k < count; k++) {
+			int id = m_Order[k];
+			if (id >= total || m_Mark[id] != m_Stamp) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,143 @@
+package spf.physics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import spf.xml.SpfXmlReader;
+
+/**
+ * Carga las bolas de un fichero de escena (balls.xml) en una mesa
+ * de bolas sin crear el grafo de escena, de forma que los tiros
+ * pueden simularse sin pantalla ni bibliotecas de Java3D.
+ * <p>
+ * Se leen los objetos de tipo Sphere con su nombre, su radio,
+ * su masa (atributo opcional "mass") y la traslacion del
+ * TransformGroup que los contiene.
+ * @author Sergio Paque Martin
+ */
+public class SpfTableLoader {
+	/// Nombre de la bola blanca en los ficheros de escena
+	public static final String CueBallName = "BolaBlanca";
+	
+	private List<String> m_Names = new ArrayList<String>();
+	private List<float[]> m_Balls = new ArrayList<float[]>();
+	
+	/**
+	 * Constructor de SpfTableLoader.
+	 * @param file Fichero de escena con las bolas.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public SpfTableLoader (File file) throws IllegalArgumentException {
+		SpfXmlReader reader = new SpfXmlReader(file);
+		try {
+			if (reader.getNodeName().compareTo("SPF") != 0 || !reader.nextChild() ||
+					reader.getNodeName().compareTo("Scene") != 0)
+				throw new IllegalArgumentException("El formato del fichero no es correcto");
+			loadChildren(reader);
+			reader.finish();
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Recorre los hijos del elemento actual buscando esferas.
+	 * @param reader Lector situado en el elemento.
+	 */
+	private void loadChildren (SpfXmlReader reader) {
+		while (reader.nextChild()) {
+			if (reader.getNodeName().compareTo("TransformGroup") == 0)
+				loadTransformGroup(reader);
+			else
+				loadChildren(reader);
+		}
+	}
+	
+	/**
+	 * Lee la esfera de un TransformGroup, si su primer hijo lo es.
+	 * @param reader Lector situado en el TransformGroup.
+	 */
+	private void loadTransformGroup (SpfXmlReader reader) {
+		// Los atributos solo pueden leerse antes de pasar a los hijos
+		String x = reader.getAttribute("transX");
+		String y = reader.getAttribute("transY");
+		String z = reader.getAttribute("transZ");
+		if (reader.nextChild()) {
+			if (reader.getNodeName().compareTo("Object") == 0 &&
+					reader.getAttribute("type").compareToIgnoreCase("Sphere") == 0) {
+				m_Names.add(reader.getAttribute("name"));
+				m_Balls.add(new float[] {
+					parse(x, 0),
+					parse(y, 0),
+					parse(z, 0),
+					parse(reader.getAttribute("radius"), 1),
+					parse(reader.getAttribute("mass"), 1)
+				});
+			}
+			reader.skipNode();
+			while (reader.nextChild())
+				reader.skipNode();
+		}
+	}
+	
+	/**
+	 * Lee un atributo numerico.
+	 * @param attribute Valor del atributo, vacio si no existe.
+	 * @param value Valor por defecto.
+	 * @return Devuelve el valor del atributo o el valor por defecto.
+	 */
+	private static float parse (String attribute, float value) {
+		if (attribute.length() > 0)
+			value = Float.parseFloat(attribute);
+		return value;
+	}
+	
+	/**
+	 * @param balls Numero de bolas sin contar la blanca.
+	 * @return Devuelve los nombres de las bolas de una partida,
+	 * empezando por la blanca, en el orden de sus identificadores.
+	 */
+	public static String[] getGameBallNames (int balls) {
+		String[] names = new String[balls + 1];
+		names[0] = CueBallName;
+		for (int i = 1; i <= balls; i++)
+			names[i] = "Bola" + i;
+		return names;
+	}
+	
+	/**
+	 * @return Devuelve los nombres de las esferas leidas,
+	 * en el orden del fichero.
+	 */
+	public List<String> getNames () {
+		return m_Names;
+	}
+	
+	/**
+	 * Crea una mesa con todas las esferas leidas, en el
+	 * orden del fichero.
+	 * @return Devuelve la mesa de bolas.
+	 */
+	public SpfBallTable createTable () {
+		return createTable(m_Names.toArray(new String[m_Names.size()]));
+	}
+	
+	/**
+	 * Crea una mesa con las esferas indicadas. El identificador
+	 * de cada bola en la mesa es su posicion en el array.
+	 * @param names Nombres de las esferas.
+	 * @return Devuelve la mesa de bolas.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public SpfBallTable createTable (String[] names) throws IllegalArgumentException {
+		SpfBallTable table = new SpfBallTable(names.length);
+		for (String name : names) {
+			int index = m_Names.indexOf(name);
+			if (index < 0)
+				throw new IllegalArgumentException("No se encuentra la bola " + name);
+			float[] ball = m_Balls.get(index);
+			table.addBall(ball[0], ball[1], ball[2], ball[3], ball[4]);
+		}
+		return table;
+	}
+}
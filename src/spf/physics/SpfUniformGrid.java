@@ -0,0 +1,253 @@
+package spf.physics;
+
+/**
+ * Fase amplia basada en una rejilla uniforme sobre el plano
+ * de la mesa (ejes X y Z). El tamaño de celda es por defecto
+ * el diametro de la bola mas grande, de forma que dos bolas
+ * en contacto siempre estan en celdas vecinas. Las bolas se
+ * ordenan por celda mediante ordenacion por recuento, sin
+ * crear objetos en cada paso.
+ * <p>
+ * La rejilla tambien puede construirse una vez y consultarse
+ * despues con la caja de otra bola (queryPairs), lo que permite
+ * indexar las bolas en reposo, que no cambian entre pasos.
+ * @author Sergio Paque Martin
+ */
+public class SpfUniformGrid implements SpfBroadphase {
+	private float m_CellSize;
+	private int[] m_CellStart = new int[0];
+	private int[] m_CellOf = new int[0];
+	private int[] m_Sorted = new int[0];
+	/// Rejilla construida
+	private float m_MinX;
+	private float m_MinZ;
+	private float m_Cell;
+	private int m_Cols;
+	private int m_Rows;
+	private int m_Count;
+
+	/**
+	 * Constructor de SpfUniformGrid. El tamaño de celda
+	 * se calcula a partir del radio de las bolas.
+	 */
+	public SpfUniformGrid () {
+		this(0);
+	}
+
+	/**
+	 * Constructor de SpfUniformGrid.
+	 * @param cellSize Tamaño de celda, 0 para calcularlo
+	 * a partir del radio de las bolas.
+	 */
+	public SpfUniformGrid (float cellSize) {
+		m_CellSize = cellSize;
+	}
+
+	/**
+	 * Crea una rejilla vacia con el mismo tamaño de celda.
+	 * @return Devuelve la nueva rejilla.
+	 */
+	public SpfBroadphase copy () {
+		return new SpfUniformGrid(m_CellSize);
+	}
+
+	/**
+	 * Calcula los pares de bolas candidatos a colisionar.
+	 * @param table Mesa de bolas.
+	 * @param pairs Lista donde se guardan los pares candidatos.
+	 */
+	public void findPairs (SpfBallTable table, SpfPairList pairs) {
+		findPairs(table, null, table.getCount(), pairs);
+	}
+
+	/**
+	 * Calcula los pares candidatos a colisionar dentro de un
+	 * subconjunto de las bolas de la mesa.
+	 * @param table Mesa de bolas.
+	 * @param ids Identificadores de las bolas del subconjunto
+	 * (null para usar las primeras count bolas).
+	 * @param count Numero de bolas del subconjunto.
+	 * @param pairs Lista donde se guardan los pares candidatos.
+	 */
+	public void findPairs (SpfBallTable table, int[] ids, int count, SpfPairList pairs) {
+		pairs.clear();
+		if (count < 2) return;
+		build(table, ids, count);
+
+		float[] x = table.getPositions()[0];
+		float[] y = table.getPositions()[1];
+		float[] z = table.getPositions()[2];
+		float[] radius = table.getRadii();
+		float[][] sweep = table.getSweeps();
+		int[] start = m_CellStart;
+		int[] cellOf = m_CellOf;
+		int[] sorted = m_Sorted;
+		int cols = m_Cols;
+		int rows = m_Rows;
+
+		for (int k = 0; k < count; k++) {
+			int i = ids == null ? k : ids[k];
+			int cx = cellOf[k] % cols;
+			int cz = cellOf[k] / cols;
+			for (int nz = Math.max(cz - 1, 0); nz <= Math.min(cz + 1, rows - 1); nz++) {
+				for (int nx = Math.max(cx - 1, 0); nx <= Math.min(cx + 1, cols - 1); nx++) {
+					int c = nz * cols + nx;
+					for (int e = start[c]; e < start[c + 1]; e++) {
+						int j = sorted[e];
+						if (j <= i) continue;
+						if (overlaps(x, sweep[0], radius, i, j) &&
+								overlaps(z, sweep[2], radius, i, j) &&
+								overlaps(y, sweep[1], radius, i, j)) {
+							pairs.add(i, j);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Construye la rejilla con un subconjunto de las bolas.
+	 * Cada bola se coloca en la celda del centro de su caja,
+	 * que incluye el desplazamiento del paso.
+	 * @param table Mesa de bolas.
+	 * @param ids Identificadores de las bolas del subconjunto
+	 * (null para usar las primeras count bolas).
+	 * @param count Numero de bolas del subconjunto.
+	 */
+	public void build (SpfBallTable table, int[] ids, int count) {
+		m_Count = count;
+		if (count == 0) return;
+		float[] x = table.getPositions()[0];
+		float[] z = table.getPositions()[2];
+		float[] radius = table.getRadii();
+		float[] sx = table.getSweeps()[0];
+		float[] sz = table.getSweeps()[2];
+
+		int first = ids == null ? 0 : ids[0];
+		float maxExtent = 0;
+		float minX = x[first] + sx[first]/2, maxX = minX;
+		float minZ = z[first] + sz[first]/2, maxZ = minZ;
+		for (int k = 0; k < count; k++) {
+			int i = ids == null ? k : ids[k];
+			float extent = radius[i] + Math.max(Math.abs(sx[i]), Math.abs(sz[i]))/2;
+			if (extent > maxExtent) maxExtent = extent;
+			float cx = x[i] + sx[i]/2;
+			float cz = z[i] + sz[i]/2;
+			if (cx < minX) minX = cx;
+			if (cx > maxX) maxX = cx;
+			if (cz < minZ) minZ = cz;
+			if (cz > maxZ) maxZ = cz;
+		}
+		float cell = Math.max(m_CellSize, 2 * maxExtent);
+		if (cell <= 0) cell = 1;
+		int cols = (int)((maxX - minX) / cell) + 1;
+		int rows = (int)((maxZ - minZ) / cell) + 1;
+		// Evitar rejillas muy dispersas cuando las bolas estan
+		// muy separadas respecto a su tamaño.
+		while ((long)cols * rows > 4L * count + 64) {
+			cell *= 2;
+			cols = (int)((maxX - minX) / cell) + 1;
+			rows = (int)((maxZ - minZ) / cell) + 1;
+		}
+		int cells = cols * rows;
+
+		if (m_CellStart.length < cells + 1)
+			m_CellStart = new int[cells + 1];
+		if (m_CellOf.length < count) {
+			m_CellOf = new int[count];
+			m_Sorted = new int[count];
+		}
+		int[] start = m_CellStart;
+		int[] cellOf = m_CellOf;
+		int[] sorted = m_Sorted;
+
+		// Ordenacion por recuento de las bolas segun su celda
+		for (int c = 0; c <= cells; c++) start[c] = 0;
+		for (int k = 0; k < count; k++) {
+			int i = ids == null ? k : ids[k];
+			int cx = (int)((x[i] + sx[i]/2 - minX) / cell);
+			int cz = (int)((z[i] + sz[i]/2 - minZ) / cell);
+			cellOf[k] = cz * cols + cx;
+			start[cellOf[k] + 1]++;
+		}
+		for (int c = 0; c < cells; c++) start[c + 1] += start[c];
+		for (int k = 0; k < count; k++) {
+			sorted[start[cellOf[k]]++] = ids == null ? k : ids[k];
+		}
+		// Restaurar el inicio de cada celda
+		for (int c = cells; c > 0; c--) start[c] = start[c - 1];
+		start[0] = 0;
+
+		m_MinX = minX;
+		m_MinZ = minZ;
+		m_Cell = cell;
+		m_Cols = cols;
+		m_Rows = rows;
+	}
+
+	/**
+	 * Busca en la rejilla construida las bolas cuya caja se solapa
+	 * con la de una bola que no pertenece a la rejilla.
+	 * @param table Mesa de bolas.
+	 * @param id Bola consultada.
+	 * @param include Bolas de la rejilla que se tienen en cuenta
+	 * (null para tenerlas en cuenta todas).
+	 * @param pairs Lista donde se añaden los pares candidatos.
+	 */
+	public void queryPairs (SpfBallTable table, int id, boolean[] include, SpfPairList pairs) {
+		if (m_Count == 0) return;
+		float[] x = table.getPositions()[0];
+		float[] y = table.getPositions()[1];
+		float[] z = table.getPositions()[2];
+		float[] radius = table.getRadii();
+		float[][] sweep = table.getSweeps();
+		int[] start = m_CellStart;
+		int[] sorted = m_Sorted;
+
+		// Las bolas de la rejilla estan en la celda del centro de su
+		// caja, por lo que basta con ampliar la consulta en la mitad
+		// del tamaño de celda, que es mayor que cualquiera de ellas.
+		float reachX = radius[id] + m_Cell / 2;
+		float x0 = x[id] + Math.min(sweep[0][id], 0) - reachX;
+		float x1 = x[id] + Math.max(sweep[0][id], 0) + reachX;
+		float z0 = z[id] + Math.min(sweep[2][id], 0) - reachX;
+		float z1 = z[id] + Math.max(sweep[2][id], 0) + reachX;
+		int cx0 = Math.max((int)Math.floor((x0 - m_MinX) / m_Cell), 0);
+		int cx1 = Math.min((int)Math.floor((x1 - m_MinX) / m_Cell), m_Cols - 1);
+		int cz0 = Math.max((int)Math.floor((z0 - m_MinZ) / m_Cell), 0);
+		int cz1 = Math.min((int)Math.floor((z1 - m_MinZ) / m_Cell), m_Rows - 1);
+		for (int cz = cz0; cz <= cz1; cz++) {
+			for (int cx = cx0; cx <= cx1; cx++) {
+				int c = cz * m_Cols + cx;
+				for (int e = start[c]; e < start[c + 1]; e++) {
+					int j = sorted[e];
+					if (j == id || (include != null && !include[j])) continue;
+					if (overlaps(x, sweep[0], radius, id, j) &&
+							overlaps(z, sweep[2], radius, id, j) &&
+							overlaps(y, sweep[1], radius, id, j)) {
+						if (id < j)
+							pairs.add(id, j);
+						else
+							pairs.add(j, id);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Comprueba si las cajas de dos bolas, incluyendo su
+	 * desplazamiento, se solapan en un eje.
+	 * @param p Posiciones de las bolas en el eje.
+	 * @param d Desplazamientos de las bolas en el eje.
+	 * @param radius Radios de las bolas.
+	 * @param i Primera bola.
+	 * @param j Segunda bola.
+	 * @return Devuelve si las cajas se solapan.
+	 */
+	static boolean overlaps (float[] p, float[] d, float[] radius, int i, int j) {
+		float distance = Math.abs(p[j] + d[j]/2 - p[i] - d[i]/2);
+		return distance < radius[i] + radius[j] + (Math.abs(d[i]) + Math.abs(d[j]))/2;
+	}
+}
@@ -0,0 +1,210 @@
+package spf.server;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import spf.physics.SpfShotOutcome;
+import spf.physics.SpfTableLoader;
+
+/**
+ * Servidor de simulacion con muchas mesas independientes sin interfaz
+ * grafica en una sola JVM.
+ * <p>
+ * Cada tiro se ejecuta en un hilo virtual si la JVM los admite (Java
+ * 21 o posterior, buscados por reflexion para poder compilar con
+ * versiones anteriores) y en otro caso en un pool de hilos acotado.
+ * Un semaforo justo limita las simulaciones simultaneas. Cada mesa
+ * tiene como mucho una tarea en el planificador, y tras cada tiro
+ * vuelve al final de la cola, de forma que una mesa con muchos tiros
+ * pendientes no acapara el servidor.
+ * @author Sergio Paque Martin
+ */
+public class SpfTableServer {
+	private SpfTableLoader m_Loader;
+	private String[] m_BallNames;
+	private ConcurrentHashMap<String, SpfTableSession> m_Sessions =
+			new ConcurrentHashMap<String, SpfTableSession>();
+	private ExecutorService m_Executor;
+	private boolean m_Virtual;
+	private Semaphore m_Simulations;
+	private int m_MaxSimulations;
+
+	/**
+	 * Constructor de SpfTableServer.
+	 * @param loader Cargador con las bolas de la mesa inicial.
+	 * @param balls Numero de bolas de color de cada mesa.
+	 * @param maxSimulations Numero maximo de simulaciones simultaneas.
+	 */
+	public SpfTableServer (SpfTableLoader loader, int balls, int maxSimulations) {
+		m_Loader = loader;
+		m_BallNames = SpfTableLoader.getGameBallNames(balls);
+		m_MaxSimulations = maxSimulations;
+		m_Simulations = new Semaphore(maxSimulations, true);
+		m_Executor = createVirtualExecutor();
+		m_Virtual = m_Executor != null;
+		if (!m_Virtual)
+			m_Executor = Executors.newFixedThreadPool(maxSimulations, new DaemonFactory());
+	}
+
+	/**
+	 * Crea un ejecutor con un hilo virtual por tarea.
+	 * @return Devuelve el ejecutor, o null si la JVM no tiene hilos virtuales.
+	 */
+	private static ExecutorService createVirtualExecutor () {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)method.invoke(null);
+		} catch (Exception e) {
+			// Sin el metodo (antes de Java 19) o con hilos virtuales
+			// en preliminar sin habilitar (Java 19 y 20)
+			return null;
+		}
+	}
+
+	/**
+	 * Abre una mesa nueva con las bolas en su posicion inicial.
+	 * @param id Identificador de la mesa.
+	 * @return Devuelve la sesion de la mesa.
+	 * @throws java.lang.IllegalArgumentException Si ya existe una mesa
+	 * con ese identificador.
+	 */
+	public SpfTableSession openTable (String id) throws IllegalArgumentException {
+		SpfTableSession session = new SpfTableSession(id, m_Loader.createTable(m_BallNames));
+		if (m_Sessions.putIfAbsent(id, session) != null)
+			throw new IllegalArgumentException("La mesa " + id + " ya existe");
+		return session;
+	}
+
+	/**
+	 * Cierra una mesa. Los tiros pendientes se cancelan y el que
+	 * esta en curso, si lo hay, termina normalmente.
+	 * @param id Identificador de la mesa.
+	 */
+	public void closeTable (String id) {
+		SpfTableSession session = m_Sessions.remove(id);
+		if (session != null) session.close();
+	}
+
+	/**
+	 * @param id Identificador de la mesa.
+	 * @return Devuelve la sesion de la mesa, o null si no existe.
+	 */
+	public SpfTableSession getTable (String id) {
+		return m_Sessions.get(id);
+	}
+
+	/**
+	 * @return Devuelve las sesiones abiertas.
+	 */
+	public List<SpfTableSession> getTables () {
+		return new ArrayList<SpfTableSession>(m_Sessions.values());
+	}
+
+	/**
+	 * Solicita un tiro en una mesa. El tiro se simula despues de los
+	 * que ya estaban pendientes en la misma mesa.
+	 * @param id Identificador de la mesa.
+	 * @param cue Bola golpeada.
+	 * @param fx Fuerza del tiro en el eje X.
+	 * @param fy Fuerza del tiro en el eje Y.
+	 * @param fz Fuerza del tiro en el eje Z.
+	 * @return Devuelve el resultado futuro del tiro.
+	 */
+	public CompletableFuture<SpfShotOutcome> shoot (String id, int cue,
+			float fx, float fy, float fz) {
+		SpfTableSession session = m_Sessions.get(id);
+		SpfTableSession.Shot shot = new SpfTableSession.Shot(cue, fx, fy, fz);
+		if (session == null) {
+			shot.getResult().completeExceptionally(
+					new IllegalArgumentException("No existe la mesa " + id));
+		} else if (session.enqueue(shot)) {
+			schedule(session);
+		}
+		return shot.getResult();
+	}
+
+	/**
+	 * Planifica el siguiente tiro de una sesion.
+	 * @param session Sesion de la mesa.
+	 */
+	private void schedule (final SpfTableSession session) {
+		try {
+			m_Executor.execute(new Runnable() {
+				public void run () {
+					boolean again;
+					try {
+						m_Simulations.acquire();
+					} catch (InterruptedException e) {
+						// El servidor se esta cerrando
+						session.close();
+						return;
+					}
+					try {
+						again = session.runNext();
+					} finally {
+						m_Simulations.release();
+					}
+					if (again) schedule(session);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			session.close();
+		}
+	}
+
+	/**
+	 * Cierra el servidor y todas sus mesas.
+	 * @param timeout Tiempo maximo de espera a los tiros en curso, en milisegundos.
+	 * @throws java.lang.InterruptedException
+	 */
+	public void shutdown (long timeout) throws InterruptedException {
+		for (String id : m_Sessions.keySet())
+			closeTable(id);
+		m_Executor.shutdown();
+		if (!m_Executor.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+			m_Executor.shutdownNow();
+	}
+
+	/**
+	 * @return Devuelve si los tiros se ejecutan en hilos virtuales.
+	 */
+	public boolean isVirtual () {
+		return m_Virtual;
+	}
+
+	/**
+	 * @return Devuelve el numero maximo de simulaciones simultaneas.
+	 */
+	public int getMaxSimulations () {
+		return m_MaxSimulations;
+	}
+
+	/**
+	 * @return Devuelve el numero de simulaciones en curso.
+	 */
+	public int getActiveSimulations () {
+		return m_MaxSimulations - m_Simulations.availablePermits();
+	}
+
+	/**
+	 * Crea hilos demonio con nombre para el pool acotado.
+	 */
+	private static class DaemonFactory implements ThreadFactory {
+		private AtomicInteger m_Count = new AtomicInteger();
+
+		public Thread newThread (Runnable runnable) {
+			Thread thread = new Thread(runnable, "spf-table-" + m_Count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+package spf.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import spf.physics.SpfBallTable;
+import spf.physics.SpfPhysicsEngine;
+import spf.physics.SpfShotOutcome;
+import spf.physics.SpfSteppedEngine;
+
+/**
+ * Sesion de una mesa del servidor. Cada sesion tiene su propia mesa
+ * de bolas y su propio motor, por lo que las mesas no comparten
+ * estado. Los tiros de una mesa se simulan de uno en uno y en el
+ * orden en que llegan.
+ * <p>
+ * Se usa ReentrantLock en lugar de synchronized para que los hilos
+ * virtuales no queden fijados a su hilo portador mientras esperan.
+ * @author Sergio Paque Martin
+ */
+public class SpfTableSession {
+	private String m_Id;
+	private SpfBallTable m_Table;
+	private SpfPhysicsEngine m_Engine;
+	private ReentrantLock m_Lock = new ReentrantLock();
+	/// Tiros pendientes de simular
+	private ArrayDeque<Shot> m_Queue = new ArrayDeque<Shot>();
+	/// Si la sesion tiene una tarea en el planificador del servidor
+	private boolean m_Scheduled;
+	private boolean m_Closed;
+	private long m_ShotCount;
+
+	/**
+	 * Constructor de SpfTableSession.
+	 * @param id Identificador de la mesa.
+	 * @param table Mesa de bolas de la sesion.
+	 */
+	SpfTableSession (String id, SpfBallTable table) {
+		m_Id = id;
+		m_Table = table;
+		m_Engine = new SpfSteppedEngine();
+	}
+
+	/**
+	 * Añade un tiro a la cola de la sesion.
+	 * @param shot Tiro a simular.
+	 * @return Devuelve si la sesion debe planificarse (no tenia
+	 * ninguna tarea pendiente en el servidor).
+	 */
+	boolean enqueue (Shot shot) {
+		m_Lock.lock();
+		try {
+			if (m_Closed) {
+				shot.m_Result.completeExceptionally(
+						new IllegalStateException("La mesa " + m_Id + " esta cerrada"));
+				return false;
+			}
+			m_Queue.add(shot);
+			if (m_Scheduled) return false;
+			m_Scheduled = true;
+			return true;
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * Simula el primer tiro de la cola. Solo lo llama la tarea
+	 * planificada de la sesion, por lo que nunca hay dos tiros
+	 * de la misma mesa a la vez.
+	 * @return Devuelve si quedan tiros en la cola y la sesion
+	 * debe volver a planificarse.
+	 */
+	boolean runNext () {
+		Shot shot;
+		m_Lock.lock();
+		try {
+			shot = m_Queue.poll();
+		} finally {
+			m_Lock.unlock();
+		}
+		if (shot != null) {
+			try {
+				// Se simula sobre una copia, de forma que la mesa
+				// publicada nunca se modifica a medias
+				SpfBallTable table = m_Table.copy();
+				SpfShotOutcome outcome = new SpfShotOutcome();
+				m_Engine.simulateShot(table, shot.m_Cue,
+						shot.m_Fx, shot.m_Fy, shot.m_Fz, outcome);
+				outcome.finish(table);
+				m_Lock.lock();
+				try {
+					m_Table = table;
+					m_ShotCount++;
+				} finally {
+					m_Lock.unlock();
+				}
+				shot.m_Result.complete(outcome);
+			} catch (RuntimeException e) {
+				shot.m_Result.completeExceptionally(e);
+			}
+		}
+		m_Lock.lock();
+		try {
+			if (m_Queue.isEmpty()) {
+				m_Scheduled = false;
+				return false;
+			}
+			return true;
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * Cierra la sesion. Los tiros que quedan en la cola se cancelan.
+	 */
+	void close () {
+		m_Lock.lock();
+		try {
+			m_Closed = true;
+			Shot shot;
+			while ((shot = m_Queue.poll()) != null)
+				shot.m_Result.cancel(false);
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Devuelve una copia del estado actual de la mesa. Si hay un
+	 * tiro en curso, el estado es el anterior al tiro.
+	 */
+	public SpfBallTable getSnapshot () {
+		m_Lock.lock();
+		try {
+			return m_Table.copy();
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Devuelve el identificador de la mesa.
+	 */
+	public String getId () {
+		return m_Id;
+	}
+
+	/**
+	 * @return Devuelve el numero de tiros simulados.
+	 */
+	public long getShotCount () {
+		m_Lock.lock();
+		try {
+			return m_ShotCount;
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Devuelve el numero de tiros pendientes.
+	 */
+	public int getPendingShots () {
+		m_Lock.lock();
+		try {
+			return m_Queue.size();
+		} finally {
+			m_Lock.unlock();
+		}
+	}
+
+	/**
+	 * Tiro pendiente de una sesion.
+	 */
+	static class Shot {
+		private int m_Cue;
+		private float m_Fx;
+		private float m_Fy;
+		private float m_Fz;
+		private CompletableFuture<SpfShotOutcome> m_Result =
+				new CompletableFuture<SpfShotOutcome>();
+
+		Shot (int cue, float fx, float fy, float fz) {
+			m_Cue = cue;
+			m_Fx = fx;
+			m_Fy = fy;
+			m_Fz = fz;
+		}
+
+		CompletableFuture<SpfShotOutcome> getResult () {
+			return m_Result;
+		}
+	}
+}
@@ -1,75 +1,103 @@
 package spf.xml;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
- * Clase para realizar el analisis de ficheros xml.
+ * Elemento xml leido en memoria con sus atributos y sus hijos. Lo
+ * crea SpfXmlReader para los elementos pequeños de la escena, de
+ * forma que no se construye el arbol de todo el documento, y
+ * tambien la escena compilada al leer sus objetos.
  * @author Sergio Paque Martin
  */
 public class SpfXmlNode {
-    private Node m_Node;
-    private List<Node> m_ChildNodes;
+	private static final List<SpfXmlNode> NoChildren = Collections.emptyList();
+
+	private String m_Name;
+	/// Nombre y valor de cada atributo, alternados
+	private String[] m_Attributes;
+	private List<SpfXmlNode> m_ChildNodes = NoChildren;
 
 	/**
 	 * Constructor de SpfXmlNode.
-	 * @param node Nodo estandar xml.
+	 * @param name Nombre del elemento.
+	 * @param attributes Nombre y valor de cada atributo, alternados.
+	 */
+	public SpfXmlNode (String name, String[] attributes) {
+		m_Name = name;
+		m_Attributes = attributes;
+	}
+
+	/**
+	 * Añade un hijo al final del elemento.
+	 * @param child Nodo hijo.
+	 */
+	public void addChild (SpfXmlNode child) {
+		if (m_ChildNodes == NoChildren)
+			m_ChildNodes = new ArrayList<SpfXmlNode>(4);
+		m_ChildNodes.add(child);
+	}
+
+	/**
+	 * @return Devuelve el numero de atributos del nodo actual.
+	 */
+	public int getAttributeCount () {
+		return m_Attributes.length / 2;
+	}
+
+	/**
+	 * @param index Indice del atributo.
+	 * @return Devuelve el nombre del atributo.
+	 */
+	public String getAttributeName (int index) {
+		return m_Attributes[index * 2];
+	}
+
+	/**
+	 * @param index Indice del atributo.
+	 * @return Devuelve el valor del atributo.
 	 */
-    public SpfXmlNode(Node node) {
-        m_Node = node;
-        m_ChildNodes = new LinkedList<Node>();
+	public String getAttributeValue (int index) {
+		return m_Attributes[index * 2 + 1];
+	}
 
-        NodeList list = m_Node.getChildNodes();
-        for (int i = 0; i < list.getLength(); i++) {
-            if (list.item(i).getNodeType() != Node.TEXT_NODE)
-                m_ChildNodes.add(list.item(i));
-        }
-    }
-    
 	/**
 	 * @return Devuelve el primer nodo hijo del nodo actual.
 	 */
-    public SpfXmlNode getFirstChild () {
-        if (m_ChildNodes.isEmpty())
-            return null;
-        else
-            return new SpfXmlNode(m_ChildNodes.get(0));
-    }
-    
+	public SpfXmlNode getFirstChild () {
+		if (m_ChildNodes.isEmpty())
+			return null;
+		else
+			return m_ChildNodes.get(0);
+	}
+
 	/**
-	 * @return Devuelve los nodos hijo del nodo actual.
+	 * @return Devuelve los nodos hijo del nodo actual. La lista
+	 * no puede modificarse.
 	 */
-    public List<SpfXmlNode> getChildNodes () {
-        List<SpfXmlNode> list = new LinkedList<SpfXmlNode>();
-        for(Node node : m_ChildNodes) {
-            list.add(new SpfXmlNode(node));
-        }
-        return list;
-    }
-    
+	public List<SpfXmlNode> getChildNodes () {
+		return Collections.unmodifiableList(m_ChildNodes);
+	}
+
 	/**
 	 * @return Devuelve el nombre del nodo actual.
 	 */
-    public String getNodeName () {
-        return m_Node.getNodeName();
-    }
-    
+	public String getNodeName () {
+		return m_Name;
+	}
+
 	/**
 	 * Obtiene el valor de un atributo o etiqueta
 	 * de un nodo xml.
 	 * @param name Nombre del atributo.
 	 * @return Devuelve el valor asociado al atributo.
 	 */
-    public String getAttribute (String name) {
-        NamedNodeMap attr = m_Node.getAttributes();
-        Node attrNode = attr.getNamedItem(name);
-        if (attrNode != null) {
-            return attrNode.getNodeValue();
-        } else {
-            return "";
-        }
-    }
+	public String getAttribute (String name) {
+		for (int i = 0; i < m_Attributes.length; i += 2) {
+			if (m_Attributes[i].equals(name))
+				return m_Attributes[i + 1];
+		}
+		return "";
+	}
 }
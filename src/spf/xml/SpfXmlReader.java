@@ -0,0 +1,150 @@
+package spf.xml;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Lector de ficheros xml en un solo recorrido, sin construir el arbol
+ * del documento. El lector siempre esta situado en un elemento, el
+ * elemento actual, cuyos atributos pueden consultarse hasta pasar a
+ * sus hijos.
+ * <p>
+ * Los hijos de un elemento se recorren con nextChild. Cada hijo debe
+ * leerse por completo (recorriendo a su vez sus hijos, con skipNode o
+ * con readNode) antes de pasar al siguiente. Los nodos de texto, los
+ * comentarios y las instrucciones de proceso se ignoran.
+ * <p>
+ * Cualquier error del fichero se notifica con una
+ * IllegalArgumentException, igual que con el analizador DOM.
+ * @author Sergio Paque Martin
+ */
+public class SpfXmlReader {
+	private static final XMLInputFactory Factory = XMLInputFactory.newInstance();
+
+	private InputStream m_Input;
+	private XMLStreamReader m_Reader;
+
+	/**
+	 * Constructor de SpfXmlReader. El lector queda situado en el
+	 * elemento raiz del documento.
+	 * @param file Fichero xml.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public SpfXmlReader (File file) throws IllegalArgumentException {
+		try {
+			m_Input = new BufferedInputStream(new FileInputStream(file));
+			synchronized (Factory) {
+				m_Reader = Factory.createXMLStreamReader(m_Input);
+			}
+			m_Reader.nextTag();
+		} catch (Exception e) {
+			close();
+			throw new IllegalArgumentException("El formato del fichero no es correcto");
+		}
+	}
+
+	/**
+	 * @return Devuelve el nombre del elemento actual.
+	 */
+	public String getNodeName () {
+		return m_Reader.getLocalName();
+	}
+
+	/**
+	 * Obtiene el valor de un atributo del elemento actual. Solo puede
+	 * llamarse antes de pasar a los hijos del elemento.
+	 * @param name Nombre del atributo.
+	 * @return Devuelve el valor asociado al atributo, o una cadena
+	 * vacia si el elemento no lo tiene.
+	 */
+	public String getAttribute (String name) {
+		String value = m_Reader.getAttributeValue(null, name);
+		return value != null ? value : "";
+	}
+
+	/**
+	 * Avanza al siguiente hijo del elemento actual.
+	 * @return Devuelve si hay otro hijo, que pasa a ser el elemento
+	 * actual, o false si se ha llegado al final del elemento.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public boolean nextChild () throws IllegalArgumentException {
+		try {
+			while (m_Reader.hasNext()) {
+				int event = m_Reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT)
+					return true;
+				if (event == XMLStreamConstants.END_ELEMENT)
+					return false;
+			}
+		} catch (XMLStreamException e) {
+			throw new IllegalArgumentException("El formato del fichero no es correcto");
+		}
+		throw new IllegalArgumentException("El formato del fichero no es correcto");
+	}
+
+	/**
+	 * Salta el resto del elemento actual, con todos sus hijos.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public void skipNode () throws IllegalArgumentException {
+		while (nextChild())
+			skipNode();
+	}
+
+	/**
+	 * Lee el elemento actual y sus hijos en un SpfXmlNode. Se usa
+	 * para los elementos pequeños, como los objetos y su apariencia.
+	 * @return Devuelve el nodo leido.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public SpfXmlNode readNode () throws IllegalArgumentException {
+		int count = m_Reader.getAttributeCount();
+		String[] attributes = new String[count * 2];
+		for (int i = 0; i < count; i++) {
+			attributes[i * 2] = m_Reader.getAttributeLocalName(i);
+			attributes[i * 2 + 1] = m_Reader.getAttributeValue(i);
+		}
+		SpfXmlNode node = new SpfXmlNode(getNodeName(), attributes);
+		while (nextChild())
+			node.addChild(readNode());
+		return node;
+	}
+
+	/**
+	 * Lee el resto del documento sin tratarlo, para comprobar que
+	 * es correcto hasta el final.
+	 * @throws java.lang.IllegalArgumentException
+	 */
+	public void finish () throws IllegalArgumentException {
+		try {
+			while (m_Reader.hasNext())
+				m_Reader.next();
+		} catch (XMLStreamException e) {
+			throw new IllegalArgumentException("El formato del fichero no es correcto");
+		}
+	}
+
+	/**
+	 * Cierra el lector y el fichero.
+	 */
+	public void close () {
+		try {
+			if (m_Reader != null) m_Reader.close();
+		} catch (XMLStreamException e) {
+			// El fichero se cierra igualmente
+		}
+		try {
+			if (m_Input != null) m_Input.close();
+		} catch (IOException e) {
+			// Solo se ha leido
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package spf.physics;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import static spf.physics.SpfBallTable.RollingDrag;
+import static spf.physics.SpfPhysicsConstants.G;
+
+/**
+ * Implementacion de SpfKernels con la Vector API (jdk.incubator.vector).
+ * Cada instruccion procesa tantas bolas o pares como quepan en un
+ * registro vectorial, leyendolos de la mesa por su identificador. Las
+ * operaciones se hacen en el mismo orden que en la version escalar y
+ * sin fusionar multiplicaciones y sumas, de forma que los resultados
+ * son identicos bit a bit. Los elementos que no llenan un vector
+ * completo se calculan con la version escalar.
+ * @author Sergio Paque Martin
+ */
+public class SpfVectorKernels extends SpfKernels {
+	private static final VectorSpecies<Float> Species = FloatVector.SPECIES_PREFERRED;
+
+	@Override
+	public String getName () {
+		return "vectorial (" + Species.length() + " x float)";
+	}
+
+	@Override
+	public void updateSweeps (SpfBallTable table, int[] ids, int count) {
+		float dt = table.getTimeStep();
+		float[] masses = table.getMasses();
+		float[][] velocities = table.getVelocities();
+		float[][] forces = table.getForces();
+		float[][] sweeps = table.getSweeps();
+		int bound = Species.loopBound(count);
+		int k = 0;
+		for (; k < bound; k += Species.length()) {
+			FloatVector mass = FloatVector.fromArray(Species, masses, 0, ids, k);
+			FloatVector drag = mass.mul(-RollingDrag).mul(G);
+			for (int axis = 0; axis < 3; axis++) {
+				FloatVector velocity = FloatVector.fromArray(Species, velocities[axis], 0, ids, k);
+				FloatVector force = FloatVector.fromArray(Species, forces[axis], 0, ids, k);
+				FloatVector friction = drag.mul(velocity);
+				FloatVector L = force.add(friction).mul(dt).div(mass);
+				L.div(2).add(velocity).mul(dt).intoArray(sweeps[axis], 0, ids, k);
+			}
+		}
+		for (; k < count; k++)
+			table.updateSweep(ids[k]);
+	}
+
+	@Override
+	public void timesOfImpact (SpfBallTable table, int[] first, int[] second,
+			int count, float[] toi) {
+		float[][] position = table.getPositions();
+		float[][] sweep = table.getSweeps();
+		float[] radius = table.getRadii();
+		FloatVector none = FloatVector.broadcast(Species, -1);
+		FloatVector zero = FloatVector.zero(Species);
+		int bound = Species.loopBound(count);
+		int k = 0;
+		for (; k < bound; k += Species.length()) {
+			FloatVector dx = difference(position[0], first, second, k);
+			FloatVector dy = difference(position[1], first, second, k);
+			FloatVector dz = difference(position[2], first, second, k);
+			FloatVector sx = difference(sweep[0], first, second, k);
+			FloatVector sy = difference(sweep[1], first, second, k);
+			FloatVector sz = difference(sweep[2], first, second, k);
+			FloatVector minDistance = FloatVector.fromArray(Species, radius, 0, first, k)
+					.add(FloatVector.fromArray(Species, radius, 0, second, k));
+			
+			// Las mismas operaciones que SpfSteppedEngine.timeOfImpact,
+			// calculadas en todos los elementos y seleccionadas despues
+			FloatVector b = dx.mul(sx).add(dy.mul(sy)).add(dz.mul(sz));
+			FloatVector c = dx.mul(dx).add(dy.mul(dy)).add(dz.mul(dz))
+					.sub(minDistance.mul(minDistance));
+			FloatVector a = sx.mul(sx).add(sy.mul(sy)).add(sz.mul(sz));
+			FloatVector disc = b.mul(b).sub(a.mul(c));
+			FloatVector t = b.neg().sub(disc.sqrt()).div(a);
+			
+			VectorMask<Float> late = t.compare(VectorOperators.LE, 1).not();
+			FloatVector result = t.blend(none, late);
+			result = result.blend(none, disc.compare(VectorOperators.LT, 0));
+			result = result.blend(zero, c.compare(VectorOperators.LE, 0));
+			result = result.blend(none, b.compare(VectorOperators.GE, 0));
+			result.intoArray(toi, k);
+		}
+		timesOfImpact(table, first, second, k, count, toi);
+	}
+
+	/**
+	 * Calcula la diferencia de una componente entre las bolas de los pares.
+	 * @param state Componente de la mesa, indexada por bola.
+	 * @param first Primera bola de cada par.
+	 * @param second Segunda bola de cada par.
+	 * @param offset Primer par.
+	 * @return Devuelve la componente de la segunda bola menos la de la primera.
+	 */
+	private static FloatVector difference (float[] state, int[] first, int[] second, int offset) {
+		return FloatVector.fromArray(Species, state, 0, second, offset)
+				.sub(FloatVector.fromArray(Species, state, 0, first, offset));
+	}
+}